@@ -0,0 +1,138 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.repo.dirmi.bench.NarrowRecord;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Measures server-side transaction attachment when several threads share one
+ * transaction, as when a client has many requests in flight within a
+ * transaction. The fetch benchmark attaches once per batch, like a query
+ * fetch does. This is in the same package as the server classes, since
+ * attachment isn't accessible otherwise. Run it against an older build to
+ * compare implementations.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttachBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({"10", "100"})
+    public int batchSize;
+
+    private Repository mRepo;
+    private Storage<NarrowRecord> mStorage;
+    private RemoteTransactionServer mTxn;
+
+    private final AtomicInteger mNextBatch = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mRepo = MapRepositoryBuilder.newRepository();
+        mStorage = mRepo.storageFor(NarrowRecord.class);
+
+        for (int id=0; id<ROWS; id++) {
+            NarrowRecord row = mStorage.prepare();
+            row.setId(id);
+            row.setName("row value " + id);
+            row.setValue(id);
+            row.insert();
+        }
+
+        Transaction txn = mRepo.enterTransaction();
+        txn.detach();
+        mTxn = new RemoteTransactionServer(txn, null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mTxn.exit();
+        mRepo.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void attachDetach() {
+        mTxn.attach();
+        mTxn.detach();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void attachReentrant() {
+        mTxn.attach();
+        mTxn.attach();
+        mTxn.detach();
+        mTxn.detach();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fetchBatch(Blackhole bh) throws Exception {
+        int from = (mNextBatch.getAndIncrement() * batchSize) % (ROWS - batchSize);
+        mTxn.attach();
+        try {
+            Cursor<NarrowRecord> c = mStorage.query("id >= ? & id < ?")
+                .with(from).with(from + batchSize).fetch();
+            try {
+                while (c.hasNext()) {
+                    bh.consume(c.next());
+                }
+            } finally {
+                c.close();
+            }
+        } finally {
+            mTxn.detach();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.ByteArrayOutputStream;
+
+import java.util.List;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import com.amazon.carbonado.gen.DetachedStorableFactory;
+import com.amazon.carbonado.gen.StorableCopier;
+
+import com.amazon.carbonado.layout.Layout;
+
+import com.amazon.carbonado.repo.dirmi.bench.NarrowRecord;
+import com.amazon.carbonado.repo.dirmi.bench.Rows;
+import com.amazon.carbonado.repo.dirmi.bench.WideRecord;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Measures the copier writer, which converts each row streamed by a query
+ * fetch when the client layout differs from the server's. Each invocation
+ * writes one row. Run with the GC profiler to see the allocation per row,
+ * reported as gc.alloc.rate.norm:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar CopierBenchmark -prof gc
+ * </pre>
+ *
+ * The freshTarget benchmark copies into a new target for every row, and so it
+ * shows the allocation which the reused targets avoid. Only load responses
+ * are measured. Keys, updates and partial responses still use new targets. This is in the same
+ * package as the server classes, since writers aren't accessible otherwise.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopierBenchmark {
+    private static final int ROWS = 1000;
+
+    /**
+     * "narrow" for {@link NarrowRecord} and "wide" for {@link WideRecord}.
+     */
+    @Param({"narrow", "wide"})
+    public String width;
+
+    private Repository mRepo;
+    private Storable[] mRows;
+    private int mNext;
+
+    private StorableWriter<Storable> mWriter;
+    private StorableCopier<Storable, Storable> mCopier;
+    private DetachedStorableFactory<?> mFactory;
+
+    private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        Class<Storable> type;
+        if ("wide".equals(width)) {
+            type = (Class) WideRecord.class;
+        } else if ("narrow".equals(width)) {
+            type = (Class) NarrowRecord.class;
+        } else {
+            throw new IllegalArgumentException("Unknown width: " + width);
+        }
+
+        mRepo = MapRepositoryBuilder.newRepository();
+        Storage<Storable> storage = mRepo.storageFor(type);
+        Rows rows = new Rows(type);
+        for (int id=0; id<ROWS; id++) {
+            Storable row = storage.prepare();
+            rows.fill(row, id);
+            row.insert();
+        }
+
+        List<Storable> loaded = storage.query().fetch().toList();
+        mRows = loaded.toArray(new Storable[loaded.size()]);
+
+        Layout clientLayout = ReconstructedCache.THE.layoutFor(Rows.mismatchedLayout(type));
+        mWriter = ReconstructedCache.THE.writerFor(type, clientLayout);
+        if (!(mWriter instanceof StorableWriter.Copier)) {
+            throw new IllegalStateException("Not a copier: " + mWriter);
+        }
+
+        Class target = ReconstructedCache.THE.reconstruct(type, clientLayout);
+        mCopier = StorableCopier.from(type).to(target);
+        mFactory = new DetachedStorableFactory(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mRepo.close();
+    }
+
+    @Benchmark
+    public int writeLoadResponse() throws Exception {
+        mOut.reset();
+        mWriter.writeLoadResponse(nextRow(), mOut);
+        return mOut.size();
+    }
+
+    @Benchmark
+    public int freshTarget() throws Exception {
+        mOut.reset();
+        Storable target = mFactory.newInstance();
+        mCopier.copyAllProperties(nextRow(), target);
+        target.markAllPropertiesClean();
+        target.writeTo(mOut);
+        return mOut.size();
+    }
+
+    private Storable nextRow() {
+        int i = mNext;
+        mNext = i + 1 == ROWS ? 0 : i + 1;
+        return mRows[i];
+    }
+}
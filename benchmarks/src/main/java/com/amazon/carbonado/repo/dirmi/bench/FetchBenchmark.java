@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Measures query fetches at several result sizes.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchBenchmark {
+    @Param({"1", "100", "10000"})
+    public int resultSize;
+
+    @Benchmark
+    public void fetch(RemoteState state, Blackhole bh) throws Exception {
+        Cursor<Storable> c = state.mClientStorage.query("id < ?").with(resultSize).fetch();
+        try {
+            while (c.hasNext()) {
+                bh.consume(c.next());
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    @Benchmark
+    public void fetchOrdered(RemoteState state, Blackhole bh) throws Exception {
+        Cursor<Storable> c = state.mClientStorage.query("id < ?").with(resultSize)
+            .orderBy("-value").fetch();
+        try {
+            while (c.hasNext()) {
+                bh.consume(c.next());
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
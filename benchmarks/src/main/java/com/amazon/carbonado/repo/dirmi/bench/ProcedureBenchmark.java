@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.RemoteProcedure;
+import com.amazon.carbonado.capability.RemoteProcedureCapability;
+
+/**
+ * Measures remote procedure calls, with and without storables sent to the
+ * procedure.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcedureBenchmark {
+    @Param({"1", "100", "10000"})
+    public int resultSize;
+
+    private RemoteProcedureCapability mCap;
+    private Storable[] mRows;
+
+    @Setup(Level.Trial)
+    public void setup(RemoteState state) throws Exception {
+        mCap = state.mClientRepo.getCapability(RemoteProcedureCapability.class);
+        mRows = new Storable[resultSize];
+        for (int i=0; i<resultSize; i++) {
+            Storable row = state.mClientStorage.prepare();
+            state.mClientRows.fill(row, i);
+            mRows[i] = row;
+        }
+    }
+
+    @Benchmark
+    public String echo() throws Exception {
+        Cursor<String> c = mCap.beginCall(new EchoProc()).send("hello").fetchReply();
+        try {
+            return c.next();
+        } finally {
+            c.close();
+        }
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        RemoteProcedure.Call<Object, Storable> call = mCap.beginCall(new SinkProc());
+        for (Storable row : mRows) {
+            call.send(row);
+        }
+        call.execute();
+    }
+
+    private static class EchoProc implements RemoteProcedure<String, String> {
+        public boolean handleRequest(Repository repo, Request<String, String> request)
+            throws RepositoryException
+        {
+            request.beginReply().send(request.receive()).finish();
+            return true;
+        }
+    }
+
+    /**
+     * Receives storables and discards them.
+     */
+    private static class SinkProc implements RemoteProcedure<Object, Storable> {
+        public boolean handleRequest(Repository repo, Request<Object, Storable> request)
+            throws RepositoryException
+        {
+            while (request.receive() != null) {
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cojen.dirmi.Environment;
+import org.cojen.dirmi.Session;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Transaction;
+
+import com.amazon.carbonado.repo.dirmi.ClientRepository;
+import com.amazon.carbonado.repo.dirmi.RemoteRepository;
+import com.amazon.carbonado.repo.dirmi.RemoteRepositoryServer;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+/**
+ * Client and server repositories connected by an in-process session pair. The
+ * server is backed by a map repository which is filled with {@link #ROWS}
+ * rows, with ids starting at zero.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+public class RemoteState {
+    public static final int ROWS = 10000;
+
+    /**
+     * "default" when the client and server layouts match, and "copier" when
+     * the client layout is missing a property.
+     */
+    @Param({"default", "copier"})
+    public String writer;
+
+    /**
+     * "narrow" for {@link NarrowRecord} and "wide" for {@link WideRecord}.
+     */
+    @Param({"narrow", "wide"})
+    public String width;
+
+    Environment mEnv;
+    Repository mServerRepo;
+    Repository mClientRepo;
+
+    Storage<Storable> mServerStorage;
+    Storage<Storable> mClientStorage;
+
+    Rows mServerRows;
+    Rows mClientRows;
+
+    private final AtomicInteger mNextId = new AtomicInteger(ROWS);
+    private final AtomicInteger mNextThread = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Class<? extends Storable> type;
+        if ("wide".equals(width)) {
+            type = WideRecord.class;
+        } else if ("narrow".equals(width)) {
+            type = NarrowRecord.class;
+        } else {
+            throw new IllegalArgumentException("Unknown width: " + width);
+        }
+
+        Class<? extends Storable> clientType;
+        if ("copier".equals(writer)) {
+            clientType = Rows.mismatchedLayout(type);
+        } else if ("default".equals(writer)) {
+            clientType = type;
+        } else {
+            throw new IllegalArgumentException("Unknown writer: " + writer);
+        }
+
+        mServerRepo = MapRepositoryBuilder.newRepository();
+
+        mEnv = new Environment();
+        Session[] pair = mEnv.newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(mServerRepo));
+        mClientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        mServerStorage = storageFor(mServerRepo, type);
+        mClientStorage = storageFor(mClientRepo, clientType);
+        mServerRows = new Rows(type);
+        mClientRows = new Rows(clientType);
+
+        Transaction txn = mServerRepo.enterTransaction();
+        try {
+            for (int id=0; id<ROWS; id++) {
+                Storable row = mServerStorage.prepare();
+                mServerRows.fill(row, id);
+                row.insert();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+    }
+
+    /**
+     * Removes the rows added by inserts, keeping the repository size stable.
+     */
+    @TearDown(Level.Iteration)
+    public void removeInserted() throws Exception {
+        mServerStorage.query("id >= ?").with(ROWS).deleteAll();
+        mNextId.set(ROWS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mClientRepo.close();
+        mEnv.close();
+        mServerRepo.close();
+    }
+
+    /**
+     * Returns an id which isn't used by any of the initial rows.
+     */
+    int newId() {
+        return mNextId.getAndIncrement();
+    }
+
+    /**
+     * Returns the id of an initial row which isn't given to any other thread.
+     */
+    int threadRowId() {
+        int id = mNextThread.getAndIncrement();
+        if (id >= ROWS) {
+            throw new IllegalStateException("Too many threads");
+        }
+        return id;
+    }
+
+    /**
+     * Loads an initial row using the client repository.
+     */
+    Storable clientRow(int id) throws RepositoryException {
+        Storable row = mClientStorage.prepare();
+        row.setPropertyValue("id", id);
+        row.load();
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Storage<Storable> storageFor(Repository repo, Class<? extends Storable> type)
+        throws RepositoryException
+    {
+        return (Storage<Storable>) repo.storageFor(type);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.SupportException;
+
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+
+import com.amazon.carbonado.synthetic.SyntheticProperty;
+import com.amazon.carbonado.synthetic.SyntheticStorableBuilder;
+
+/**
+ * Fills in benchmark rows, and generates client layouts which differ from the
+ * server's.
+ *
+ * @author agent
+ */
+public class Rows {
+    /** Property which isn't defined by the mismatched client layout. */
+    public static final String OMITTED = "note";
+
+    /**
+     * Generates a Storable type with the same name as the given type, but
+     * without the {@link #OMITTED} property. A client which uses it has a
+     * different layout than the server, and so storables are sent using
+     * copiers instead of being serialized directly.
+     */
+    public static Class<? extends Storable> mismatchedLayout(Class<? extends Storable> type)
+        throws SupportException
+    {
+        final String name = type.getName();
+
+        SyntheticStorableBuilder bob = new SyntheticStorableBuilder
+            (name, new ClassLoader(type.getClassLoader()) {
+                @Override
+                protected Class<?> loadClass(String className, boolean resolve)
+                    throws ClassNotFoundException
+                {
+                    if (className.equals(name)) {
+                        throw new ClassNotFoundException();
+                    }
+                    return super.loadClass(className, resolve);
+                }
+            });
+
+        bob.setClassNameProvider(new SyntheticStorableBuilder.ClassNameProvider() {
+            public String getName() {
+                return name;
+            }
+            public boolean isExplicit() {
+                return true;
+            }
+        });
+
+        for (StorableProperty<?> prop : StorableIntrospector.examine(type)
+                 .getAllProperties().values())
+        {
+            if (prop.isJoin() || prop.isDerived() || OMITTED.equals(prop.getName())) {
+                continue;
+            }
+            SyntheticProperty sp = bob.addProperty(prop.getName(), prop.getType());
+            sp.setIsNullable(prop.isNullable());
+            sp.setIsVersion(prop.isVersion());
+            if (prop.isPrimaryKeyMember()) {
+                bob.addPrimaryKey().addProperty(prop.getName());
+            }
+        }
+
+        return bob.build();
+    }
+
+    private final String[] mNames;
+    private final Class[] mTypes;
+
+    public Rows(Class<? extends Storable> type) {
+        List<String> names = new ArrayList<String>();
+        List<Class> types = new ArrayList<Class>();
+        for (StorableProperty<?> prop : StorableIntrospector.examine(type)
+                 .getAllProperties().values())
+        {
+            if (!prop.isJoin() && !prop.isDerived() && !prop.isVersion()) {
+                names.add(prop.getName());
+                types.add(prop.getType());
+            }
+        }
+        mNames = names.toArray(new String[names.size()]);
+        mTypes = types.toArray(new Class[types.size()]);
+    }
+
+    /**
+     * Sets all properties except the version, with values derived from the id.
+     */
+    public void fill(Storable row, int id) {
+        for (int i=0; i<mNames.length; i++) {
+            row.setPropertyValue(mNames[i], valueFor(mTypes[i], id));
+        }
+    }
+
+    private static Object valueFor(Class type, int id) {
+        if (type == int.class) {
+            return id;
+        } else if (type == long.class) {
+            return (long) id;
+        } else if (type == double.class) {
+            return id * 0.5;
+        } else {
+            return "row value " + id;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Measures single storable operations, each of which makes one round trip.
+ *
+ * @author agent
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+    @Benchmark
+    public boolean load(RemoteState state) throws Exception {
+        Storable row = state.mClientStorage.prepare();
+        row.setPropertyValue("id", ThreadLocalRandom.current().nextInt(RemoteState.ROWS));
+        return row.tryLoad();
+    }
+
+    @Benchmark
+    public boolean insert(RemoteState state) throws Exception {
+        Storable row = state.mClientStorage.prepare();
+        state.mClientRows.fill(row, state.newId());
+        return row.tryInsert();
+    }
+
+    @Benchmark
+    public void update(ThreadRow row) throws Exception {
+        row.update();
+    }
+
+    /**
+     * Deletes a row which was just inserted directly into the server
+     * repository. The insert doesn't make a round trip, but it is included in
+     * the measurement.
+     */
+    @Benchmark
+    public boolean delete(RemoteState state) throws Exception {
+        int id = state.newId();
+        Storable row = state.mServerStorage.prepare();
+        state.mServerRows.fill(row, id);
+        row.insert();
+
+        row = state.mClientStorage.prepare();
+        row.setPropertyValue("id", id);
+        return row.tryDelete();
+    }
+
+    @Benchmark
+    public long count(RemoteState state) throws Exception {
+        return state.mClientStorage.query().count();
+    }
+
+    @Benchmark
+    public long countFiltered(RemoteState state) throws Exception {
+        return state.mClientStorage.query("value < ?").with(RemoteState.ROWS / 2).count();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Client copy of an initial row which is updated by only one thread, so that
+ * updates don't fail with version conflicts.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+public class ThreadRow {
+    Storable mRow;
+    long mValue;
+
+    @Setup(Level.Trial)
+    public void setup(RemoteState state) throws Exception {
+        mRow = state.clientRow(state.threadRowId());
+    }
+
+    /**
+     * Changes one property, and then updates the row.
+     */
+    void update() throws Exception {
+        mRow.setPropertyValue("value", ++mValue);
+        mRow.update();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi.bench;
+
+import com.amazon.carbonado.Nullable;
+import com.amazon.carbonado.PrimaryKey;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Version;
+
+/**
+ * Storable with many properties, for measuring serialization costs.
+ *
+ * @author agent
+ */
+@PrimaryKey("id")
+public interface WideRecord extends Storable {
+    int getId();
+    void setId(int id);
+
+    String getName();
+    void setName(String name);
+
+    long getValue();
+    void setValue(long value);
+
+    // Not defined by the mismatched client layout.
+    @Nullable
+    String getNote();
+    void setNote(String note);
+
+    String getText1();
+    void setText1(String text);
+
+    String getText2();
+    void setText2(String text);
+
+    String getText3();
+    void setText3(String text);
+
+    String getText4();
+    void setText4(String text);
+
+    int getCount1();
+    void setCount1(int count);
+
+    int getCount2();
+    void setCount2(int count);
+
+    int getCount3();
+    void setCount3(int count);
+
+    int getCount4();
+    void setCount4(int count);
+
+    double getAmount1();
+    void setAmount1(double amount);
+
+    double getAmount2();
+    void setAmount2(double amount);
+
+    double getAmount3();
+    void setAmount3(double amount);
+
+    double getAmount4();
+    void setAmount4(double amount);
+
+    @Version
+    int getVersion();
+    void setVersion(int version);
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.FetchTimeoutException;
+
+/**
+ * Bounds the amount of concurrent remote storage operations for one Storable
+ * type, with separate pools for point operations and scans. Each kind is
+ * limited by an optional per-type pool and an optional global pool, which is
+ * shared by all types. Pools are shared by all servers over the same
+ * repository which set the same limit. Callers wait in arrival order, and they fail with a
+ * {@link FetchTimeoutException} if not admitted in time.
+ *
+ * @author agent
+ */
+class AdmissionControl {
+    /**
+     * Fair pool of permits, which tracks the amount of waiting callers.
+     */
+    static class Pool {
+        private final String mName;
+        private final int mLimit;
+        private final Semaphore mPermits;
+        private final AtomicInteger mQueued;
+
+        Pool(String name, int limit) {
+            mName = name;
+            mLimit = limit;
+            mPermits = new Semaphore(limit, true);
+            mQueued = new AtomicInteger();
+        }
+
+        /**
+         * @return false if timed out
+         */
+        boolean acquire(long timeoutNanos) throws InterruptedException {
+            // Zero timeout respects fairness, unlike the plain tryAcquire.
+            if (mPermits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            if (timeoutNanos <= 0) {
+                return false;
+            }
+            mQueued.incrementAndGet();
+            try {
+                return mPermits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+            } finally {
+                mQueued.decrementAndGet();
+            }
+        }
+
+        void release() {
+            mPermits.release();
+        }
+
+        AdmissionStatistics getStatistics() {
+            return new AdmissionStatistics
+                (mLimit, mLimit - mPermits.availablePermits(), mQueued.get());
+        }
+
+        @Override
+        public String toString() {
+            return mName + " (limit " + mLimit + ')';
+        }
+    }
+
+    private final Pool mPointPool;
+    private final Pool mScanPool;
+    private final Pool mGlobalPointPool;
+    private final Pool mGlobalScanPool;
+    private final long mTimeoutNanos;
+    private final StorageMetrics mMetrics;
+
+    /**
+     * @param pointPool optional per-type pool
+     * @param scanPool optional per-type pool
+     * @param globalPointPool optional pool shared by all types
+     * @param globalScanPool optional pool shared by all types
+     * @param metrics records wait times, queue depth and rejections
+     */
+    AdmissionControl(Pool pointPool, Pool scanPool, Pool globalPointPool, Pool globalScanPool,
+                     long timeoutNanos, StorageMetrics metrics)
+    {
+        mPointPool = pointPool;
+        mScanPool = scanPool;
+        mGlobalPointPool = globalPointPool;
+        mGlobalScanPool = globalScanPool;
+        mTimeoutNanos = timeoutNanos;
+        mMetrics = metrics;
+    }
+
+    /**
+     * Enter a point operation, which accesses at most one storable. Caller
+     * must call exitPoint if no exception is thrown.
+     */
+    void enterPoint() throws FetchException {
+        enter(mPointPool, mGlobalPointPool);
+    }
+
+    void exitPoint() {
+        exit(mPointPool, mGlobalPointPool);
+    }
+
+    /**
+     * Enter a scan, which is a query over many storables, a batch or a
+     * truncate. Caller must call exitScan if no exception is thrown.
+     */
+    void enterScan() throws FetchException {
+        enter(mScanPool, mGlobalScanPool);
+    }
+
+    void exitScan() {
+        exit(mScanPool, mGlobalScanPool);
+    }
+
+    private void enter(Pool typePool, Pool globalPool) throws FetchException {
+        if (typePool == null && globalPool == null) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean admitted = false;
+        mMetrics.admissionQueued();
+        try {
+            // Acquire the per-type permit first, to avoid holding a global
+            // permit while waiting behind other callers of the same type.
+            if (typePool != null && !typePool.acquire(mTimeoutNanos)) {
+                throw rejected(typePool, start);
+            }
+            try {
+                if (globalPool != null &&
+                    !globalPool.acquire(mTimeoutNanos - (System.nanoTime() - start)))
+                {
+                    throw rejected(globalPool, start);
+                }
+                admitted = true;
+            } finally {
+                if (!admitted && typePool != null) {
+                    typePool.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new FetchInterruptedException(e);
+        } finally {
+            mMetrics.admissionDequeued(System.nanoTime() - start, admitted);
+        }
+    }
+
+    private void exit(Pool typePool, Pool globalPool) {
+        if (globalPool != null) {
+            globalPool.release();
+        }
+        if (typePool != null) {
+            typePool.release();
+        }
+    }
+
+    private FetchTimeoutException rejected(Pool pool, long start) {
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new FetchTimeoutException
+            ("Server is busy: not admitted by " + pool + " for " +
+             mMetrics.getStorableType().getName() + " after " + millis + " milliseconds");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of a server-side admission pool, which bounds the amount of
+ * concurrent point operations or scans.
+ *
+ * @author agent
+ * @see RemoteRepositoryServer#getPointAdmissionStatistics
+ * @see RemoteRepositoryServer#getScanAdmissionStatistics
+ */
+public class AdmissionStatistics {
+    private final int mLimit;
+    private final int mActive;
+    private final int mQueued;
+
+    AdmissionStatistics(int limit, int active, int queued) {
+        mLimit = limit;
+        mActive = active;
+        mQueued = queued;
+    }
+
+    /**
+     * Returns the maximum amount of concurrent operations.
+     */
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Returns the amount of operations which are running.
+     */
+    public int getActiveCount() {
+        return mActive;
+    }
+
+    /**
+     * Returns the amount of operations waiting to be admitted.
+     */
+    public int getQueueDepth() {
+        return mQueued;
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionStatistics {limit=" + mLimit + ", active=" + mActive +
+            ", queued=" + mQueued + '}';
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.Future;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability for issuing remote operations without waiting for them to
+ * complete. Each request is sent by the calling thread, but replies are read
+ * by a small pool of threads, allowing many requests to be in flight at
+ * once. Failures are reported by {@link Future#get}, which throws an {@link
+ * java.util.concurrent.ExecutionException} whose cause is the same exception
+ * the blocking operation would have thrown.
+ *
+ * <p>Operations run within the calling thread's transaction, which must not
+ * exit before the returned Futures complete. Storables passed in must not be
+ * accessed until their operation completes. If the storage has triggers,
+ * the operation is performed by the caller instead, and a completed Future
+ * is returned.
+ *
+ * @author agent
+ */
+public interface AsyncCapability extends Capability {
+    /**
+     * Starts a load, as if by calling {@link Storable#tryLoad}. The near
+     * cache is not consulted.
+     */
+    <S extends Storable> Future<Boolean> tryLoad(S storable) throws FetchException;
+
+    /**
+     * Starts an insert, as if by calling {@link Storable#tryInsert}.
+     */
+    <S extends Storable> Future<Boolean> tryInsert(S storable) throws PersistException;
+
+    /**
+     * Starts an update, as if by calling {@link Storable#tryUpdate}.
+     */
+    <S extends Storable> Future<Boolean> tryUpdate(S storable) throws PersistException;
+
+    /**
+     * Starts a delete, as if by calling {@link Storable#tryDelete}.
+     */
+    <S extends Storable> Future<Boolean> tryDelete(S storable) throws PersistException;
+
+    /**
+     * Starts a count, as if by calling {@link Query#count}.
+     *
+     * @param query query from the client repository
+     */
+    <S extends Storable> Future<Long> count(Query<S> query) throws FetchException;
+
+    /**
+     * Starts a load, as if by calling {@link Query#loadOne}.
+     *
+     * @param query query from the client repository
+     */
+    <S extends Storable> Future<S> loadOne(Query<S> query) throws FetchException;
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of daemon threads which read the replies of asynchronous
+ * requests. Each thread blocks until its reply arrives, and so the pool grows
+ * with the amount of replies being waited for, up to a limit. Beyond the
+ * limit, the caller reads the reply itself, which slows it down instead of
+ * queueing behind stalled replies. Long running tasks, such as cursor
+ * prefetching, run in a separate unbounded pool.
+ *
+ * @author agent
+ */
+class AsyncExecutor {
+    // Maximum amount of threads blocked reading replies.
+    private static final int MAX_THREADS = 256;
+
+    private static final ExecutorService cExecutor;
+    private static final ExecutorService cLongExecutor;
+
+    static {
+        cExecutor = new ThreadPoolExecutor
+            (0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+             new Factory("async"), new ThreadPoolExecutor.CallerRunsPolicy());
+        cLongExecutor = Executors.newCachedThreadPool(new Factory("prefetch"));
+    }
+
+    static <V> Future<V> submit(Callable<V> task) {
+        return cExecutor.submit(task);
+    }
+
+    /**
+     * Runs a task which might block for a long time.
+     */
+    static void execute(Runnable task) {
+        cLongExecutor.execute(task);
+    }
+
+    /**
+     * Returns a Future which has already completed with the given value.
+     */
+    static <V> Future<V> completed(final V value) {
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            public V call() {
+                return value;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private AsyncExecutor() {
+    }
+
+    private static class Factory implements ThreadFactory {
+        private final String mPrefix;
+        private final AtomicInteger mCounter = new AtomicInteger();
+
+        Factory(String kind) {
+            mPrefix = "ClientRepository-" + kind + '-';
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, mPrefix + mCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
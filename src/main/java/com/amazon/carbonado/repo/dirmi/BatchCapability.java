@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.Collection;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability for loading and persisting many storables with few round
+ * trips. Storables are streamed to the server in chunks, and they are
+ * persisted in the order given, within the current transaction, if
+ * any. Processing stops at the first exception, which is thrown after any
+ * earlier storables have been persisted. Persist methods then throw a {@link
+ * BatchPersistException}, which reports the index of the failed storable and
+ * the results of the storables before it. If the storage has triggers, or if
+ * the server doesn't support batching, each storable is loaded or persisted
+ * individually instead.
+ *
+ * <p>All storables must have been prepared by the client repository which
+ * provides this capability.
+ *
+ * @author agent
+ */
+public interface BatchCapability extends Capability {
+    /**
+     * Loads all the given storables, as if by calling {@link
+     * Storable#tryLoad}, using a single round trip. Each storable must have
+     * its primary key or an alternate key set. If an exception is thrown, no
+     * storables are loaded.
+     *
+     * @return load result for each storable, in iteration order
+     */
+    <S extends Storable> boolean[] tryLoadAll(Class<S> type, Collection<? extends S> storables)
+        throws FetchException;
+
+    /**
+     * Inserts all the given storables, as if by calling {@link Storable#tryInsert}.
+     *
+     * @return insert result for each storable, in iteration order
+     * @throws BatchPersistException if persisting a storable failed
+     */
+    <S extends Storable> boolean[] tryInsertAll(Class<S> type, Collection<? extends S> storables)
+        throws PersistException;
+
+    /**
+     * Updates all the given storables, as if by calling {@link Storable#tryUpdate}.
+     *
+     * @return update result for each storable, in iteration order
+     * @throws BatchPersistException if persisting a storable failed
+     */
+    <S extends Storable> boolean[] tryUpdateAll(Class<S> type, Collection<? extends S> storables)
+        throws PersistException;
+
+    /**
+     * Deletes all the given storables, as if by calling {@link Storable#tryDelete}.
+     *
+     * @return delete result for each storable, in iteration order
+     * @throws BatchPersistException if persisting a storable failed
+     */
+    <S extends Storable> boolean[] tryDeleteAll(Class<S> type, Collection<? extends S> storables)
+        throws PersistException;
+}
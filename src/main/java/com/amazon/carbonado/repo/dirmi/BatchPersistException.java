@@ -0,0 +1,62 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import com.amazon.carbonado.PersistException;
+
+/**
+ * Thrown by {@link BatchCapability} when persisting a storable fails. The
+ * storables before it have been persisted, and they remain persisted unless
+ * the enclosing transaction is rolled back. The storables after it haven't
+ * been persisted. The cause is the exception thrown for the failed storable.
+ *
+ * @author agent
+ */
+public class BatchPersistException extends PersistException {
+    private static final long serialVersionUID = 1L;
+
+    private final int mIndex;
+    private final boolean[] mResults;
+
+    /**
+     * @param index iteration index of the storable which failed
+     * @param results results of the storables before it
+     */
+    BatchPersistException(Throwable cause, int index, boolean[] results) {
+        super("Failed to persist storable at index " + index + ": " + cause, cause);
+        mIndex = index;
+        mResults = results;
+    }
+
+    /**
+     * Returns the iteration index of the storable which failed, which is
+     * also the amount of storables which were processed before it.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns the results of the storables before the failed one, in
+     * iteration order, as would have been returned by the batch method.
+     */
+    public boolean[] getResults() {
+        return mResults.clone();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.Future;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+/**
+ * 
+ *
+ * @author agent
+ */
+class ClientAsyncCapability implements AsyncCapability {
+    private final ClientRepository mRepository;
+
+    ClientAsyncCapability(ClientRepository repo) {
+        mRepository = repo;
+    }
+
+    public <S extends Storable> Future<Boolean> tryLoad(S storable) throws FetchException {
+        try {
+            return storageFor(storable).asyncTryLoad(storable);
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
+        }
+    }
+
+    public <S extends Storable> Future<Boolean> tryInsert(S storable) throws PersistException {
+        try {
+            return storageFor(storable).asyncTryInsert(storable);
+        } catch (RepositoryException e) {
+            throw e.toPersistException();
+        }
+    }
+
+    public <S extends Storable> Future<Boolean> tryUpdate(S storable) throws PersistException {
+        try {
+            return storageFor(storable).asyncTryUpdate(storable);
+        } catch (RepositoryException e) {
+            throw e.toPersistException();
+        }
+    }
+
+    public <S extends Storable> Future<Boolean> tryDelete(S storable) throws PersistException {
+        try {
+            return storageFor(storable).asyncTryDelete(storable);
+        } catch (RepositoryException e) {
+            throw e.toPersistException();
+        }
+    }
+
+    public <S extends Storable> Future<Long> count(Query<S> query) throws FetchException {
+        if (query instanceof ClientQuery) {
+            ClientQuery<S> cq = (ClientQuery<S>) query;
+            return cq.mQueryFactory.clientStorage().asyncQueryCount(cq.filterValues());
+        }
+        // Query was reduced to something which doesn't need the server.
+        return AsyncExecutor.completed(query.count());
+    }
+
+    public <S extends Storable> Future<S> loadOne(Query<S> query) throws FetchException {
+        if (query instanceof ClientQuery) {
+            ClientQuery<S> cq = (ClientQuery<S>) query;
+            return cq.mQueryFactory.clientStorage().asyncQueryLoadOne(cq.filterValues());
+        }
+        // Query was reduced to something which doesn't need the server.
+        return AsyncExecutor.completed(query.loadOne());
+    }
+
+    private <S extends Storable> ClientStorage<S> storageFor(S storable)
+        throws RepositoryException
+    {
+        return (ClientStorage<S>) mRepository.storageFor(storable.storableType());
+    }
+}
@@ -18,14 +18,20 @@
 
 package com.amazon.carbonado.repo.dirmi;
 
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
 
 import java.util.NoSuchElementException;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.cojen.dirmi.Pipe;
 
 import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.cursor.AbstractCursor;
@@ -36,25 +42,65 @@ import com.amazon.carbonado.cursor.AbstractCursor;
  * @author Brian S O'Neill
  */
 public class ClientCursor<S extends Storable> extends AbstractCursor<S> {
+    // Queue element which indicates that the cursor has finished.
+    private static final Object END = new Object();
+
     private final ClientStorage<S> mStorage;
     private final Pipe mPipe;
+    // Reads storables, which might be compressed.
+    private final InputStream mIn;
+    // Is null if not compressed.
+    private final CompressedInputStream mCompressedIn;
+
+    // Is null if prefetching is disabled.
+    private final BlockingQueue<Object> mQueue;
+    private Reader mReader;
 
     private S mNext;
     private boolean mClosed;
 
     ClientCursor(ClientStorage<S> storage, Pipe pipe) {
+        this(storage, pipe, 0, null);
+    }
+
+    /**
+     * @param prefetch maximum amount of storables to read ahead in a
+     * background thread; zero disables prefetching
+     * @param streams optional; decompresses results
+     */
+    ClientCursor(ClientStorage<S> storage, Pipe pipe, int prefetch, CompressedStreams streams) {
         mStorage = storage;
         mPipe = pipe;
+        if (streams == null) {
+            mIn = pipe.getInputStream();
+            mCompressedIn = null;
+        } else {
+            mIn = mCompressedIn = streams.input(pipe.getInputStream());
+        }
+        mQueue = prefetch <= 0 ? null : new ArrayBlockingQueue<Object>(prefetch);
     }
 
     public void close() throws FetchException {
         if (!mClosed) {
             mNext = null;
             mClosed = true;
+            Reader reader = mReader;
+            if (reader != null) {
+                reader.mStopped = true;
+            }
             try {
+                // Closing the pipe also interrupts a blocked reader.
                 mPipe.close();
             } catch (IOException e) {
                 throw new FetchException(e);
+            } finally {
+                if (mCompressedIn != null && reader == null) {
+                    // Reader thread releases it instead, to avoid a race.
+                    mCompressedIn.end();
+                }
+                if (mQueue != null) {
+                    mQueue.clear();
+                }
             }
         }
     }
@@ -68,19 +114,22 @@ public class ClientCursor<S extends Storable> extends AbstractCursor<S> {
             return false;
         }
 
+        if (mQueue != null) {
+            return prefetchedNext();
+        }
+
         try {
             Pipe pipe = mPipe;
-            byte type = pipe.readByte();
+            int type = readType();
             if (type == RemoteStorageServer.CURSOR_STORABLE) {
                 S next = mStorage.prepare();
-                next.readFrom(pipe.getInputStream());
+                next.readFrom(mIn);
                 mNext = next;
                 return true;
             } else if (type == RemoteStorageServer.CURSOR_EXCEPTION) {
                 throw pipe.readThrowable();
             }
-            mClosed = true;
-            pipe.close();
+            close();
         } catch (Throwable e) {
             try {
                 close();
@@ -93,6 +142,51 @@ public class ClientCursor<S extends Storable> extends AbstractCursor<S> {
         return false;
     }
 
+    private boolean prefetchedNext() throws FetchException {
+        if (mReader == null) {
+            // Start lazily, since the caller might read a start marker first.
+            mReader = new Reader();
+            AsyncExecutor.execute(mReader);
+        }
+
+        Object item;
+        try {
+            item = mQueue.take();
+        } catch (InterruptedException e) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw new FetchInterruptedException(e);
+        }
+
+        if (item instanceof Failure) {
+            try {
+                close();
+            } catch (Exception e2) {
+                // Don't care.
+            }
+            throw ClientStorage.toFetchException(((Failure) item).mCause);
+        }
+
+        if (item == END) {
+            close();
+            return false;
+        }
+
+        mNext = (S) item;
+        return true;
+    }
+
+    private int readType() throws IOException {
+        int type = mIn.read();
+        if (type < 0) {
+            throw new EOFException();
+        }
+        return type;
+    }
+
     public S next() throws FetchException {
         if (hasNext()) {
             S next = mNext;
@@ -101,4 +195,76 @@ public class ClientCursor<S extends Storable> extends AbstractCursor<S> {
         }
         throw new NoSuchElementException();
     }
+
+    /**
+     * Decodes storables in a background thread, filling the queue.
+     */
+    private class Reader implements Runnable {
+        volatile boolean mStopped;
+
+        public void run() {
+            try {
+                read();
+            } finally {
+                if (mCompressedIn != null) {
+                    mCompressedIn.end();
+                }
+            }
+        }
+
+        private void read() {
+            Object item;
+            try {
+                Pipe pipe = mPipe;
+                while (true) {
+                    int type = readType();
+                    if (type == RemoteStorageServer.CURSOR_STORABLE) {
+                        S next = mStorage.prepare();
+                        next.readFrom(mIn);
+                        if (!enqueue(next)) {
+                            return;
+                        }
+                    } else {
+                        if (type == RemoteStorageServer.CURSOR_EXCEPTION) {
+                            item = new Failure(pipe.readThrowable());
+                        } else {
+                            item = END;
+                        }
+                        break;
+                    }
+                }
+            } catch (Throwable e) {
+                if (mStopped) {
+                    // Exception is caused by closing the pipe.
+                    return;
+                }
+                item = new Failure(e);
+            }
+            enqueue(item);
+        }
+
+        /**
+         * @return false if cursor was closed
+         */
+        private boolean enqueue(Object item) {
+            try {
+                while (!mStopped) {
+                    if (mQueue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Treat as stopped.
+            }
+            return false;
+        }
+    }
+
+    private static class Failure {
+        final Throwable mCause;
+
+        Failure(Throwable cause) {
+            mCause = cause;
+        }
+    }
 }
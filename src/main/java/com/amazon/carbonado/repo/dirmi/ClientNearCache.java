@@ -0,0 +1,190 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Bounded cache of serialized storables, keyed by primary key. Entries are
+ * discarded when the server sends invalidation messages, or when they
+ * expire. Storables are cached in serialized form, so that the cache never
+ * shares mutable objects with the application.
+ *
+ * @author agent
+ */
+class ClientNearCache implements RemoteInvalidationListener {
+    private final String[] mKeyNames;
+    private final LruCache<NearCacheKey, Entry> mCache;
+    private final long mTimeToLiveNanos;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+    private final AtomicLong mExpirations;
+    private final AtomicLong mInvalidations;
+    // Amount of threads waiting for invalidations; guarded by mInvalidations.
+    private volatile int mWaiters;
+
+    // Incremented by every invalidation, to detect races with in-flight loads.
+    private final AtomicLong mStamp;
+
+    /**
+     * @param timeToLiveNanos maximum age of entries; zero or negative for no limit
+     */
+    ClientNearCache(Class<? extends Storable> type, int maxSize, long timeToLiveNanos) {
+        mKeyNames = NearCacheKey.namesFor(type);
+        mCache = new LruCache<NearCacheKey, Entry>(maxSize);
+        mTimeToLiveNanos = timeToLiveNanos;
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+        mExpirations = new AtomicLong();
+        mInvalidations = new AtomicLong();
+        mStamp = new AtomicLong();
+    }
+
+    /**
+     * Returns the cache key for the given storable, or null if it cannot be cached.
+     */
+    NearCacheKey keyFor(Storable storable) {
+        Object[] values = NearCacheKey.valuesFor(storable, mKeyNames);
+        return values == null ? null : new NearCacheKey(values);
+    }
+
+    /**
+     * Returns the current stamp, which must be passed to the put method.
+     */
+    long stamp() {
+        return mStamp.get();
+    }
+
+    /**
+     * Returns serialized storable, or null if not cached.
+     */
+    byte[] get(NearCacheKey key) {
+        Entry entry = mCache.peek(key);
+        if (entry != null) {
+            if (mTimeToLiveNanos <= 0 || (System.nanoTime() - entry.mCreated) < mTimeToLiveNanos) {
+                mHits.incrementAndGet();
+                return entry.mBytes;
+            }
+            if (mCache.remove(key, entry)) {
+                mExpirations.incrementAndGet();
+            }
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the serialized storable, unless any invalidation was received
+     * since the stamp was obtained.
+     */
+    void put(NearCacheKey key, long stamp, byte[] bytes) {
+        if (mStamp.get() != stamp) {
+            return;
+        }
+        Entry entry = new Entry(bytes);
+        mCache.put(key, entry);
+        if (mStamp.get() != stamp) {
+            // Lost a race with an invalidation.
+            mCache.remove(key, entry);
+        }
+    }
+
+    /**
+     * Discards the given storable, if cached.
+     */
+    void invalidate(Storable storable) {
+        NearCacheKey key = keyFor(storable);
+        if (key == null) {
+            invalidateAll();
+        } else {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void invalidate(Object[] key) {
+        invalidate(new NearCacheKey(key));
+    }
+
+    private void invalidate(NearCacheKey key) {
+        mStamp.incrementAndGet();
+        mCache.remove(key);
+        invalidated();
+    }
+
+    @Override
+    public void invalidateAll() {
+        mStamp.incrementAndGet();
+        mCache.clear();
+        invalidated();
+    }
+
+    private void invalidated() {
+        mInvalidations.incrementAndGet();
+        if (mWaiters != 0) {
+            synchronized (mInvalidations) {
+                mInvalidations.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until the invalidation count reaches the given amount.
+     *
+     * @return false if timed out
+     */
+    boolean awaitInvalidationCount(long count, long timeoutNanos) throws InterruptedException {
+        long end = System.nanoTime() + timeoutNanos;
+        synchronized (mInvalidations) {
+            mWaiters++;
+            try {
+                while (mInvalidations.get() < count) {
+                    long remaining = end - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(mInvalidations, remaining);
+                }
+                return true;
+            } finally {
+                mWaiters--;
+            }
+        }
+    }
+
+    NearCacheStatistics getStatistics() {
+        return new NearCacheStatistics(mHits.get(), mMisses.get(), mCache.getEvictionCount(),
+                                       mExpirations.get(), mInvalidations.get(), mCache.size());
+    }
+
+    private static final class Entry {
+        final byte[] mBytes;
+        final long mCreated;
+
+        Entry(byte[] bytes) {
+            mBytes = bytes;
+            mCreated = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazon.carbonado.FetchException;
+
+/**
+ * Client-side table of query handles prepared by one remote storage. Handles
+ * are valid for the lifetime of the remote session, and so a new table is
+ * created when the client reconnects.
+ *
+ * @author agent
+ */
+class ClientPreparedQueries {
+    // Limits the size of the table when the client builds unbounded varieties
+    // of queries. Further queries are sent unprepared.
+    private static final int MAX_HANDLES = 4096;
+
+    private static final Integer NOT_PREPARED = -1;
+
+    private final RemoteStorage mStorage;
+    private final ConcurrentHashMap<QueryKey, Integer> mHandles;
+
+    // Set when the server doesn't support prepared queries.
+    private volatile boolean mUnsupported;
+
+    ClientPreparedQueries(RemoteStorage storage) {
+        mStorage = storage;
+        mHandles = new ConcurrentHashMap<QueryKey, Integer>();
+    }
+
+    /**
+     * Returns the handle of the given query, preparing it if necessary.
+     * Returns -1 if the query must be sent unprepared.
+     */
+    int handleFor(QueryKey key) throws FetchException {
+        if (mUnsupported) {
+            return -1;
+        }
+
+        Integer handle = mHandles.get(key);
+        if (handle != null) {
+            return handle;
+        }
+
+        if (mHandles.size() >= MAX_HANDLES) {
+            return -1;
+        }
+
+        try {
+            handle = mStorage.prepareQuery(key.getFilter(), key.getOrderBy());
+        } catch (Exception e) {
+            if (ClientStorage.isUnimplemented(e)) {
+                mUnsupported = true;
+                return -1;
+            }
+            throw ClientStorage.toFetchException(e);
+        }
+
+        // Also remember if the server refused, to avoid asking again.
+        mHandles.putIfAbsent(key, handle < 0 ? NOT_PREPARED : handle);
+
+        return handle;
+    }
+}
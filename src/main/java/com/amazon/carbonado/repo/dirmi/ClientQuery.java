@@ -47,14 +47,40 @@ import com.amazon.carbonado.qe.StandardQuery;
 class ClientQuery<S extends Storable> extends StandardQuery<S> implements QueryExecutorFactory<S> {
     final ClientQueryFactory<S> mQueryFactory;
 
+    private final OrderingList<S> mOrdering;
+    private final QueryHints mHints;
+    private final int mPrefetch;
+
+    /**
+     * @param prefetch cursor prefetch depth; zero disables prefetching
+     */
     ClientQuery(ClientQueryFactory<S> queryFactory,
                 Filter<S> filter,
                 FilterValues<S> values,
                 OrderingList<S> ordering,
-                QueryHints hints)
+                QueryHints hints,
+                int prefetch)
     {
         super(filter, values, ordering, hints);
         mQueryFactory = queryFactory;
+        mOrdering = ordering;
+        mHints = hints;
+        mPrefetch = prefetch;
+    }
+
+    /**
+     * Returns a copy of this query which uses the given cursor prefetch depth.
+     */
+    ClientQuery<S> withPrefetch(int prefetch) {
+        if (prefetch == mPrefetch) {
+            return this;
+        }
+        return new ClientQuery<S>(mQueryFactory, getFilter(), getFilterValues(),
+                                  mOrdering, mHints, prefetch);
+    }
+
+    FilterValues<S> filterValues() {
+        return getFilterValues();
     }
 
     @Override
@@ -127,7 +153,8 @@ class ClientQuery<S extends Storable> extends StandardQuery<S> implements QueryE
                                            OrderingList<S> ordering,
                                            QueryHints hints)
     {
-        return new ClientQuery<S>(mQueryFactory, values.getFilter(), values, ordering, hints);
+        return new ClientQuery<S>(mQueryFactory, values.getFilter(), values, ordering, hints,
+                                  mPrefetch);
     }
 
     @Override
@@ -162,7 +189,7 @@ class ClientQuery<S extends Storable> extends StandardQuery<S> implements QueryE
             throws FetchException
         {
             return mQueryFactory.clientStorage()
-                .queryFetch(values, mOrdering, null, null, controller);
+                .queryFetch(values, mOrdering, null, null, controller, mPrefetch);
         }
 
         @Override
@@ -178,7 +205,7 @@ class ClientQuery<S extends Storable> extends StandardQuery<S> implements QueryE
             throws FetchException
         {
             return mQueryFactory.clientStorage()
-                .queryFetch(values, mOrdering, from, to, controller);
+                .queryFetch(values, mOrdering, from, to, controller, mPrefetch);
         }
 
         @Override
@@ -49,7 +49,8 @@ class ClientQueryFactory<S extends Storable> extends StandardQueryFactory<S> {
                                            QueryHints hints)
         throws FetchException
     {
-        return new ClientQuery<S>(this, filter, values, ordering, hints);
+        return new ClientQuery<S>(this, filter, values, ordering, hints,
+                                  mStorage.defaultPrefetch());
     }
 
     ClientStorage<S> clientStorage() {
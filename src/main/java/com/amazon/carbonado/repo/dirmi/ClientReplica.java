@@ -0,0 +1,176 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.IOException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read replica server used by a {@link ClientRepository}, along with an
+ * estimate of its latency. The estimate is an exponentially weighted moving
+ * average of observed round trip times, which decays while the replica is
+ * idle, so that a replica which was slow is eventually tried again.
+ *
+ * @author agent
+ */
+final class ClientReplica {
+    // Weight given to each new round trip time.
+    private static final double ALPHA = 0.2;
+
+    // Idle time over which the latency estimate decays by a factor of e.
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // How long a replica is skipped after it couldn't be reached.
+    private static final long DOWN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    final int mIndex;
+    final RemoteRepository mRemote;
+
+    // Fingerprints of the server layouts received for each type. They outlive
+    // reconnects, allowing the server to omit layouts which are unchanged.
+    final ConcurrentHashMap<Class, LayoutFingerprint> mLayoutFingerprints =
+        new ConcurrentHashMap<Class, LayoutFingerprint>();
+
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+
+    // Bits of the double latency estimate, in nanoseconds. Zero until the
+    // first round trip is observed.
+    private final AtomicLong mLatencyBits = new AtomicLong();
+    private volatile long mStamp;
+    private volatile long mDownUntil;
+
+    ClientReplica(int index, RemoteRepository remote) {
+        mIndex = index;
+        mRemote = remote;
+        mStamp = mDownUntil = System.nanoTime();
+    }
+
+    /**
+     * Returns a random index in the range [0, n), without contending on a
+     * shared random number generator.
+     */
+    static int random(int n) {
+        long x = System.nanoTime() ^ (Thread.currentThread().getId() * 0x9e3779b97f4a7c15L);
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return (int) ((x >>> 1) % n);
+    }
+
+    /**
+     * Returns true if the given exception indicates that the replica couldn't
+     * be reached, as opposed to an exception thrown by its repository.
+     */
+    static boolean isConnectionFailure(Throwable e) {
+        while (e != null) {
+            if (e instanceof IOException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Returns false if the replica recently couldn't be reached.
+     */
+    boolean isAvailable(long now) {
+        return now - mDownUntil >= 0;
+    }
+
+    /**
+     * Returns the latency estimate, scaled by the amount of calls which are
+     * waiting for a reply. Lower is better.
+     */
+    double cost(long now) {
+        double latency = Double.longBitsToDouble(mLatencyBits.get());
+        long idle = now - mStamp;
+        if (idle > 0) {
+            latency *= Math.exp(-idle / DECAY_NANOS);
+        }
+        return latency * (mPending.get() + 1);
+    }
+
+    /**
+     * Call before sending a request to the replica, and pass the returned
+     * start time to {@link #end end} or {@link #failed failed}.
+     */
+    long begin() {
+        mPending.incrementAndGet();
+        mCalls.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param timed when false, the call didn't wait for a reply, and so its
+     * time isn't a round trip
+     */
+    void end(long start, boolean timed) {
+        mPending.decrementAndGet();
+        if (timed) {
+            long now = System.nanoTime();
+            observe(now - start, now);
+        }
+    }
+
+    /**
+     * Call when a request to the replica threw an exception.
+     *
+     * @return true if the replica couldn't be reached, and so the request
+     * should be sent elsewhere
+     */
+    boolean failed(long start, Throwable e) {
+        mPending.decrementAndGet();
+        long now = System.nanoTime();
+        if (!isConnectionFailure(e)) {
+            // Replica replied with an exception, which still took a round trip.
+            observe(now - start, now);
+            return false;
+        }
+        mFailures.incrementAndGet();
+        mDownUntil = now + DOWN_NANOS;
+        return true;
+    }
+
+    ReplicaStatistics getStatistics() {
+        long now = System.nanoTime();
+        return new ReplicaStatistics
+            (mIndex, mCalls.get(), mFailures.get(), mPending.get(),
+             Double.longBitsToDouble(mLatencyBits.get()), isAvailable(now));
+    }
+
+    private void observe(long rtt, long now) {
+        mStamp = now;
+        while (true) {
+            long bits = mLatencyBits.get();
+            double latency = Double.longBitsToDouble(bits);
+            latency = latency == 0 ? rtt : latency + ALPHA * (rtt - latency);
+            if (mLatencyBits.compareAndSet(bits, Double.doubleToLongBits(latency))) {
+                return;
+            }
+        }
+    }
+}
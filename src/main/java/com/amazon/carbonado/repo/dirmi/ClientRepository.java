@@ -22,14 +22,29 @@ import java.io.IOException;
 
 import java.rmi.RemoteException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.cojen.dirmi.Pipe;
 import org.cojen.dirmi.UnimplementedMethodException;
 
 import org.cojen.dirmi.util.Wrapper;
 
+import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.MalformedTypeException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryException;
 import com.amazon.carbonado.Storable;
@@ -41,8 +56,6 @@ import com.amazon.carbonado.capability.RemoteProcedure;
 import com.amazon.carbonado.capability.RemoteProcedureCapability;
 import com.amazon.carbonado.capability.ResyncCapability;
 
-import com.amazon.carbonado.layout.Layout;
-
 import com.amazon.carbonado.repo.indexed.IndexEntryAccessCapability;
 import com.amazon.carbonado.sequence.SequenceValueProducer;
 
@@ -60,11 +73,22 @@ import com.amazon.carbonado.txn.TransactionScope;
  * and the Storage and SequenceValueProducer references will be retained.
  * All transactions will be invalid following a disconnect
  *
+ * <p>A client repository can be striped across several sessions to the same
+ * server, as configured by {@link ClientRepositoryBuilder#setStripeCount}.
+ * Operations outside of transactions are spread across the sessions by
+ * thread, and all operations within a transaction use the session which
+ * entered it.
+ *
+ * <p>Reads can also be sent to read replica servers, as configured by {@link
+ * ClientRepositoryBuilder#setReplicaRepositories}. Loads, counts and fetches
+ * outside of transactions are sent to the replica with the lowest observed
+ * latency, and everything else is sent to the primary.
+ *
  * @author Brian S O'Neill
  * @author Olga Kuznetsova
  */
 public class ClientRepository extends AbstractRepository<RemoteTransaction>
-    implements RemoteProcedureCapability
+    implements RemoteProcedureCapability, NearCacheCapability, BatchCapability
 {
     /**
      * Returns client access to a remote repository server.
@@ -98,10 +122,30 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
                                         TransactionMonitor monitor)
         throws RepositoryException
     {
-        if (name == null) {
-            name = remote.getName();
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setName(name);
+        builder.setRemoteRepository(remote);
+        builder.setTransactionMonitor(monitor);
+        return builder.build();
+    }
+
+    /**
+     * Returns a copy of the given query whose cursors read ahead up to the
+     * given amount of storables in a background thread, overlapping network
+     * transfer with application processing. Queries not provided by a
+     * ClientRepository are returned as-is.
+     *
+     * @param depth maximum amount of storables to read ahead; zero disables prefetching
+     * @see ClientRepositoryBuilder#setPrefetchDepth
+     */
+    public static <S extends Storable> Query<S> withPrefetch(Query<S> query, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Prefetch depth cannot be negative");
+        }
+        if (query instanceof ClientQuery) {
+            return ((ClientQuery<S>) query).withPrefetch(depth);
         }
-        return new ClientRepository(name, remote, monitor);
+        return query;
     }
 
     /**
@@ -110,18 +154,51 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
      * All transactions that were in process will be broken invalid after the disconnect.
      */
     public synchronized void reconnect(RemoteRepository remote) throws RepositoryException {
-        mProcedureExecutor = null;
+        reconnect(new RemoteRepository[] {remote});
+    }
+
+    /**
+     * Reconnects a striped repository in case of a disconnect, which requires
+     * one remote repository for each stripe.
+     *
+     * @see ClientRepositoryBuilder#setStripeCount
+     */
+    public synchronized void reconnect(RemoteRepository[] remotes) throws RepositoryException {
+        ClientStripe[] stripes = mStripes;
+        if (remotes.length != stripes.length) {
+            throw new IllegalArgumentException
+                ("Expected " + stripes.length + " remote repositories, but given " +
+                 remotes.length);
+        }
+
+        for (ClientStripe stripe : stripes) {
+            stripe.mProcedureExecutor = null;
+        }
 
+        mWarmTransports.clear();
+
+        List<Class<? extends Storable>> types = new ArrayList<Class<? extends Storable>>();
         for (Storage s : allStorage()) {
             if (s != null) {
-                ClientStorage curr = (ClientStorage) storageFor(s.getStorableType());
-                curr.reconnect(remoteStorageFor(remote, s.getStorableType()));
+                types.add(s.getStorableType());
+            }
+        }
+
+        Map<Class, StorageTransports> bulk = bulkStoragesFor(remotes, types);
+
+        for (Class<? extends Storable> type : types) {
+            ClientStorage curr = (ClientStorage) storageFor(type);
+            StorageTransports t = bulk.get(type);
+            if (t == null) {
+                curr.reconnect(remoteStoragesFor(remotes, type), replicaStoragesFor(type));
+            } else {
+                curr.reconnect(t.mPrimary, t.mReplicas);
             }
         }
 
         for (String p : mSequenceNames.keySet()) {
             if (p != null) {
-                RemoteSequenceValueProducer producer = remote.getSequenceValueProducer(p);
+                RemoteSequenceValueProducer producer = remotes[0].getSequenceValueProducer(p);
                 try {
                     ClientSequenceValueProducer currProducer =
                         (ClientSequenceValueProducer) getSequenceValueProducer(p);
@@ -133,24 +210,251 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
             }
         }
 
-        mRepository = remote;
+        for (int i=0; i<stripes.length; i++) {
+            stripes[i].mRemote = remotes[i];
+        }
+    }
+
+    /**
+     * Prepares storage for the given types in advance. All of them are
+     * requested from each stripe and replica with one call each, instead of
+     * one call per type, and then the storage instances are created by the
+     * calling thread from those replies. Types which already have storage
+     * are skipped.
+     *
+     * @throws RepositoryException first failure to prepare a type, thrown
+     * after all the other types have been prepared
+     */
+    public void warmUp(Class<? extends Storable>... types) throws RepositoryException {
+        Set<Class> existing = new HashSet<Class>();
+        for (Storage s : allStorage()) {
+            if (s != null) {
+                existing.add(s.getStorableType());
+            }
+        }
+
+        List<Class<? extends Storable>> needed = new ArrayList<Class<? extends Storable>>();
+        for (Class<? extends Storable> type : types) {
+            if (type != null && existing.add(type)) {
+                needed.add(type);
+            }
+        }
+
+        if (needed.isEmpty()) {
+            return;
+        }
+
+        RemoteRepository[] remotes = new RemoteRepository[mStripes.length];
+        for (int i=0; i<remotes.length; i++) {
+            remotes[i] = mStripes[i].mRemote;
+        }
+
+        mWarmTransports.putAll(bulkStoragesFor(remotes, needed));
+
+        try {
+            // Storage is created from the bulk replies, and so it doesn't
+            // need to be created in parallel. Using the async pool would also
+            // block its threads, and deadlock if called from an async task.
+            RepositoryException failure = null;
+            for (Class<? extends Storable> type : needed) {
+                try {
+                    storageFor(type);
+                } catch (RepositoryException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            // Discard transports which weren't used, possibly because the
+            // storage was concurrently created by another thread.
+            for (Class type : needed) {
+                mWarmTransports.remove(type);
+            }
+        }
     }
 
-    private volatile RemoteRepository mRepository;
+    private final ClientStripe[] mStripes;
+    final ClientReplica[] mReplicas;
+    private final long mStickyNanos;
+    private final Clock mClock;
+    // Reads are sent to the primary until this time, after a write.
+    private volatile long mStickyUntil;
+    // Maps open transactions to the stripe which entered them.
+    private final ConcurrentHashMap<RemoteTransaction, ClientStripe> mTxnStripes;
     private final TransactionManager<RemoteTransaction> mTxnMgr;
     private final ConcurrentHashMap<String, String> mSequenceNames;
+    // Transports requested in bulk by warmUp, which haven't been used yet.
+    private final ConcurrentHashMap<Class, StorageTransports> mWarmTransports;
 
-    private volatile RemoteProcedureExecutor mProcedureExecutor;
+    final int mNearCacheSize;
+    final long mNearCacheTimeToLiveNanos;
+    final int mPrefetch;
+    private final int mSequenceReserveSize;
 
+    final CompressionRecorder mCompressionRecorder;
+    final CompressionRecorder mDecompressionRecorder;
+
+    /**
+     * Returns the remote repository of the first stripe, which is used for
+     * operations that don't need to be striped.
+     */
     RemoteRepository getRemoteRepository() {
-        return mRepository;
+        return mStripes[0].mRemote;
     }
 
-    private ClientRepository(String name, RemoteRepository remote, TransactionMonitor monitor) {
+    /**
+     * @param remotes one remote repository per stripe
+     */
+    ClientRepository(String name, RemoteRepository[] remotes, ClientRepositoryBuilder builder) {
         super(name);
-        mRepository = remote;
+        mStripes = new ClientStripe[remotes.length];
+        for (int i=0; i<remotes.length; i++) {
+            mStripes[i] = new ClientStripe(i, remotes[i]);
+        }
+        mTxnStripes = new ConcurrentHashMap<RemoteTransaction, ClientStripe>();
+        RemoteRepository[] replicas = builder.getReplicaRepositories();
+        mReplicas = new ClientReplica[replicas.length];
+        for (int i=0; i<replicas.length; i++) {
+            mReplicas[i] = new ClientReplica(i, replicas[i]);
+        }
+        mStickyNanos = builder.getReadYourWritesWindow(TimeUnit.NANOSECONDS);
+        mClock = builder.getClock();
+        mStickyUntil = mClock.nanoTime();
         mSequenceNames = new ConcurrentHashMap<String, String>();
-        mTxnMgr = new ClientTransactionManager(this, monitor);
+        mWarmTransports = new ConcurrentHashMap<Class, StorageTransports>();
+        mTxnMgr = new ClientTransactionManager(this, builder.getTransactionMonitor());
+        mNearCacheSize = builder.getNearCacheSize();
+        mNearCacheTimeToLiveNanos = builder.getNearCacheTimeToLive(TimeUnit.NANOSECONDS);
+        mPrefetch = builder.getPrefetchDepth();
+        mSequenceReserveSize = builder.getSequenceReserveSize();
+        mCompressionRecorder = new CompressionRecorder();
+        mDecompressionRecorder = new CompressionRecorder();
+    }
+
+    /**
+     * Returns counters for write batches compressed by this client. Batches
+     * are only compressed if enabled by the server.
+     *
+     * @see RemoteRepositoryServerBuilder#setCompressionEnabled
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return mCompressionRecorder.getStatistics();
+    }
+
+    /**
+     * Returns counters for query results decompressed by this client.
+     */
+    public CompressionStatistics getDecompressionStatistics() {
+        return mDecompressionRecorder.getStatistics();
+    }
+
+    /**
+     * Returns counters for the classes generated to convert storables to and
+     * from the layouts of remote endpoints. The counters are shared by all
+     * repositories in the JVM.
+     */
+    public ReconstructedCacheStatistics getReconstructedCacheStatistics() {
+        return ReconstructedCache.THE.getStatistics();
+    }
+
+    /**
+     * Returns the amount of sessions which this client is striped across,
+     * which is one unless configured otherwise.
+     *
+     * @see ClientRepositoryBuilder#setStripeCount
+     */
+    public int getStripeCount() {
+        return mStripes.length;
+    }
+
+    /**
+     * Returns counters for each session which this client is striped across.
+     */
+    public List<StripeStatistics> getStripeStatistics() {
+        List<StripeStatistics> list = new ArrayList<StripeStatistics>(mStripes.length);
+        for (ClientStripe stripe : mStripes) {
+            list.add(stripe.getStatistics());
+        }
+        return list;
+    }
+
+    /**
+     * Returns counters for each read replica server, in the order given to the
+     * builder.
+     *
+     * @see ClientRepositoryBuilder#setReplicaRepositories
+     */
+    public List<ReplicaStatistics> getReplicaStatistics() {
+        List<ReplicaStatistics> list = new ArrayList<ReplicaStatistics>(mReplicas.length);
+        for (ClientReplica replica : mReplicas) {
+            list.add(replica.getStatistics());
+        }
+        return list;
+    }
+
+    /**
+     * Called after a write, to send reads to the primary for the read your
+     * writes window.
+     */
+    void wrote() {
+        if (mStickyNanos > 0 && mReplicas.length > 0) {
+            mStickyUntil = mClock.nanoTime() + mStickyNanos;
+        }
+    }
+
+    /**
+     * Returns true if reads must be sent to the primary, because of a recent
+     * write.
+     */
+    boolean isSticky() {
+        return mStickyNanos > 0 && mClock.nanoTime() - mStickyUntil < 0;
+    }
+
+    /**
+     * Returns the stripe which entered the given transaction, or else selects
+     * a stripe for the current thread.
+     *
+     * @param txn optional
+     */
+    ClientStripe stripeFor(RemoteTransaction txn) {
+        if (txn != null) {
+            ClientStripe stripe = mTxnStripes.get(txn);
+            if (stripe != null) {
+                return stripe;
+            }
+        }
+        ClientStripe[] stripes = mStripes;
+        if (stripes.length == 1) {
+            return stripes[0];
+        }
+        // Threads consistently use the same stripe, which keeps them from
+        // all contending on one session without any shared state.
+        return stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+    }
+
+    /**
+     * Called by the transaction manager after a remote transaction is entered.
+     */
+    void txnEntered(RemoteTransaction txn, ClientStripe stripe) {
+        if (mTxnStripes.put(txn, stripe) == null) {
+            stripe.txnEntered();
+        }
+    }
+
+    /**
+     * Called by the transaction manager after a remote transaction is
+     * committed or exited.
+     */
+    void txnExited(RemoteTransaction txn) {
+        ClientStripe stripe = mTxnStripes.remove(txn);
+        if (stripe != null) {
+            stripe.txnExited();
+        }
     }
 
     @Override
@@ -161,42 +465,118 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
             throw new IllegalArgumentException("RemoteProcedure cannot be null");
         }
 
-        RemoteProcedureExecutor executor = mProcedureExecutor;
+        RemoteTransaction txn;
+        try {
+            txn = localTransactionScope().getTxn();
+        } catch (Exception e) {
+            if (e instanceof RepositoryException) {
+                throw (RepositoryException) e;
+            }
+            throw new RepositoryException(e);
+        }
+
+        final ClientStripe stripe = stripeFor(txn);
+        stripe.called();
+
+        // Procedures can write, and they always run against the primary.
+        wrote();
+
+        RemoteProcedureExecutor executor = stripe.mProcedureExecutor;
         if (executor == null) {
             synchronized (this) {
-                executor = mProcedureExecutor;
+                executor = stripe.mProcedureExecutor;
                 if (executor == null) {
                     RemoteStorageRequestor requestor = new RemoteStorageRequestor() {
                         public RemoteStorage serverStorageFor(Class<? extends Storable> type)
                             throws RepositoryException
                         {
-                            return ((ClientStorage) storageFor(type)).remoteStorage();
+                            return ((ClientStorage) storageFor(type))
+                                .remoteStorage(stripe.mIndex);
                         }
                     };
-                    executor = mRepository.newRemoteProcedureExecutor(requestor);
-                    mProcedureExecutor = executor;
+                    executor = stripe.mRemote.newRemoteProcedureExecutor(requestor);
+                    stripe.mProcedureExecutor = executor;
                 }
             }
         }
 
-        RemoteTransaction txn;
+        return new ProcedureCall<R, D>(this, executor.remoteCall(txn, proc, null), txn != null);
+    }
+
+    @Override
+    public NearCacheStatistics getNearCacheStatistics(Class<? extends Storable> type)
+        throws RepositoryException
+    {
+        return ((ClientStorage) storageFor(type)).nearCacheStatistics();
+    }
+
+    @Override
+    public void clearNearCache(Class<? extends Storable> type) throws RepositoryException {
+        ((ClientStorage) storageFor(type)).clearNearCache();
+    }
+
+    @Override
+    public boolean awaitInvalidationCount(Class<? extends Storable> type, long count,
+                                          long timeout, TimeUnit unit)
+        throws RepositoryException, InterruptedException
+    {
+        return ((ClientStorage) storageFor(type))
+            .awaitInvalidationCount(count, unit.toNanos(timeout));
+    }
+
+    @Override
+    public <S extends Storable> boolean[] tryLoadAll(Class<S> type,
+                                                     Collection<? extends S> storables)
+        throws FetchException
+    {
+        ClientStorage<S> storage;
         try {
-            txn = localTransactionScope().getTxn();
-        } catch (Exception e) {
-            if (e instanceof RepositoryException) {
-                throw (RepositoryException) e;
-            }
-            throw new RepositoryException(e);
+            storage = (ClientStorage<S>) storageFor(type);
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
         }
+        return storage.tryLoadAll(storables);
+    }
 
-        return new ProcedureCall<R, D>(this, executor.remoteCall(txn, proc, null), txn != null);
+    @Override
+    public <S extends Storable> boolean[] tryInsertAll(Class<S> type,
+                                                       Collection<? extends S> storables)
+        throws PersistException
+    {
+        return batchStorageFor(type).tryInsertAll(storables);
+    }
+
+    @Override
+    public <S extends Storable> boolean[] tryUpdateAll(Class<S> type,
+                                                       Collection<? extends S> storables)
+        throws PersistException
+    {
+        return batchStorageFor(type).tryUpdateAll(storables);
+    }
+
+    @Override
+    public <S extends Storable> boolean[] tryDeleteAll(Class<S> type,
+                                                       Collection<? extends S> storables)
+        throws PersistException
+    {
+        return batchStorageFor(type).tryDeleteAll(storables);
+    }
+
+    private <S extends Storable> ClientStorage<S> batchStorageFor(Class<S> type)
+        throws PersistException
+    {
+        try {
+            return (ClientStorage<S>) storageFor(type);
+        } catch (RepositoryException e) {
+            throw e.toPersistException();
+        }
     }
 
     @Override
     public <C extends Capability> C getCapability(Class<C> capabilityType) {
         if (ResyncCapability.class.equals(capabilityType)) {
             try {
-                RemoteResyncCapability rrc = mRepository.getResyncCapability();
+                RemoteResyncCapability rrc = getRemoteRepository().getResyncCapability();
                 if (rrc != null) {
                     return (C) new ClientResyncCapability(rrc);
                 } else {
@@ -206,9 +586,12 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
                 return null;
             }
 
+        } else if (AsyncCapability.class.equals(capabilityType)) {
+            return (C) new ClientAsyncCapability(this);
+
         } else if (IndexEntryAccessCapability.class.equals(capabilityType)) {
             try {
-                final RemoteIndexEntryAccessCapability rieac = mRepository.getIndexEntryAccessCapability();
+                final RemoteIndexEntryAccessCapability rieac = getRemoteRepository().getIndexEntryAccessCapability();
                 if (rieac != null) {
                     return (C) new ClientIndexEntryAccessCapability(rieac);
                 } else {
@@ -231,16 +614,27 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
     protected <S extends Storable> Storage<S> createStorage(Class<S> type)
         throws RepositoryException
     {
-        return new ClientStorage<S>(type, this, remoteStorageFor(mRepository, type));
+        StorageTransports t = mWarmTransports.remove(type);
+        if (t != null) {
+            return new ClientStorage<S>(type, this, t.mPrimary, t.mReplicas);
+        }
+
+        RemoteRepository[] remotes = new RemoteRepository[mStripes.length];
+        for (int i=0; i<remotes.length; i++) {
+            remotes[i] = mStripes[i].mRemote;
+        }
+        return new ClientStorage<S>(type, this, remoteStoragesFor(remotes, type),
+                                    replicaStoragesFor(type));
     }
 
     @Override
     protected SequenceValueProducer createSequenceValueProducer(String name)
         throws RepositoryException
     {
-        RemoteSequenceValueProducer producer = mRepository.getSequenceValueProducer(name);
+        RemoteSequenceValueProducer producer = getRemoteRepository().getSequenceValueProducer(name);
         mSequenceNames.put(name, "");
-        SequenceValueProducer wrapper = new ClientSequenceValueProducer(producer);
+        SequenceValueProducer wrapper =
+            new ClientSequenceValueProducer(producer, mSequenceReserveSize);
         return wrapper;
     }
 
@@ -254,14 +648,161 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
         return mTxnMgr.localScope();
     }
 
-    private RemoteStorageTransport remoteStorageFor(final RemoteRepository remote,
-                                                    final Class<? extends Storable> type)
+    /**
+     * Requests storage for the given types from each stripe and replica in
+     * parallel, with one call to each. Types which every stripe couldn't
+     * provide in bulk are left out, and so they must be requested
+     * individually.
+     */
+    private Map<Class, StorageTransports> bulkStoragesFor(RemoteRepository[] remotes,
+                                                          List<Class<? extends Storable>> types)
+        throws RepositoryException
+    {
+        Map<Class, StorageTransports> result = new HashMap<Class, StorageTransports>();
+        if (types.isEmpty()) {
+            return result;
+        }
+
+        // Only servers which support bulk requests receive them, and so
+        // layouts can be omitted when the server has likely seen them.
+
+        List<Future<RemoteStorageTransport[]>> primaryCalls =
+            new ArrayList<Future<RemoteStorageTransport[]>>(remotes.length);
+        for (int i=0; i<remotes.length; i++) {
+            Map<Class, LayoutFingerprint> fingerprints = mStripes[i].mLayoutFingerprints;
+            primaryCalls.add(submitStoragesFor(remotes[i], newRequests(types, fingerprints)));
+        }
+
+        List<Future<RemoteStorageTransport[]>> replicaCalls =
+            new ArrayList<Future<RemoteStorageTransport[]>>(mReplicas.length);
+        for (ClientReplica replica : mReplicas) {
+            Map<Class, LayoutFingerprint> fingerprints = replica.mLayoutFingerprints;
+            replicaCalls.add(submitStoragesFor(replica.mRemote, newRequests(types, fingerprints)));
+        }
+
+        RemoteStorageTransport[][] primaries = new RemoteStorageTransport[remotes.length][];
+        for (int i=0; i<primaries.length; i++) {
+            primaries[i] = received(awaitStorages(primaryCalls.get(i)),
+                                    mStripes[i].mLayoutFingerprints);
+        }
+
+        RemoteStorageTransport[][] replicas = new RemoteStorageTransport[mReplicas.length][];
+        for (int i=0; i<replicas.length; i++) {
+            replicas[i] = received(awaitStorages(replicaCalls.get(i)),
+                                   mReplicas[i].mLayoutFingerprints);
+        }
+
+        types: for (int j=0; j<types.size(); j++) {
+            Class<? extends Storable> type = types.get(j);
+
+            RemoteStorageTransport[] primary = new RemoteStorageTransport[remotes.length];
+            for (int i=0; i<primary.length; i++) {
+                if (primaries[i] == null || (primary[i] = primaries[i][j]) == null) {
+                    continue types;
+                }
+            }
+
+            RemoteStorageTransport[] replica = new RemoteStorageTransport[mReplicas.length];
+            for (int i=0; i<replica.length; i++) {
+                if (replicas[i] == null || (replica[i] = replicas[i][j]) == null) {
+                    // Replica doesn't support bulk requests, or it needs the
+                    // full layout.
+                    ClientReplica r = mReplicas[i];
+                    try {
+                        replica[i] = remoteStorageFor(r.mRemote, r.mLayoutFingerprints, type);
+                    } catch (Exception e) {
+                        // Replica is unreachable or doesn't have the type.
+                    }
+                }
+            }
+
+            result.put(type, new StorageTransports(primary, replica));
+        }
+
+        return result;
+    }
+
+    private static Future<RemoteStorageTransport[]> submitStoragesFor
+        (final RemoteRepository remote, final StorableTypeTransport[] requests)
+    {
+        return AsyncExecutor.submit(new Callable<RemoteStorageTransport[]>() {
+            public RemoteStorageTransport[] call() throws RepositoryException {
+                RemoteStorageTransport[] storages = remote.storagesFor(requests);
+                if (storages == null || storages.length != requests.length) {
+                    throw new RepositoryException("Malformed bulk storage response");
+                }
+                return storages;
+            }
+        });
+    }
+
+    /**
+     * Returns null if the bulk call failed or isn't supported by the remote
+     * repository.
+     */
+    private static RemoteStorageTransport[] awaitStorages(Future<RemoteStorageTransport[]> call)
         throws RepositoryException
     {
-        Layout localLayout = ReconstructedCache.THE.layoutFor(type);
-        StorableTypeTransport transport = new StorableTypeTransport(type, localLayout);
         try {
-            return remote.storageFor(transport);
+            return call.get();
+        } catch (ExecutionException e) {
+            // Types are requested individually, which reports the failure
+            // if it's not caused by an older server.
+            return null;
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    private RemoteStorageTransport[] remoteStoragesFor(RemoteRepository[] remotes,
+                                                       Class<? extends Storable> type)
+        throws RepositoryException
+    {
+        RemoteStorageTransport[] transports = new RemoteStorageTransport[remotes.length];
+        for (int i=0; i<remotes.length; i++) {
+            transports[i] = remoteStorageFor(remotes[i], mStripes[i].mLayoutFingerprints, type);
+        }
+        return transports;
+    }
+
+    /**
+     * Returns a transport for each replica, which is null if the replica
+     * couldn't provide the storage. Reads are then sent to the other replicas.
+     */
+    private RemoteStorageTransport[] replicaStoragesFor(Class<? extends Storable> type) {
+        RemoteStorageTransport[] transports = new RemoteStorageTransport[mReplicas.length];
+        for (int i=0; i<transports.length; i++) {
+            ClientReplica r = mReplicas[i];
+            try {
+                transports[i] = remoteStorageFor(r.mRemote, r.mLayoutFingerprints, type);
+            } catch (Exception e) {
+                // Replica is unreachable or doesn't have the type.
+            }
+        }
+        return transports;
+    }
+
+    /**
+     * @param fingerprints server layout fingerprints received by the stripe
+     * or replica, which is updated by this method
+     */
+    private static RemoteStorageTransport remoteStorageFor
+        (RemoteRepository remote, Map<Class, LayoutFingerprint> fingerprints,
+         Class<? extends Storable> type)
+        throws RepositoryException
+    {
+        try {
+            while (true) {
+                // Older servers ignore the fingerprints, and so the full
+                // layout is always sent with this method.
+                RemoteStorageTransport transport =
+                    remote.storageFor(newRequest(type, fingerprints, false));
+                if (received(transport, fingerprints) != null) {
+                    return transport;
+                }
+                // Server omitted its layout, but this process doesn't have
+                // it. The fingerprint was discarded, and so request again.
+            }
         } catch (MalformedTypeException e) {
             MalformedTypeException e2 = new MalformedTypeException
                 (type, e.getMessage() + ", or server doesn't have Storable definition");
@@ -269,4 +810,91 @@ public class ClientRepository extends AbstractRepository<RemoteTransaction>
             throw e2;
         }
     }
+
+    /**
+     * @param fingerprints server layout fingerprints received by the stripe
+     * or replica
+     * @param omitLayout when true, the local layout is omitted if the server
+     * responded for the type before, and so it has likely seen the layout
+     */
+    private static StorableTypeTransport newRequest(Class<? extends Storable> type,
+                                                    Map<Class, LayoutFingerprint> fingerprints,
+                                                    boolean omitLayout)
+        throws RepositoryException
+    {
+        LayoutFingerprint peer = fingerprints.get(type);
+        return new StorableTypeTransport
+            (type, ReconstructedCache.THE.layoutFor(type),
+             ReconstructedCache.THE.fingerprintFor(type), peer, omitLayout && peer != null);
+    }
+
+    private static StorableTypeTransport[] newRequests(List<Class<? extends Storable>> types,
+                                                       Map<Class, LayoutFingerprint> fingerprints)
+        throws RepositoryException
+    {
+        StorableTypeTransport[] requests = new StorableTypeTransport[types.size()];
+        for (int i=0; i<requests.length; i++) {
+            requests[i] = newRequest(types.get(i), fingerprints, true);
+        }
+        return requests;
+    }
+
+    /**
+     * Records the server layout fingerprint, and returns null if the server
+     * omitted a layout which this process doesn't have.
+     */
+    private static RemoteStorageTransport received(RemoteStorageTransport transport,
+                                                   Map<Class, LayoutFingerprint> fingerprints)
+    {
+        if (transport != null) {
+            Class type = transport.getStorableType();
+            if (transport.getLayout() == null) {
+                fingerprints.remove(type);
+                return null;
+            }
+            LayoutFingerprint fingerprint = transport.getFingerprint();
+            if (fingerprint != null) {
+                fingerprints.put(type, fingerprint);
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Applies {@link #received(RemoteStorageTransport, Map)} to each element.
+     */
+    private static RemoteStorageTransport[] received(RemoteStorageTransport[] transports,
+                                                     Map<Class, LayoutFingerprint> fingerprints)
+    {
+        if (transports != null) {
+            for (int i=0; i<transports.length; i++) {
+                transports[i] = received(transports[i], fingerprints);
+            }
+        }
+        return transports;
+    }
+
+    /**
+     * Source of time for the read your writes window, which tests replace
+     * to control when the window ends.
+     */
+    static class Clock {
+        static final Clock SYSTEM = new Clock();
+
+        long nanoTime() {
+            return System.nanoTime();
+        }
+    }
+
+    private static final class StorageTransports {
+        // One per stripe.
+        final RemoteStorageTransport[] mPrimary;
+        // One per replica, which is null if unavailable.
+        final RemoteStorageTransport[] mReplicas;
+
+        StorageTransports(RemoteStorageTransport[] primary, RemoteStorageTransport[] replicas) {
+            mPrimary = primary;
+            mReplicas = replicas;
+        }
+    }
 }
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.ConfigurationException;
+import com.amazon.carbonado.RepositoryException;
+
+import com.amazon.carbonado.txn.TransactionMonitor;
+
+/**
+ * Builds a {@link ClientRepository} with optional features enabled. The
+ * static {@code ClientRepository.from} methods are shortcuts which use the
+ * default settings.
+ *
+ * @author agent
+ */
+public class ClientRepositoryBuilder {
+    private String mName;
+    private RemoteRepository mRemote;
+    private RemoteRepositoryFactory mFactory;
+    private int mStripeCount = 1;
+    private RemoteRepository[] mReplicas = new RemoteRepository[0];
+    private long mReadYourWritesNanos;
+    private ClientRepository.Clock mClock = ClientRepository.Clock.SYSTEM;
+    private TransactionMonitor mMonitor;
+
+    private int mNearCacheSize;
+    private long mNearCacheTimeToLiveNanos = TimeUnit.SECONDS.toNanos(60);
+
+    private int mPrefetch;
+
+    private int mSequenceReserveSize;
+
+    public ClientRepositoryBuilder() {
+    }
+
+    public ClientRepository build() throws RepositoryException {
+        RemoteRepository[] remotes = new RemoteRepository[mStripeCount];
+
+        int i = 0;
+        if (mRemote != null) {
+            remotes[i++] = mRemote;
+        }
+
+        if (i < remotes.length) {
+            if (mFactory == null) {
+                if (mRemote == null) {
+                    throw new ConfigurationException("RemoteRepository is not set");
+                }
+                throw new ConfigurationException
+                    ("RemoteRepositoryFactory is required for more than one stripe");
+            }
+            try {
+                for (; i<remotes.length; i++) {
+                    remotes[i] = mFactory.newRemoteRepository();
+                }
+            } catch (IOException e) {
+                throw new RepositoryException(e);
+            }
+        }
+
+        String name = mName;
+        if (name == null) {
+            name = remotes[0].getName();
+        }
+        return new ClientRepository(name, remotes, this);
+    }
+
+    /**
+     * @return name of repository, or null to retrieve name from remote endpoint
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @param name name of repository; pass null to retrieve name from remote endpoint
+     */
+    public void setName(String name) {
+        mName = name;
+    }
+
+    public RemoteRepository getRemoteRepository() {
+        return mRemote;
+    }
+
+    /**
+     * Set the remote repository server to access, which is required unless a
+     * factory is set.
+     */
+    public void setRemoteRepository(RemoteRepository remote) {
+        mRemote = remote;
+    }
+
+    public RemoteRepositoryFactory getRemoteRepositoryFactory() {
+        return mFactory;
+    }
+
+    /**
+     * Set a factory which opens sessions to the remote repository server,
+     * which is required for striping. If a remote repository is also set, it
+     * is used by the first stripe, and the factory opens the rest.
+     *
+     * @see #setStripeCount
+     */
+    public void setRemoteRepositoryFactory(RemoteRepositoryFactory factory) {
+        mFactory = factory;
+    }
+
+    public int getStripeCount() {
+        return mStripeCount;
+    }
+
+    /**
+     * Set the amount of sessions to open to the server, which is one by
+     * default. Operations outside of transactions are spread across the
+     * sessions by thread, reducing contention when many threads share the
+     * repository. All operations within a transaction use the session which
+     * entered it.
+     *
+     * @see ClientRepository#getStripeStatistics
+     */
+    public void setStripeCount(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Stripe count must be at least one");
+        }
+        mStripeCount = count;
+    }
+
+    public RemoteRepository[] getReplicaRepositories() {
+        return mReplicas.clone();
+    }
+
+    /**
+     * Set read replica servers, which serve replicas of the primary server's
+     * repository. Loads, counts and fetches outside of transactions are sent
+     * to the replica with the lowest observed latency, falling back to the
+     * primary if a replica can't be reached. Writes and everything within a
+     * transaction are sent to the primary. By default, there are no replicas.
+     *
+     * @see #setReadYourWritesWindow
+     * @see ClientRepository#getReplicaStatistics
+     */
+    public void setReplicaRepositories(RemoteRepository... replicas) {
+        if (replicas == null) {
+            replicas = new RemoteRepository[0];
+        }
+        for (RemoteRepository replica : replicas) {
+            if (replica == null) {
+                throw new IllegalArgumentException("Replica cannot be null");
+            }
+        }
+        mReplicas = replicas.clone();
+    }
+
+    public long getReadYourWritesWindow(TimeUnit unit) {
+        return unit.convert(mReadYourWritesNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set how long reads are sent to the primary after this client writes
+     * anything, allowing replicas to catch up. Default is zero, which always
+     * sends reads outside of transactions to replicas.
+     */
+    public void setReadYourWritesWindow(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Read your writes window cannot be negative");
+        }
+        mReadYourWritesNanos = unit.toNanos(duration);
+    }
+
+    ClientRepository.Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Set the source of time for the read your writes window. Only used by tests.
+     */
+    void setClock(ClientRepository.Clock clock) {
+        mClock = clock;
+    }
+
+    public TransactionMonitor getTransactionMonitor() {
+        return mMonitor;
+    }
+
+    /**
+     * @param monitor optional transaction monitor
+     */
+    public void setTransactionMonitor(TransactionMonitor monitor) {
+        mMonitor = monitor;
+    }
+
+    public int getNearCacheSize() {
+        return mNearCacheSize;
+    }
+
+    /**
+     * Enable a client-side cache of loaded storables, per Storable type, which
+     * is consulted for primary key loads outside of transactions. Entries are
+     * discarded when the server reports that they were modified through any
+     * session. Modifications made directly against the server's repository
+     * are not reported, and so they are only observed when entries
+     * expire. Default size is zero, which disables the cache.
+     *
+     * @param maxEntries maximum amount of cached storables, per type
+     */
+    public void setNearCacheSize(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Near cache size cannot be negative");
+        }
+        mNearCacheSize = maxEntries;
+    }
+
+    public long getNearCacheTimeToLive(TimeUnit unit) {
+        return unit.convert(mNearCacheTimeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the maximum age of near cache entries, which is 60 seconds by
+     * default. Pass zero to never expire entries.
+     */
+    public void setNearCacheTimeToLive(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative");
+        }
+        mNearCacheTimeToLiveNanos = unit.toNanos(duration);
+    }
+
+    public int getPrefetchDepth() {
+        return mPrefetch;
+    }
+
+    /**
+     * Set the default amount of storables which query cursors read ahead in
+     * a background thread. Default is zero, which disables prefetching.
+     *
+     * @see ClientRepository#withPrefetch
+     */
+    public void setPrefetchDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Prefetch depth cannot be negative");
+        }
+        mPrefetch = depth;
+    }
+
+    public int getSequenceReserveSize() {
+        return mSequenceReserveSize;
+    }
+
+    /**
+     * Set the amount of sequence values which are reserved by each client
+     * sequence producer in one remote call, and then handed out locally. The
+     * next block is requested in the background when a quarter of the
+     * current block remains. Reserved values which aren't used before the
+     * repository is closed or reconnected are skipped. Default is zero,
+     * which requests each value from the server.
+     */
+    public void setSequenceReserveSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Sequence reserve size cannot be negative");
+        }
+        mSequenceReserveSize = size;
+    }
+}
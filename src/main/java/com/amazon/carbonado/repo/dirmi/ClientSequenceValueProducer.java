@@ -18,49 +18,156 @@
 
 package com.amazon.carbonado.repo.dirmi;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 
 import com.amazon.carbonado.sequence.AbstractSequenceValueProducer;
 
 /**
- * 
+ * Client-side SequenceValueProducer, which can reserve blocks of values to
+ * avoid a remote call per value. The next block is requested in the
+ * background when the current block runs low. Values still reserved when
+ * the client reconnects or returns reserved values are skipped, like the
+ * values reserved by a server-side generator which is shut down.
  *
  * @author Olga Kuznetsova
  */
 class ClientSequenceValueProducer extends AbstractSequenceValueProducer {
+    private final int mReserveSize;
+    private final int mLowWater;
+
     private volatile RemoteSequenceValueProducer mProducer;
-    public ClientSequenceValueProducer(RemoteSequenceValueProducer remote) {
+
+    // Remaining fields are guarded by this.
+    private long[] mReserved;
+    private int mPos;
+    // Is null if no block is being prefetched.
+    private Future<long[]> mNext;
+    // Set when server doesn't support reserving values.
+    private boolean mUnsupported;
+
+    /**
+     * @param reserveSize amount of values to reserve at a time; zero to disable
+     */
+    public ClientSequenceValueProducer(RemoteSequenceValueProducer remote, int reserveSize) {
 	mProducer = remote;
+	mReserveSize = Math.min(reserveSize, RemoteSequenceValueProducerServer.MAX_RESERVE);
+	mLowWater = mReserveSize / 4;
     }
 
-    public void reconnect(RemoteSequenceValueProducer remote) {
+    public synchronized void reconnect(RemoteSequenceValueProducer remote) {
 	mProducer = remote;
+	discard();
     }
 
     @Override
     public int nextIntValue() throws PersistException {
-	return mProducer.nextIntValue();
+	if (mReserveSize <= 0) {
+	    return mProducer.nextIntValue();
+	}
+	return super.nextIntValue();
     }
 
     @Override
     public String nextDecimalValue() throws PersistException {
-	return mProducer.nextDecimalValue();
+	if (mReserveSize <= 0) {
+	    return mProducer.nextDecimalValue();
+	}
+	return super.nextDecimalValue();
     }
 
     @Override
     public String nextNumericalValue(int radix, int minLength) 
 	throws PersistException {
-	return mProducer.nextNumericalValue(radix, minLength);
+	if (mReserveSize <= 0) {
+	    return mProducer.nextNumericalValue(radix, minLength);
+	}
+	return super.nextNumericalValue(radix, minLength);
     }
  
     @Override
     public long nextLongValue() throws PersistException {
-	return mProducer.nextLongValue();
+	if (mReserveSize <= 0) {
+	    return mProducer.nextLongValue();
+	}
+	synchronized (this) {
+	    long[] reserved = mReserved;
+	    if (reserved == null || mPos >= reserved.length) {
+		if ((reserved = nextBlock()) == null) {
+		    return mProducer.nextLongValue();
+		}
+	    }
+	    long value = reserved[mPos++];
+	    if (mNext == null && reserved.length - mPos <= mLowWater) {
+		prefetch();
+	    }
+	    return value;
+	}
     }
    
     @Override
     public boolean returnReservedValues() throws FetchException, PersistException {
+	synchronized (this) {
+	    discard();
+	}
 	return mProducer.returnReservedValues();
     }
+
+    /**
+     * Returns null if server doesn't support reserving values.
+     */
+    private long[] nextBlock() throws PersistException {
+	if (mUnsupported) {
+	    return null;
+	}
+
+	long[] block = null;
+
+	Future<long[]> next = mNext;
+	if (next != null) {
+	    mNext = null;
+	    try {
+		block = next.get();
+	    } catch (ExecutionException e) {
+		// Try again, and report the failure if it persists.
+	    } catch (InterruptedException e) {
+		throw new PersistException(e);
+	    }
+	}
+
+	if (block == null) {
+	    try {
+		block = mProducer.nextLongValues(mReserveSize);
+	    } catch (PersistException e) {
+		if (!ClientStorage.isUnimplemented(e)) {
+		    throw e;
+		}
+		mUnsupported = true;
+		return null;
+	    }
+	}
+
+	mReserved = block;
+	mPos = 0;
+	return block;
+    }
+
+    private void prefetch() {
+	final RemoteSequenceValueProducer producer = mProducer;
+	mNext = AsyncExecutor.submit(new Callable<long[]>() {
+	    public long[] call() throws PersistException {
+		return producer.nextLongValues(mReserveSize);
+	    }
+	});
+    }
+
+    private void discard() {
+	mReserved = null;
+	mPos = 0;
+	mNext = null;
+    }
 }
\ No newline at end of file
@@ -20,15 +20,24 @@ package com.amazon.carbonado.repo.dirmi;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
 import org.cojen.dirmi.Pipe;
+import org.cojen.dirmi.UnimplementedMethodException;
 
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
@@ -67,15 +76,28 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
     static final String TXN_INVALID_MSG =
         "Transaction is invalid, possibly due to a reconnect";
 
+    // Maximum amount of storables to send before waiting for results.
+    private static final int BATCH_SIZE = 100;
+
+    private static final int OP_INSERT = 0, OP_UPDATE = 1, OP_DELETE = 2;
+
     private final Class<S> mType;
     private final ClientRepository mRepository;
     private final TriggerManager<S> mTriggerManager;
     private final InstanceFactory mInstanceFactory;
     private final ClientQueryFactory<S> mQueryFactory;
+    private final ClientNearCache mNearCache;
+    // Properties which can be present in a partial response.
+    private final String[] mPropertyNames;
 
     private volatile StorageProxy<S> mStorageProxy;
 
-    ClientStorage(Class<S> type, ClientRepository repo, RemoteStorageTransport transport)
+    /**
+     * @param transports one per stripe
+     * @param replicaTransports one per replica, which is null if unavailable
+     */
+    ClientStorage(Class<S> type, ClientRepository repo, RemoteStorageTransport[] transports,
+                  RemoteStorageTransport[] replicaTransports)
         throws SupportException, RepositoryException
     {
         mType = type;
@@ -101,8 +123,17 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
 
         mQueryFactory = new ClientQueryFactory<S>(type, this);
 
-        // Set mStorage and determine supported independent properties.
-        reconnect(transport);
+        mPropertyNames = StorableWriter.serializedPropertyNames(type);
+
+        if (repo.mNearCacheSize > 0) {
+            mNearCache = new ClientNearCache
+                (type, repo.mNearCacheSize, repo.mNearCacheTimeToLiveNanos);
+        } else {
+            mNearCache = null;
+        }
+
+        // Set mStorageProxy and determine supported independent properties.
+        reconnect(transports, replicaTransports);
     }
 
     public Class<S> getStorableType() {
@@ -127,9 +158,13 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
 
     public void truncate() throws PersistException {
         try {
-            mStorageProxy.mStorage.truncate(mRepository.localTransactionScope().getTxn());
+            RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
+            remoteStorage(mStorageProxy, txn).truncate(txn);
         } catch (Exception e) {
             throw toPersistException(e);
+        } finally {
+            invalidateAll();
+            mRepository.wrote();
         }
     }
 
@@ -177,7 +212,7 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         throw new PersistException("unsupported");
     }
 
-    public boolean doTryLoad(S storable) throws FetchException {
+    public boolean doTryLoad(final S storable) throws FetchException {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
@@ -186,27 +221,64 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
 
             StorageProxy<S> proxy = mStorageProxy;
 
-            Pipe pipe = proxy.mStorage.tryLoad(txn, null);
-            try {
-                proxy.mWriter.writeForLoad(storable, pipe.getOutputStream());
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toFetchException(ex);
-                }
-                if (pipe.readBoolean()) {
-                    storable.readFrom(pipe.getInputStream());
+            // Near cache is only consulted outside of transactions, to
+            // preserve isolation.
+            final ClientNearCache cache = txn == null ? proxy.mNearCache : null;
+            NearCacheKey key = null;
+            long stamp = 0;
+            if (cache != null && (key = cache.keyFor(storable)) != null) {
+                byte[] bytes = cache.get(key);
+                if (bytes != null) {
+                    storable.readFrom(new ByteArrayInputStream(bytes));
                     return true;
                 }
-                return false;
-            } finally {
-                pipe.close();
+                stamp = cache.stamp();
             }
+
+            final NearCacheKey fkey = key;
+            final long fstamp = stamp;
+
+            return read(proxy, txn, true, new ReadOp<S, Boolean>() {
+                public Boolean read(StorageProxy<S> proxy, RemoteTransaction txn)
+                    throws Exception
+                {
+                    Pipe pipe = remoteStorage(proxy, txn).tryLoad(txn, null);
+                    try {
+                        proxy.mWriter.writeForLoad(storable, pipe.getOutputStream());
+                        if (!receiveLoad(pipe, storable)) {
+                            return false;
+                        }
+                        // Replicas can lag behind the primary, which sends
+                        // the invalidations, so only cache primary loads.
+                        if (fkey != null && proxy.mReplica == null) {
+                            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                            storable.writeTo(bout);
+                            cache.put(fkey, fstamp, bout.toByteArray());
+                        }
+                        return true;
+                    } finally {
+                        pipe.close();
+                    }
+                }
+            });
         } catch (Exception e) {
             throw toFetchException(e);
         }
     }
 
     public boolean doTryInsert(S storable) throws PersistException {
+        return doTryPersist(OP_INSERT, storable);
+    }
+
+    public boolean doTryUpdate(S storable) throws PersistException {
+        return doTryPersist(OP_UPDATE, storable);
+    }
+
+    public boolean doTryDelete(S storable) throws PersistException {
+        return doTryPersist(OP_DELETE, storable);
+    }
+
+    private boolean doTryPersist(int op, S storable) throws PersistException {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
@@ -215,66 +287,362 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
 
             StorageProxy<S> proxy = mStorageProxy;
 
-            Pipe pipe = proxy.mStorage.tryInsert(txn, null);
+            Pipe pipe = sendPersist(op, proxy, txn, storable);
             try {
-                proxy.mWriter.writeForInsert(storable, pipe.getOutputStream());
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toPersistException(ex);
-                }
-                int result = pipe.readByte();
-                switch (result) {
-                case RemoteStorageServer.STORABLE_UNCHANGED:
-                    return true;
-                case RemoteStorageServer.STORABLE_CHANGED:
-                    storable.readFrom(pipe.getInputStream());
-                    return true;
-                default:
-                    return false;
-                }
+                return receivePersist(op, pipe, storable);
             } finally {
                 pipe.close();
+                invalidate(proxy, storable);
+                mRepository.wrote();
             }
         } catch (Exception e) {
             throw toPersistException(e);
         }
     }
 
-    public boolean doTryUpdate(S storable) throws PersistException {
+    /**
+     * Starts a remote insert, update or delete, returning the pipe to read
+     * the reply from.
+     */
+    private Pipe sendPersist(int op, StorageProxy<S> proxy, RemoteTransaction txn, S storable)
+        throws Exception
+    {
+        Pipe pipe;
+        switch (op) {
+        case OP_INSERT:
+            pipe = remoteStorage(proxy, txn).tryInsert(txn, null);
+            break;
+        case OP_UPDATE:
+            pipe = remoteStorage(proxy, txn).tryUpdate(txn, null);
+            break;
+        default:
+            pipe = remoteStorage(proxy, txn).tryDelete(txn, null);
+            break;
+        }
+
+        try {
+            switch (op) {
+            case OP_INSERT:
+                proxy.mWriter.writeForInsert(storable, pipe.getOutputStream());
+                break;
+            case OP_UPDATE:
+                proxy.mWriter.writeForUpdate(storable, pipe.getOutputStream());
+                break;
+            default:
+                proxy.mWriter.writeForDelete(storable, pipe.getOutputStream());
+                break;
+            }
+        } catch (Exception e) {
+            pipe.close();
+            throw e;
+        }
+
+        return pipe;
+    }
+
+    /**
+     * Reads the reply of a tryLoad request, which doesn't close the pipe.
+     */
+    private boolean receiveLoad(Pipe pipe, S storable) throws Exception {
+        Throwable ex = pipe.readThrowable();
+        if (ex != null) {
+            throw toFetchException(ex);
+        }
+        if (pipe.readBoolean()) {
+            storable.readFrom(pipe.getInputStream());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the reply of an insert, update or delete request, which doesn't
+     * close the pipe.
+     */
+    private boolean receivePersist(int op, Pipe pipe, S storable) throws Exception {
+        Throwable ex = pipe.readThrowable();
+        if (ex != null) {
+            throw toPersistException(ex);
+        }
+        if (op == OP_DELETE) {
+            return pipe.readBoolean();
+        }
+        int result = pipe.readByte();
+        switch (result) {
+        case RemoteStorageServer.STORABLE_UNCHANGED:
+            return true;
+        case RemoteStorageServer.STORABLE_CHANGED:
+            storable.readFrom(pipe.getInputStream());
+            return true;
+        case RemoteStorageServer.STORABLE_PARTIAL:
+            readPartial(storable, pipe.getInputStream());
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Reads a storable which only has the properties changed by the server,
+     * and applies them to the given storable.
+     */
+    private void readPartial(S storable, InputStream in) throws IOException, SupportException {
+        S changes = prepare();
+        changes.readFrom(in);
+        for (String name : mPropertyNames) {
+            if (!changes.isPropertyUninitialized(name)) {
+                storable.setPropertyValue(name, changes.getPropertyValue(name));
+            }
+        }
+    }
+
+    Future<Boolean> asyncTryLoad(final S storable) throws FetchException {
+        if (getLoadTrigger() != null) {
+            // Triggers must run in the caller's thread.
+            return AsyncExecutor.completed(storable.tryLoad());
+        }
+
+        try {
+            RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
+            if (txn instanceof FailedTransaction) {
+                throw new FetchException(TXN_INVALID_MSG);
+            }
+
+            StorageProxy<S> proxy = mStorageProxy;
+
+            final Pipe pipe = remoteStorage(proxy, txn).tryLoad(txn, null);
+            try {
+                proxy.mWriter.writeForLoad(storable, pipe.getOutputStream());
+                pipe.flush();
+            } catch (Exception e) {
+                pipe.close();
+                throw e;
+            }
+
+            return AsyncExecutor.submit(new Callable<Boolean>() {
+                public Boolean call() throws FetchException {
+                    try {
+                        try {
+                            if (receiveLoad(pipe, storable)) {
+                                storable.markAllPropertiesClean();
+                                return true;
+                            }
+                            return false;
+                        } finally {
+                            pipe.close();
+                        }
+                    } catch (Exception e) {
+                        throw toFetchException(e);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw toFetchException(e);
+        }
+    }
+
+    Future<Boolean> asyncTryInsert(S storable) throws PersistException {
+        return asyncTryPersist(OP_INSERT, storable);
+    }
+
+    Future<Boolean> asyncTryUpdate(S storable) throws PersistException {
+        return asyncTryPersist(OP_UPDATE, storable);
+    }
+
+    Future<Boolean> asyncTryDelete(S storable) throws PersistException {
+        return asyncTryPersist(OP_DELETE, storable);
+    }
+
+    private Future<Boolean> asyncTryPersist(final int op, final S storable)
+        throws PersistException
+    {
+        Trigger<? super S> trigger;
+        switch (op) {
+        case OP_INSERT:
+            trigger = getInsertTrigger();
+            break;
+        case OP_UPDATE:
+            trigger = getUpdateTrigger();
+            break;
+        default:
+            trigger = getDeleteTrigger();
+            break;
+        }
+
+        if (trigger != null) {
+            // Triggers must run in the caller's thread.
+            boolean[] results = new boolean[1];
+            return AsyncExecutor.completed
+                (persistEach(op, Collections.singleton(storable), results)[0]);
+        }
+
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
                 throw new PersistException(TXN_INVALID_MSG);
             }
 
+            final StorageProxy<S> proxy = mStorageProxy;
+
+            final Pipe pipe = sendPersist(op, proxy, txn, storable);
+            try {
+                pipe.flush();
+            } catch (Exception e) {
+                pipe.close();
+                throw e;
+            }
+
+            return AsyncExecutor.submit(new Callable<Boolean>() {
+                public Boolean call() throws PersistException {
+                    try {
+                        try {
+                            if (!receivePersist(op, pipe, storable)) {
+                                return false;
+                            }
+                            // Mimic the state changes of the Storable methods.
+                            if (op == OP_DELETE) {
+                                storable.markAllPropertiesDirty();
+                            } else {
+                                storable.markPropertiesClean();
+                            }
+                            return true;
+                        } finally {
+                            pipe.close();
+                            invalidate(proxy, storable);
+                            mRepository.wrote();
+                        }
+                    } catch (Exception e) {
+                        throw toPersistException(e);
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw toPersistException(e);
+        }
+    }
+
+    boolean[] tryLoadAll(Collection<? extends S> storables) throws FetchException {
+        boolean[] results = new boolean[storables.size()];
+        if (results.length == 0) {
+            return results;
+        }
+
+        if (getLoadTrigger() != null) {
+            // Triggers must run locally against each storable.
+            return loadEach(storables, results);
+        }
+
+        try {
+            RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
+            if (txn instanceof FailedTransaction) {
+                throw new FetchException(TXN_INVALID_MSG);
+            }
+
             StorageProxy<S> proxy = mStorageProxy;
 
-            Pipe pipe = proxy.mStorage.tryUpdate(txn, null);
+            Pipe pipe;
             try {
-                proxy.mWriter.writeForUpdate(storable, pipe.getOutputStream());
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toPersistException(ex);
+                pipe = remoteStorage(proxy, txn).tryLoadBatch(txn, null);
+            } catch (FetchException e) {
+                if (isUnimplemented(e)) {
+                    // Server is too old to support batching.
+                    return loadEach(storables, results);
                 }
-                int result = pipe.readByte();
-                switch (result) {
-                case RemoteStorageServer.STORABLE_UNCHANGED:
-                    return true;
-                case RemoteStorageServer.STORABLE_CHANGED:
-                    storable.readFrom(pipe.getInputStream());
-                    return true;
-                default:
-                    return false;
+                throw e;
+            }
+
+            try {
+                StorableWriter<S> writer = proxy.mWriter;
+                Iterator<? extends S> it = storables.iterator();
+                List<S> chunk = new ArrayList<S>(Math.min(BATCH_SIZE, results.length));
+                int index = 0;
+
+                while (index < results.length) {
+                    int size = Math.min(BATCH_SIZE, results.length - index);
+                    pipe.writeInt(size);
+                    for (int i=0; i<size; i++) {
+                        S storable = it.next();
+                        chunk.add(storable);
+                        writer.writeForLoad(storable, pipe.getOutputStream());
+                    }
+                    pipe.flush();
+
+                    Throwable ex = pipe.readThrowable();
+                    if (ex != null) {
+                        throw toFetchException(ex);
+                    }
+
+                    for (S storable : chunk) {
+                        if (pipe.readBoolean()) {
+                            storable.readFrom(pipe.getInputStream());
+                            storable.markAllPropertiesClean();
+                            results[index] = true;
+                        }
+                        index++;
+                    }
+
+                    chunk.clear();
                 }
+
+                pipe.writeInt(0);
             } finally {
                 pipe.close();
             }
         } catch (Exception e) {
-            throw toPersistException(e);
+            throw toFetchException(e);
         }
+
+        return results;
     }
 
-    public boolean doTryDelete(S storable) throws PersistException {
+    private boolean[] loadEach(Collection<? extends S> storables, boolean[] results)
+        throws FetchException
+    {
+        int index = 0;
+        for (S storable : storables) {
+            results[index++] = storable.tryLoad();
+        }
+        return results;
+    }
+
+    boolean[] tryInsertAll(Collection<? extends S> storables) throws PersistException {
+        return persistAll(OP_INSERT, storables);
+    }
+
+    boolean[] tryUpdateAll(Collection<? extends S> storables) throws PersistException {
+        return persistAll(OP_UPDATE, storables);
+    }
+
+    boolean[] tryDeleteAll(Collection<? extends S> storables) throws PersistException {
+        return persistAll(OP_DELETE, storables);
+    }
+
+    private boolean[] persistAll(int op, Collection<? extends S> storables)
+        throws PersistException
+    {
+        boolean[] results = new boolean[storables.size()];
+        if (results.length == 0) {
+            return results;
+        }
+
+        Trigger<? super S> trigger;
+        switch (op) {
+        case OP_INSERT:
+            trigger = getInsertTrigger();
+            break;
+        case OP_UPDATE:
+            trigger = getUpdateTrigger();
+            break;
+        default:
+            trigger = getDeleteTrigger();
+            break;
+        }
+
+        if (trigger != null) {
+            // Triggers must run locally against each storable.
+            return persistEach(op, storables, results);
+        }
+
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
@@ -283,53 +651,229 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
 
             StorageProxy<S> proxy = mStorageProxy;
 
-            Pipe pipe = proxy.mStorage.tryDelete(txn, null);
+            Pipe pipe;
             try {
-                proxy.mWriter.writeForDelete(storable, pipe.getOutputStream());
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toPersistException(ex);
+                switch (op) {
+                case OP_INSERT:
+                    pipe = remoteStorage(proxy, txn).tryInsertBatch(txn, null);
+                    break;
+                case OP_UPDATE:
+                    pipe = remoteStorage(proxy, txn).tryUpdateBatch(txn, null);
+                    break;
+                default:
+                    pipe = remoteStorage(proxy, txn).tryDeleteBatch(txn, null);
+                    break;
+                }
+            } catch (PersistException e) {
+                if (isUnimplemented(e)) {
+                    // Server is too old to support batching.
+                    return persistEach(op, storables, results);
+                }
+                throw e;
+            }
+
+            CompressedOutputStream cout = null;
+            try {
+                OutputStream out = pipe.getOutputStream();
+                if (proxy.mStreams != null) {
+                    // Only the storables are compressed, and not the chunk sizes.
+                    out = cout = proxy.mStreams.output(out);
+                }
+
+                StorableWriter<S> writer = proxy.mWriter;
+                Iterator<? extends S> it = storables.iterator();
+                List<S> chunk = new ArrayList<S>(Math.min(BATCH_SIZE, results.length));
+                int index = 0;
+
+                while (index < results.length) {
+                    int size = Math.min(BATCH_SIZE, results.length - index);
+                    pipe.writeInt(size);
+                    for (int i=0; i<size; i++) {
+                        S storable = it.next();
+                        chunk.add(storable);
+                        switch (op) {
+                        case OP_INSERT:
+                            writer.writeForInsert(storable, out);
+                            break;
+                        case OP_UPDATE:
+                            writer.writeForUpdate(storable, out);
+                            break;
+                        default:
+                            writer.writeForDelete(storable, out);
+                            break;
+                        }
+                    }
+                    out.flush();
+
+                    for (S storable : chunk) {
+                        int result = pipe.readByte();
+                        switch (result) {
+                        case RemoteStorageServer.STORABLE_CHANGED:
+                            if (op == OP_DELETE) {
+                                storable.markAllPropertiesDirty();
+                            } else {
+                                storable.readFrom(pipe.getInputStream());
+                                storable.markPropertiesClean();
+                            }
+                            results[index] = true;
+                            break;
+                        case RemoteStorageServer.STORABLE_UNCHANGED:
+                            storable.markPropertiesClean();
+                            results[index] = true;
+                            break;
+                        case RemoteStorageServer.STORABLE_PARTIAL:
+                            readPartial(storable, pipe.getInputStream());
+                            storable.markPropertiesClean();
+                            results[index] = true;
+                            break;
+                        case RemoteStorageServer.STORABLE_CHANGE_FAILED:
+                            break;
+                        default:
+                            // Storables before this one were persisted.
+                            throw batchException(pipe.readThrowable(), index, results);
+                        }
+                        index++;
+                    }
+
+                    chunk.clear();
                 }
-                return pipe.readBoolean();
+
+                pipe.writeInt(0);
             } finally {
+                if (cout != null) {
+                    cout.end();
+                }
                 pipe.close();
+                if (proxy.mNearCache != null) {
+                    for (S storable : storables) {
+                        invalidate(proxy, storable);
+                    }
+                }
+                mRepository.wrote();
             }
         } catch (Exception e) {
             throw toPersistException(e);
         }
+
+        return results;
     }
 
-    long queryCount(FilterValues<S> fv, Query.Controller controller) throws FetchException {
+    private boolean[] persistEach(int op, Collection<? extends S> storables, boolean[] results)
+        throws PersistException
+    {
+        int index = 0;
+        for (S storable : storables) {
+            try {
+                switch (op) {
+                case OP_INSERT:
+                    results[index] = storable.tryInsert();
+                    break;
+                case OP_UPDATE:
+                    results[index] = storable.tryUpdate();
+                    break;
+                default:
+                    results[index] = storable.tryDelete();
+                    break;
+                }
+            } catch (PersistException e) {
+                throw batchException(e, index, results);
+            }
+            index++;
+        }
+        return results;
+    }
+
+    /**
+     * @param index index of the storable which failed
+     * @param results results of all storables, which is copied up to the index
+     */
+    private static BatchPersistException batchException(Throwable cause, int index,
+                                                        boolean[] results)
+    {
+        boolean[] before = new boolean[index];
+        System.arraycopy(results, 0, before, 0, index);
+        return new BatchPersistException(cause, index, before);
+    }
+
+    long queryCount(final FilterValues<S> fv, final Query.Controller controller)
+        throws FetchException
+    {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
-            RemoteStorage remote = mStorageProxy.mStorage;
-            // Select remote method for compatibilty with older server.
-            return controller == null
-                ? remote.queryCount(fv, txn)
-                : remote.queryCount(fv, txn, controller);
+            return read(mStorageProxy, txn, true, new ReadOp<S, Long>() {
+                public Long read(StorageProxy<S> proxy, RemoteTransaction txn)
+                    throws Exception
+                {
+                    int stripe = stripeIndex(proxy, txn);
+                    RemoteStorage remote = proxy.mStorages[stripe];
+                    int handle = preparedHandle(proxy, stripe, fv, null);
+                    if (handle >= 0) {
+                        return remote.preparedCount(handle, encodeValues(fv), txn, controller);
+                    }
+                    // Select remote method for compatibilty with older server.
+                    return controller == null
+                        ? remote.queryCount(fv, txn)
+                        : remote.queryCount(fv, txn, controller);
+                }
+            });
         } catch (Exception e) {
             throw toFetchException(e);
         }
     }
 
-    ClientCursor<S> queryFetch(FilterValues fv, OrderingList orderBy, Long from, Long to,
-                               Query.Controller controller)
+    Future<Long> asyncQueryCount(final FilterValues<S> fv) throws FetchException {
+        final RemoteTransaction txn;
+        try {
+            txn = mRepository.localTransactionScope().getTxn();
+        } catch (Exception e) {
+            throw toFetchException(e);
+        }
+
+        final RemoteStorage remote = remoteStorage(mStorageProxy, txn);
+
+        // Count isn't a pipe method, and so the executor makes the whole call.
+        return AsyncExecutor.submit(new Callable<Long>() {
+            public Long call() throws FetchException {
+                try {
+                    return remote.queryCount(fv, txn);
+                } catch (Exception e) {
+                    throw toFetchException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param prefetch cursor prefetch depth; zero disables prefetching
+     */
+    ClientCursor<S> queryFetch(final FilterValues fv, final OrderingList orderBy,
+                               final Long from, final Long to,
+                               final Query.Controller controller, final int prefetch)
         throws FetchException
     {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
 
-            StorageProxy proxy = mStorageProxy;
-            RemoteStorage remote = proxy.mStorage;
+            if (txn == null) {
+                // The call returns before the server replies, and so it isn't
+                // timed.
+                return read(mStorageProxy, null, false, new ReadOp<S, ClientCursor<S>>() {
+                    public ClientCursor<S> read(StorageProxy<S> proxy, RemoteTransaction txn)
+                        throws Exception
+                    {
+                        Pipe pipe = fetch(proxy, txn, fv, orderBy, from, to, controller);
+                        return new ClientCursor<S>
+                            (ClientStorage.this, pipe, prefetch, proxy.mStreams);
+                    }
+                });
+            }
 
-            // Select remote method for compatibilty with older server.
-            Pipe pipe = controller == null
-                ? remote.queryFetch(fv, orderBy, from, to, txn, null)
-                : remote.queryFetch(fv, orderBy, from, to, txn, null, controller);
+            StorageProxy proxy = mStorageProxy;
+            Pipe pipe = fetch(proxy, txn, fv, orderBy, from, to, controller);
 
-            ClientCursor<S> cursor = new ClientCursor<S>(this, pipe);
+            ClientCursor<S> cursor = new ClientCursor<S>(this, pipe, prefetch, proxy.mStreams);
 
-            if (txn != null && proxy.mProtocolVersion >= 0) {
+            if (proxy.mProtocolVersion >= 0) {
                 // Block until server has created it's cursor against the
                 // transaction we just passed to it.
                 if (proxy.mProtocolVersion >= 1) {
@@ -363,64 +907,152 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         }
     }
 
-    S queryLoadOne(FilterValues fv, Query.Controller controller) throws FetchException {
+    /**
+     * Issues a fetch request, as a prepared query if possible.
+     */
+    private Pipe fetch(StorageProxy<?> proxy, RemoteTransaction txn,
+                       FilterValues fv, OrderingList orderBy, Long from, Long to,
+                       Query.Controller controller)
+        throws FetchException
+    {
+        int stripe = stripeIndex(proxy, txn);
+        RemoteStorage remote = proxy.mStorages[stripe];
+        int handle = preparedHandle(proxy, stripe, fv, orderBy);
+        if (handle >= 0) {
+            return remote.preparedFetch(handle, encodeValues(fv), from, to, txn, null, controller);
+        }
+        // Select remote method for compatibilty with older server.
+        return controller == null
+            ? remote.queryFetch(fv, orderBy, from, to, txn, null)
+            : remote.queryFetch(fv, orderBy, from, to, txn, null, controller);
+    }
+
+    S queryLoadOne(final FilterValues fv, final Query.Controller controller)
+        throws FetchException
+    {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
                 throw new FetchException(TXN_INVALID_MSG);
             }
 
-            RemoteStorage remote = mStorageProxy.mStorage;
+            return read(mStorageProxy, txn, true, new ReadOp<S, S>() {
+                public S read(StorageProxy<S> proxy, RemoteTransaction txn) throws Exception {
+                    int stripe = stripeIndex(proxy, txn);
+                    RemoteStorage remote = proxy.mStorages[stripe];
+                    int handle = preparedHandle(proxy, stripe, fv, null);
+
+                    Pipe pipe;
+                    if (handle >= 0) {
+                        pipe = remote.preparedLoadOne
+                            (handle, encodeValues(fv), txn, null, controller);
+                    } else {
+                        // Select remote method for compatibilty with older server.
+                        pipe = controller == null
+                            ? remote.queryLoadOne(fv, txn, null)
+                            : remote.queryLoadOne(fv, txn, null, controller);
+                    }
 
-            // Select remote method for compatibilty with older server.
-            Pipe pipe = controller == null
-                ? remote.queryLoadOne(fv, txn, null)
-                : remote.queryLoadOne(fv, txn, null, controller);
+                    try {
+                        return receiveLoadOne(pipe);
+                    } finally {
+                        pipe.close();
+                    }
+                }
+            });
+        } catch (Exception e) {
+            throw toFetchException(e);
+        }
+    }
 
+    /**
+     * Reads the reply of a queryLoadOne request, which doesn't close the pipe.
+     */
+    private S receiveLoadOne(Pipe pipe) throws Exception {
+        Throwable ex = pipe.readThrowable();
+        if (ex != null) {
+            throw toFetchException(ex);
+        }
+        S storable = prepare();
+        storable.readFrom(pipe.getInputStream());
+        return storable;
+    }
+
+    Future<S> asyncQueryLoadOne(FilterValues<S> fv) throws FetchException {
+        try {
+            RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
+            if (txn instanceof FailedTransaction) {
+                throw new FetchException(TXN_INVALID_MSG);
+            }
+
+            final Pipe pipe = remoteStorage(mStorageProxy, txn).queryLoadOne(fv, txn, null);
             try {
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toFetchException(ex);
-                }
-                S storable = prepare();
-                storable.readFrom(pipe.getInputStream());
-                return storable;
-            } finally {
+                pipe.flush();
+            } catch (Exception e) {
                 pipe.close();
+                throw e;
             }
+
+            return AsyncExecutor.submit(new Callable<S>() {
+                public S call() throws FetchException {
+                    try {
+                        try {
+                            return receiveLoadOne(pipe);
+                        } finally {
+                            pipe.close();
+                        }
+                    } catch (Exception e) {
+                        throw toFetchException(e);
+                    }
+                }
+            });
         } catch (Exception e) {
             throw toFetchException(e);
         }
     }
 
-    S queryTryLoadOne(FilterValues fv, Query.Controller controller) throws FetchException {
+    S queryTryLoadOne(final FilterValues fv, final Query.Controller controller)
+        throws FetchException
+    {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
             if (txn instanceof FailedTransaction) {
                 throw new FetchException(TXN_INVALID_MSG);
             }
 
-            RemoteStorage remote = mStorageProxy.mStorage;
-
-            // Select remote method for compatibilty with older server.
-            Pipe pipe = controller == null
-                ? remote.queryTryLoadOne(fv, txn, null)
-                : remote.queryTryLoadOne(fv, txn, null, controller);
+            return read(mStorageProxy, txn, true, new ReadOp<S, S>() {
+                public S read(StorageProxy<S> proxy, RemoteTransaction txn) throws Exception {
+                    int stripe = stripeIndex(proxy, txn);
+                    RemoteStorage remote = proxy.mStorages[stripe];
+                    int handle = preparedHandle(proxy, stripe, fv, null);
+
+                    Pipe pipe;
+                    if (handle >= 0) {
+                        pipe = remote.preparedTryLoadOne
+                            (handle, encodeValues(fv), txn, null, controller);
+                    } else {
+                        // Select remote method for compatibilty with older server.
+                        pipe = controller == null
+                            ? remote.queryTryLoadOne(fv, txn, null)
+                            : remote.queryTryLoadOne(fv, txn, null, controller);
+                    }
 
-            try {
-                Throwable ex = pipe.readThrowable();
-                if (ex != null) {
-                    throw toFetchException(ex);
-                }
-                if (pipe.readBoolean()) {
-                    S storable = prepare();
-                    storable.readFrom(pipe.getInputStream());
-                    return storable;
+                    try {
+                        Throwable ex = pipe.readThrowable();
+                        if (ex != null) {
+                            throw toFetchException(ex);
+                        }
+                        if (pipe.readBoolean()) {
+                            S storable = prepare();
+                            storable.readFrom(pipe.getInputStream());
+                            return storable;
+                        }
+                        return null;
+                    } finally {
+                        pipe.close();
+                    }
                 }
-                return null;
-            } finally {
-                pipe.close();
-            }
+            });
         } catch (Exception e) {
             throw toFetchException(e);
         }
@@ -429,7 +1061,7 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
     void queryDeleteOne(FilterValues fv, Query.Controller controller) throws PersistException {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
-            RemoteStorage remote = mStorageProxy.mStorage;
+            RemoteStorage remote = remoteStorage(mStorageProxy, txn);
             // Select remote method for compatibilty with older server.
             if (controller == null) {
                 remote.queryDeleteOne(fv, txn);
@@ -438,6 +1070,9 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
             }
         } catch (Exception e) {
             throw toPersistException(e);
+        } finally {
+            invalidateAll();
+            mRepository.wrote();
         }
     }
 
@@ -446,20 +1081,23 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
     {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
-            RemoteStorage remote = mStorageProxy.mStorage;
+            RemoteStorage remote = remoteStorage(mStorageProxy, txn);
             // Select remote method for compatibilty with older server.
             return controller == null
                 ? remote.queryTryDeleteOne(fv, txn)
                 : remote.queryTryDeleteOne(fv, txn, controller);
         } catch (Exception e) {
             throw toPersistException(e);
+        } finally {
+            invalidateAll();
+            mRepository.wrote();
         }
     }
 
     void queryDeleteAll(FilterValues fv, Query.Controller controller) throws PersistException {
         try {
             RemoteTransaction txn = mRepository.localTransactionScope().getTxn();
-            RemoteStorage remote = mStorageProxy.mStorage;
+            RemoteStorage remote = remoteStorage(mStorageProxy, txn);
             // Select remote method for compatibilty with older server.
             if (controller == null) {
                 remote.queryDeleteAll(fv, txn);
@@ -468,31 +1106,205 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
             }
         } catch (Exception e) {
             throw toPersistException(e);
+        } finally {
+            invalidateAll();
+            mRepository.wrote();
         }
     }
 
     String queryPrintNative(FilterValues fv, OrderingList orderBy, int indentLevel)
         throws FetchException
     {
-        return mStorageProxy.mStorage.queryPrintNative(fv, orderBy, indentLevel);
+        return remoteStorage(mStorageProxy, null).queryPrintNative(fv, orderBy, indentLevel);
     }
 
     String queryPrintPlan(FilterValues fv, OrderingList orderBy, int indentLevel)
         throws FetchException
     {
-        return mStorageProxy.mStorage.queryPrintPlan(fv, orderBy, indentLevel);
+        return remoteStorage(mStorageProxy, null).queryPrintPlan(fv, orderBy, indentLevel);
+    }
+
+    /**
+     * Returns the remote storage of the given stripe.
+     */
+    RemoteStorage remoteStorage(int stripe) {
+        return mStorageProxy.mStorages[stripe];
+    }
+
+    /**
+     * Returns the remote storage of the stripe which entered the given
+     * transaction, or else of the stripe selected for the current thread.
+     *
+     * @param txn optional
+     */
+    private RemoteStorage remoteStorage(StorageProxy<?> proxy, RemoteTransaction txn) {
+        return proxy.mStorages[stripeIndex(proxy, txn)];
     }
 
-    RemoteStorage remoteStorage() {
-        return mStorageProxy.mStorage;
+    /**
+     * @param txn optional
+     */
+    private int stripeIndex(StorageProxy<?> proxy, RemoteTransaction txn) {
+        if (proxy.mReplica != null) {
+            // Replica calls are counted by the replica.
+            return 0;
+        }
+        ClientStripe stripe = mRepository.stripeFor(txn);
+        stripe.called();
+        return stripe.mIndex;
+    }
+
+    /**
+     * Returns the prepared query handle for the given stripe, or -1 if the
+     * query must be sent unprepared.
+     *
+     * @param fv optional
+     * @param orderBy optional
+     */
+    private static int preparedHandle(StorageProxy<?> proxy, int stripe,
+                                      FilterValues fv, OrderingList orderBy)
+        throws FetchException
+    {
+        QueryKey key = new QueryKey(fv == null ? null : fv.getFilter(), orderBy);
+        return proxy.mPrepared[stripe].handleFor(key);
+    }
+
+    private static byte[] encodeValues(FilterValues fv) throws FetchException {
+        try {
+            return QueryValues.encode(fv == null ? null : fv.getSuppliedValues());
+        } catch (IOException e) {
+            throw new FetchException(e);
+        }
+    }
+
+    /**
+     * Performs a read operation against a replica, if outside of a
+     * transaction and not recently written to, or else against the
+     * primary. If the replica cannot be reached, the read is performed
+     * against the primary instead.
+     *
+     * @param timed pass false if the operation doesn't wait for a reply
+     */
+    private <T> T read(StorageProxy<S> proxy, RemoteTransaction txn, boolean timed,
+                       ReadOp<S, T> op)
+        throws Exception
+    {
+        StorageProxy<S> replica = selectReplica(proxy, txn);
+        if (replica == null) {
+            return op.read(proxy, txn);
+        }
+
+        ClientReplica r = replica.mReplica;
+        long start = r.begin();
+        T result;
+        try {
+            result = op.read(replica, null);
+        } catch (Exception e) {
+            if (!r.failed(start, e)) {
+                throw e;
+            }
+            return op.read(proxy, txn);
+        }
+        r.end(start, timed);
+        return result;
+    }
+
+    /**
+     * Returns null if the read must be performed against the primary.
+     */
+    private StorageProxy<S> selectReplica(StorageProxy<S> proxy, RemoteTransaction txn) {
+        StorageProxy<S>[] replicas = proxy.mReplicas;
+        int length = replicas.length;
+        if (length == 0 || txn != null || mRepository.isSticky()) {
+            return null;
+        }
+
+        // Pick the better of two replicas, starting at a random one. This
+        // favors faster replicas without sending all reads to just one.
+        long now = System.nanoTime();
+        int start = ClientReplica.random(length);
+        StorageProxy<S> best = null;
+        double bestCost = 0;
+        int considered = 0;
+        for (int i=0; i<length && considered<2; i++) {
+            StorageProxy<S> candidate = replicas[(start + i) % length];
+            ClientReplica r = candidate.mReplica;
+            if (r.isAvailable(now)) {
+                double cost = r.cost(now);
+                if (best == null || cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                }
+                considered++;
+            }
+        }
+
+        return best;
     }
 
     StorableWriter<S> storableWriter() {
         return mStorageProxy.mWriter;
     }
 
-    void reconnect(RemoteStorageTransport transport) throws RepositoryException {
-        RemoteStorage storage = transport.getRemoteStorage();
+    int defaultPrefetch() {
+        return mRepository.mPrefetch;
+    }
+
+    /**
+     * Returns null if near cache is disabled or not supported by the server.
+     */
+    NearCacheStatistics nearCacheStatistics() {
+        ClientNearCache cache = mStorageProxy.mNearCache;
+        return cache == null ? null : cache.getStatistics();
+    }
+
+    void clearNearCache() {
+        invalidateAll();
+    }
+
+    /**
+     * Returns false if timed out, or if near cache is disabled or not
+     * supported by the server.
+     */
+    boolean awaitInvalidationCount(long count, long timeoutNanos) throws InterruptedException {
+        ClientNearCache cache = mStorageProxy.mNearCache;
+        return cache != null && cache.awaitInvalidationCount(count, timeoutNanos);
+    }
+
+    /**
+     * Discards the storable from the near cache, after being modified by this client.
+     */
+    private void invalidate(StorageProxy<S> proxy, S storable) {
+        ClientNearCache cache = proxy.mNearCache;
+        if (cache != null) {
+            cache.invalidate(storable);
+        }
+    }
+
+    private void invalidateAll() {
+        ClientNearCache cache = mNearCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * @param transports one per stripe
+     * @param replicaTransports one per replica, which is null if unavailable
+     */
+    void reconnect(RemoteStorageTransport[] transports,
+                   RemoteStorageTransport[] replicaTransports)
+        throws RepositoryException
+    {
+        RemoteStorage[] storages = new RemoteStorage[transports.length];
+        for (int i=0; i<storages.length; i++) {
+            storages[i] = transports[i].getRemoteStorage();
+        }
+
+        // All stripes are served by the same server, and so the first is
+        // used for everything besides the storage operations.
+        RemoteStorageTransport transport = transports[0];
+        RemoteStorage storage = storages[0];
         StorableWriter<S> writer = ReconstructedCache.THE.writerFor(mType, transport.getLayout());
 
         List<String> indieList = null;
@@ -510,12 +1322,58 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         Set<String> supported;
         if (indieList == null) {
             supported = Collections.emptySet();
+        } else if (transport.getSupportedProperties() != null) {
+            // Server sent support for all properties, avoiding a call.
+            supported = new HashSet<String>(indieList);
+            supported.retainAll(transport.getSupportedProperties());
         } else {
             supported = storage.getPropertySupport(indieList.toArray(new String[0]));
         }
 
+        ClientNearCache cache = mNearCache;
+        if (cache != null) {
+            // Invalidation messages might have been missed while disconnected.
+            cache.invalidateAll();
+            try {
+                storage.addInvalidationListener(cache);
+            } catch (Exception e) {
+                if (!isUnimplemented(e)) {
+                    throw toRepositoryException(e);
+                }
+                // Server is too old to send invalidation messages, so caching is unsafe.
+                cache = null;
+            }
+        }
+
+        List<StorageProxy<S>> replicas = new ArrayList<StorageProxy<S>>();
+        for (int i=0; i<replicaTransports.length; i++) {
+            RemoteStorageTransport rt = replicaTransports[i];
+            if (rt != null) {
+                replicas.add(new StorageProxy<S>
+                             (rt.getProtocolVersion(),
+                              new RemoteStorage[] {rt.getRemoteStorage()},
+                              ReconstructedCache.THE.writerFor(mType, rt.getLayout()),
+                              supported, null, streamsFor(rt),
+                              mRepository.mReplicas[i], new StorageProxy[0]));
+            }
+        }
+
         mStorageProxy = new StorageProxy<S>
-            (transport.getProtocolVersion(), storage, writer, supported);
+            (transport.getProtocolVersion(), storages, writer, supported, cache,
+             streamsFor(transport), null,
+             replicas.toArray(new StorageProxy[replicas.size()]));
+    }
+
+    /**
+     * Returns null if compression isn't enabled by the server.
+     */
+    private CompressedStreams streamsFor(RemoteStorageTransport transport) {
+        if (transport.getCompressionThreshold() <= 0) {
+            return null;
+        }
+        return new CompressedStreams
+            (transport.getCompressionThreshold(), transport.getCompressionLevel(),
+             mRepository.mCompressionRecorder, mRepository.mDecompressionRecorder);
     }
 
     /**
@@ -554,6 +1412,20 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         return new PersistException(e);
     }
 
+    /**
+     * Returns true if the given exception indicates that the server doesn't
+     * implement a remote method, because it's running an older version.
+     */
+    static boolean isUnimplemented(Throwable e) {
+        while (e != null) {
+            if (e instanceof UnimplementedMethodException) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
     static void throwIfUnchecked(Throwable e) {
         if (e instanceof RuntimeException) {
             throw (RuntimeException) e;
@@ -567,21 +1439,50 @@ class ClientStorage<S extends Storable> implements Storage<S>, DelegateSupport<S
         Storable instantiate(DelegateSupport support);
     }
 
+    private static interface ReadOp<S extends Storable, T> {
+        /**
+         * @param proxy primary or replica
+         * @param txn is null for replicas
+         */
+        T read(StorageProxy<S> proxy, RemoteTransaction txn) throws Exception;
+    }
+
     // Allows several objects to be swapped-in atomically.
     private static final class StorageProxy<S extends Storable> {
         final int mProtocolVersion;
-        final RemoteStorage mStorage;
+        // Remote storage for each stripe.
+        final RemoteStorage[] mStorages;
+        // Prepared query handles for each stripe.
+        final ClientPreparedQueries[] mPrepared;
         final StorableWriter<S> mWriter;
         // Cache of independent property support.
         final Set<String> mSupportedProperties;
+        // Is null if near cache is disabled or not supported by the server.
+        final ClientNearCache mNearCache;
+        // Is null if compression is disabled or not supported by the server.
+        final CompressedStreams mStreams;
+        // Is null unless this proxy is for a replica.
+        final ClientReplica mReplica;
+        // Proxies for the available replicas, if this proxy is for the primary.
+        final StorageProxy<S>[] mReplicas;
 
         StorageProxy(int protocolVersion,
-                     RemoteStorage storage, StorableWriter<S> writer, Set<String> supported)
+                     RemoteStorage[] storages, StorableWriter<S> writer, Set<String> supported,
+                     ClientNearCache nearCache, CompressedStreams streams,
+                     ClientReplica replica, StorageProxy<S>[] replicas)
         {
             mProtocolVersion = protocolVersion;
-            mStorage = storage;
+            mStorages = storages;
+            mPrepared = new ClientPreparedQueries[storages.length];
+            for (int i=0; i<storages.length; i++) {
+                mPrepared[i] = new ClientPreparedQueries(storages[i]);
+            }
             mWriter = writer;
             mSupportedProperties = supported;
+            mNearCache = nearCache;
+            mStreams = streams;
+            mReplica = replica;
+            mReplicas = replicas;
         }
     }
 }
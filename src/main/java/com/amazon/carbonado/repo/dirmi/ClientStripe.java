@@ -0,0 +1,68 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the sessions used by a {@link ClientRepository}, along with the
+ * counters which track its load.
+ *
+ * @author agent
+ */
+final class ClientStripe {
+    final int mIndex;
+
+    volatile RemoteRepository mRemote;
+    volatile RemoteProcedureExecutor mProcedureExecutor;
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mTxns = new AtomicLong();
+    private final AtomicInteger mOpenTxns = new AtomicInteger();
+
+    // Fingerprints of the server layouts received for each type. They outlive
+    // reconnects, allowing the server to omit layouts which are unchanged.
+    final ConcurrentHashMap<Class, LayoutFingerprint> mLayoutFingerprints =
+        new ConcurrentHashMap<Class, LayoutFingerprint>();
+
+    ClientStripe(int index, RemoteRepository remote) {
+        mIndex = index;
+        mRemote = remote;
+    }
+
+    void called() {
+        mCalls.incrementAndGet();
+    }
+
+    void txnEntered() {
+        mTxns.incrementAndGet();
+        mOpenTxns.incrementAndGet();
+    }
+
+    void txnExited() {
+        mOpenTxns.decrementAndGet();
+    }
+
+    StripeStatistics getStatistics() {
+        return new StripeStatistics(mIndex, mCalls.get(), mTxns.get(), mOpenTxns.get());
+    }
+}
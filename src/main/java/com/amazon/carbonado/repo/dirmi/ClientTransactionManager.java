@@ -67,23 +67,31 @@ class ClientTransactionManager extends TransactionManager<RemoteTransaction> {
 
     @Override 
     protected RemoteTransaction createTxn(RemoteTransaction parent, IsolationLevel level) {
+        // Nested transactions must use the same session as the parent.
+        ClientStripe stripe = mRepository.stripeFor(parent);
+        RemoteTransaction txn;
         if (parent == null) {
-            return mRepository.getRemoteRepository().enterTopTransaction(level);
+            txn = stripe.mRemote.enterTopTransaction(level);
         } else {
-            return mRepository.getRemoteRepository().enterTransaction(parent, level);
+            txn = stripe.mRemote.enterTransaction(parent, level);
         }
+        mRepository.txnEntered(txn, stripe);
+        return txn;
     }
 
     @Override 
     protected RemoteTransaction createTxn(RemoteTransaction parent, IsolationLevel level,
                                           int timeout, TimeUnit unit)
     {
+        ClientStripe stripe = mRepository.stripeFor(parent);
+        RemoteTransaction txn;
         if (parent == null) {
-            return mRepository.getRemoteRepository().enterTopTransaction(level, timeout, unit);
+            txn = stripe.mRemote.enterTopTransaction(level, timeout, unit);
         } else {
-            return mRepository.getRemoteRepository()
-                .enterTransaction(parent, level, timeout, unit);
+            txn = stripe.mRemote.enterTransaction(parent, level, timeout, unit);
         }
+        mRepository.txnEntered(txn, stripe);
+        return txn;
     }
 
     @Override
@@ -105,6 +113,7 @@ class ClientTransactionManager extends TransactionManager<RemoteTransaction> {
         } catch (PersistException e) {
             if (e.getCause() instanceof NoSuchObjectException) {
                 // Transaction has been aborted.
+                mRepository.txnExited(txn);
                 return false;
             } else {
                 throw e;
@@ -122,6 +131,8 @@ class ClientTransactionManager extends TransactionManager<RemoteTransaction> {
             } else {
                 throw e;
             }
+        } finally {
+            mRepository.txnExited(txn);
         }
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * InputStream wrapper which reads blocks written by {@link
+ * CompressedOutputStream}. Blocks are read from the wrapped stream only when
+ * needed, and so the wrapped stream can be used directly once all the data
+ * written before a flush has been consumed.
+ *
+ * @author agent
+ */
+class CompressedInputStream extends InputStream {
+    private final InputStream mIn;
+    private final CompressionRecorder mRecorder;
+
+    private byte[] mBuffer;
+    private int mPos;
+    private int mEnd;
+
+    // Created lazily, since raw blocks don't need them.
+    private Inflater mInflater;
+    private byte[] mCompressed;
+
+    /**
+     * @param recorder optional
+     */
+    CompressedInputStream(InputStream in, CompressionRecorder recorder) {
+        mIn = in;
+        mRecorder = recorder;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (mPos >= mEnd && !readBlock()) {
+            return -1;
+        }
+        return mBuffer[mPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return 0;
+        }
+        if (mPos >= mEnd && !readBlock()) {
+            return -1;
+        }
+        int amt = Math.min(len, mEnd - mPos);
+        System.arraycopy(mBuffer, mPos, b, off, amt);
+        mPos += amt;
+        return amt;
+    }
+
+    @Override
+    public int available() {
+        return mEnd - mPos;
+    }
+
+    /**
+     * Releases the decompressor, without closing the wrapped stream.
+     */
+    void end() {
+        if (mInflater != null) {
+            mInflater.end();
+            mInflater = null;
+        }
+    }
+
+    /**
+     * Releases the decompressor, and then closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        end();
+        mIn.close();
+    }
+
+    /**
+     * @return false if EOF
+     */
+    private boolean readBlock() throws IOException {
+        int type = mIn.read();
+        if (type < 0) {
+            return false;
+        }
+
+        int length = readInt();
+        if (length <= 0 || length > CompressedOutputStream.BLOCK_SIZE) {
+            throw new IOException("Malformed block length: " + length);
+        }
+        if (mBuffer == null) {
+            mBuffer = new byte[CompressedOutputStream.BLOCK_SIZE];
+        }
+
+        if (type == CompressedOutputStream.BLOCK_RAW) {
+            readFully(mBuffer, length);
+            if (mRecorder != null) {
+                mRecorder.recordSkipped(length, length + 5);
+            }
+        } else if (type == CompressedOutputStream.BLOCK_DEFLATED) {
+            int clength = readInt();
+            if (clength <= 0 || clength > CompressedOutputStream.BLOCK_SIZE) {
+                throw new IOException("Malformed compressed block length: " + clength);
+            }
+
+            Inflater inflater = mInflater;
+            if (inflater == null) {
+                mInflater = inflater = new Inflater();
+                mCompressed = new byte[CompressedOutputStream.BLOCK_SIZE];
+            } else {
+                inflater.reset();
+            }
+
+            readFully(mCompressed, clength);
+
+            long start = System.nanoTime();
+            inflater.setInput(mCompressed, 0, clength);
+            try {
+                int actual = 0;
+                while (actual < length && !inflater.finished()) {
+                    int amt = inflater.inflate(mBuffer, actual, length - actual);
+                    if (amt == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    actual += amt;
+                }
+                if (actual != length) {
+                    throw new IOException("Truncated compressed block: " + actual +
+                                          " != " + length);
+                }
+            } catch (DataFormatException e) {
+                IOException io = new IOException("Malformed compressed block");
+                io.initCause(e);
+                throw io;
+            }
+
+            if (mRecorder != null) {
+                mRecorder.record(length, clength + 9, System.nanoTime() - start);
+            }
+        } else {
+            throw new IOException("Unknown block type: " + type);
+        }
+
+        mPos = 0;
+        mEnd = length;
+        return true;
+    }
+
+    private int readInt() throws IOException {
+        InputStream in = mIn;
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        int b4 = in.read();
+        if ((b1 | b2 | b3 | b4) < 0) {
+            throw new EOFException();
+        }
+        return (b1 << 24) | (b2 << 16) | (b3 << 8) | b4;
+    }
+
+    private void readFully(byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int amt = mIn.read(b, off, len - off);
+            if (amt < 0) {
+                throw new EOFException();
+            }
+            off += amt;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.zip.Deflater;
+
+/**
+ * OutputStream wrapper which writes data in blocks, each of which is
+ * compressed unless smaller than a threshold. Blocks are written when the
+ * buffer fills up and when flushed, and they can be read back by {@link
+ * CompressedInputStream}. Each block is encoded as follows:
+ *
+ * <pre>
+ * byte: BLOCK_RAW or BLOCK_DEFLATED
+ * int:  uncompressed length
+ * int:  compressed length (only if BLOCK_DEFLATED)
+ * byte[]: block data
+ * </pre>
+ *
+ * @author agent
+ */
+class CompressedOutputStream extends OutputStream {
+    static final byte BLOCK_RAW = 0, BLOCK_DEFLATED = 1;
+
+    static final int BLOCK_SIZE = 65536;
+
+    private final OutputStream mOut;
+    private final int mThreshold;
+    private final int mLevel;
+    private final CompressionRecorder mRecorder;
+
+    private final byte[] mBuffer;
+    private int mPos;
+
+    // Created lazily, since small streams might never need it.
+    private Deflater mDeflater;
+    private byte[] mCompressed;
+
+    /**
+     * @param threshold minimum block size to compress
+     * @param level Deflater compression level
+     * @param recorder optional
+     */
+    CompressedOutputStream(OutputStream out, int threshold, int level,
+                           CompressionRecorder recorder)
+    {
+        mOut = out;
+        mThreshold = threshold;
+        mLevel = level;
+        mRecorder = recorder;
+        mBuffer = new byte[BLOCK_SIZE];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (mPos >= mBuffer.length) {
+            writeBlock();
+        }
+        mBuffer[mPos++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (mPos >= mBuffer.length) {
+                writeBlock();
+            }
+            int amt = Math.min(len, mBuffer.length - mPos);
+            System.arraycopy(b, off, mBuffer, mPos, amt);
+            mPos += amt;
+            off += amt;
+            len -= amt;
+        }
+    }
+
+    /**
+     * Writes any buffered data as a block, and then flushes the wrapped stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        mOut.flush();
+    }
+
+    /**
+     * Writes any buffered data as a block, and releases the compressor. The
+     * wrapped stream is not flushed or closed.
+     */
+    void finish() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Releases the compressor, discarding any buffered data. The wrapped
+     * stream is not flushed or closed.
+     */
+    void end() {
+        mPos = 0;
+        if (mDeflater != null) {
+            mDeflater.end();
+            mDeflater = null;
+        }
+    }
+
+    /**
+     * Writes the block and releases the compressor, and then closes the
+     * wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            mOut.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        int length = mPos;
+        if (length == 0) {
+            return;
+        }
+        mPos = 0;
+
+        if (length >= mThreshold) {
+            long start = System.nanoTime();
+
+            Deflater deflater = mDeflater;
+            if (deflater == null) {
+                mDeflater = deflater = new Deflater(mLevel);
+                // Deflate can expand incompressible data slightly, but such
+                // blocks are written raw instead.
+                mCompressed = new byte[BLOCK_SIZE];
+            } else {
+                deflater.reset();
+            }
+
+            deflater.setInput(mBuffer, 0, length);
+            deflater.finish();
+
+            byte[] compressed = mCompressed;
+            int clength = 0;
+            while (!deflater.finished() && clength < compressed.length) {
+                clength += deflater.deflate(compressed, clength, compressed.length - clength);
+            }
+
+            if (deflater.finished() && clength < length) {
+                if (mRecorder != null) {
+                    mRecorder.record(length, clength + 9, System.nanoTime() - start);
+                }
+                mOut.write(BLOCK_DEFLATED);
+                writeInt(length);
+                writeInt(clength);
+                mOut.write(compressed, 0, clength);
+                return;
+            }
+
+            if (mRecorder != null) {
+                // Record the wasted effort.
+                mRecorder.record(length, length + 5, System.nanoTime() - start);
+            }
+        } else if (mRecorder != null) {
+            mRecorder.recordSkipped(length, length + 5);
+        }
+
+        mOut.write(BLOCK_RAW);
+        writeInt(length);
+        mOut.write(mBuffer, 0, length);
+    }
+
+    private void writeInt(int v) throws IOException {
+        OutputStream out = mOut;
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates compressed stream wrappers with shared settings, for one side of
+ * a negotiated connection.
+ *
+ * @author agent
+ */
+class CompressedStreams {
+    private final int mThreshold;
+    private final int mLevel;
+    private final CompressionRecorder mOutRecorder;
+    private final CompressionRecorder mInRecorder;
+
+    /**
+     * @param threshold minimum block size to compress
+     * @param level Deflater compression level
+     * @param outRecorder optional recorder for compressed output
+     * @param inRecorder optional recorder for decompressed input
+     */
+    CompressedStreams(int threshold, int level,
+                      CompressionRecorder outRecorder, CompressionRecorder inRecorder)
+    {
+        mThreshold = threshold;
+        mLevel = level;
+        mOutRecorder = outRecorder;
+        mInRecorder = inRecorder;
+    }
+
+    CompressedOutputStream output(OutputStream out) {
+        return new CompressedOutputStream(out, mThreshold, mLevel, mOutRecorder);
+    }
+
+    CompressedInputStream input(InputStream in) {
+        return new CompressedInputStream(in, mInRecorder);
+    }
+}
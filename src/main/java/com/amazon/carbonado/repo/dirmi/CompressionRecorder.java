@@ -0,0 +1,64 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates block counts, sizes and codec time for all compressed streams
+ * of a client or server, in one direction.
+ *
+ * @author agent
+ */
+class CompressionRecorder {
+    private final AtomicLong mBlocks = new AtomicLong();
+    private final AtomicLong mSkippedBlocks = new AtomicLong();
+    private final AtomicLong mRawBytes = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mNanos = new AtomicLong();
+
+    /**
+     * Record a block which was passed through the codec.
+     *
+     * @param rawBytes uncompressed length
+     * @param wireBytes encoded length, including the block header
+     * @param nanos time spent in the codec
+     */
+    void record(int rawBytes, int wireBytes, long nanos) {
+        mBlocks.incrementAndGet();
+        mRawBytes.addAndGet(rawBytes);
+        mWireBytes.addAndGet(wireBytes);
+        mNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Record a block which was too small to compress.
+     */
+    void recordSkipped(int rawBytes, int wireBytes) {
+        mBlocks.incrementAndGet();
+        mSkippedBlocks.incrementAndGet();
+        mRawBytes.addAndGet(rawBytes);
+        mWireBytes.addAndGet(wireBytes);
+    }
+
+    CompressionStatistics getStatistics() {
+        return new CompressionStatistics(mBlocks.get(), mSkippedBlocks.get(),
+                                         mRawBytes.get(), mWireBytes.get(), mNanos.get());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of stream compression counters, for data sent or received.
+ *
+ * @author agent
+ * @see RemoteRepositoryServerBuilder#setCompressionEnabled
+ */
+public class CompressionStatistics {
+    private final long mBlocks;
+    private final long mSkippedBlocks;
+    private final long mRawBytes;
+    private final long mWireBytes;
+    private final long mNanos;
+
+    CompressionStatistics(long blocks, long skippedBlocks,
+                          long rawBytes, long wireBytes, long nanos)
+    {
+        mBlocks = blocks;
+        mSkippedBlocks = skippedBlocks;
+        mRawBytes = rawBytes;
+        mWireBytes = wireBytes;
+        mNanos = nanos;
+    }
+
+    /**
+     * Returns the amount of blocks encoded or decoded.
+     */
+    public long getBlockCount() {
+        return mBlocks;
+    }
+
+    /**
+     * Returns the amount of blocks which were sent uncompressed, because
+     * they were smaller than the threshold.
+     */
+    public long getSkippedBlockCount() {
+        return mSkippedBlocks;
+    }
+
+    /**
+     * Returns the amount of uncompressed bytes.
+     */
+    public long getRawByteCount() {
+        return mRawBytes;
+    }
+
+    /**
+     * Returns the amount of bytes sent or received over the wire, including
+     * block headers.
+     */
+    public long getWireByteCount() {
+        return mWireBytes;
+    }
+
+    /**
+     * Returns the ratio of uncompressed bytes to wire bytes, which is zero if
+     * nothing was recorded.
+     */
+    public double getCompressionRatio() {
+        return mWireBytes == 0 ? 0.0 : ((double) mRawBytes) / mWireBytes;
+    }
+
+    /**
+     * Returns the total time spent compressing or decompressing, in nanoseconds.
+     */
+    public long getCodecNanos() {
+        return mNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStatistics {blocks=" + mBlocks + ", skippedBlocks=" + mSkippedBlocks +
+            ", rawBytes=" + mRawBytes + ", wireBytes=" + mWireBytes +
+            ", compressionRatio=" + getCompressionRatio() + ", codecNanos=" + mNanos + '}';
+    }
+}
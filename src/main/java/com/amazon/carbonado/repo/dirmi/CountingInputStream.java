@@ -0,0 +1,80 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * InputStream wrapper which counts the bytes read through it.
+ *
+ * @author agent
+ */
+class CountingInputStream extends InputStream {
+    private final InputStream mIn;
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        mIn = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = mIn.read();
+        if (b >= 0) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int amt = mIn.read(b, off, len);
+        if (amt > 0) {
+            mCount += amt;
+        }
+        return amt;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long amt = mIn.skip(n);
+        if (amt > 0) {
+            mCount += amt;
+        }
+        return amt;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return mIn.available();
+    }
+
+    /**
+     * Closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    long getCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream wrapper which counts the bytes written through it.
+ *
+ * @author agent
+ */
+class CountingOutputStream extends OutputStream {
+    private final OutputStream mOut;
+    private long mCount;
+
+    CountingOutputStream(OutputStream out) {
+        mOut = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mOut.write(b);
+        mCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        mOut.write(b, off, len);
+        mCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    /**
+     * Closes the wrapped stream.
+     */
+    @Override
+    public void close() throws IOException {
+        mOut.close();
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    void resetCount() {
+        mCount = 0;
+    }
+}
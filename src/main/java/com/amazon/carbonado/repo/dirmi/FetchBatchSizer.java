@@ -0,0 +1,133 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses how many storables to fetch from a cursor before detaching from
+ * the transaction and writing them to the pipe. Batches are limited by a
+ * byte budget, which is applied to the observed serialized row size. Batches
+ * grow while writes are fast, to reduce attach and detach overhead, and they
+ * shrink when writes block, since a slow reader gains nothing from holding
+ * more storables in memory.
+ *
+ * <p>Instances are used by only one cursor, and they aren't thread-safe.
+ *
+ * @author agent
+ */
+class FetchBatchSizer {
+    static final int DEFAULT_BYTE_BUDGET = 256 * 1024;
+
+    private static final int INITIAL_SIZE = 100;
+    private static final int MIN_SIZE = 1;
+    private static final int MAX_SIZE = 10000;
+
+    private static final long SLOW_WRITE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final int mByteBudget;
+    private final Recorder mRecorder;
+
+    // Moving average of serialized row size, which is zero until observed.
+    private double mAverageRowBytes;
+    private int mTimeLimit;
+    private int mSize;
+
+    /**
+     * @param byteBudget maximum serialized bytes per batch
+     * @param recorder optional
+     */
+    FetchBatchSizer(int byteBudget, Recorder recorder) {
+        mByteBudget = byteBudget;
+        mRecorder = recorder;
+        mTimeLimit = MAX_SIZE;
+        mSize = INITIAL_SIZE;
+    }
+
+    /**
+     * Returns the maximum amount of storables to place in the next batch.
+     */
+    int batchSize() {
+        return mSize;
+    }
+
+    /**
+     * Called after writing a batch, to adjust the size of the next batch.
+     *
+     * @param rows amount of storables written
+     * @param bytes amount of bytes written
+     * @param nanos time spent writing
+     */
+    void written(int rows, long bytes, long nanos) {
+        if (mRecorder != null) {
+            mRecorder.record(rows, bytes);
+        }
+
+        if (rows <= 0) {
+            return;
+        }
+
+        double rowBytes = ((double) bytes) / rows;
+        if (mAverageRowBytes == 0) {
+            mAverageRowBytes = rowBytes;
+        } else {
+            mAverageRowBytes = mAverageRowBytes * 0.75 + rowBytes * 0.25;
+        }
+
+        if (nanos > SLOW_WRITE_NANOS) {
+            mTimeLimit = Math.max(MIN_SIZE, rows >> 1);
+        } else if (rows >= mTimeLimit) {
+            mTimeLimit = Math.min(MAX_SIZE, mTimeLimit << 1);
+        }
+
+        double budgetLimit = mByteBudget / Math.max(1.0, mAverageRowBytes);
+        int size = (int) Math.min(MAX_SIZE, Math.max(MIN_SIZE, budgetLimit));
+
+        mSize = Math.min(size, mTimeLimit);
+    }
+
+    /**
+     * Accumulates batch sizes chosen by all cursors of a server.
+     */
+    static class Recorder {
+        private final AtomicLong mBatches = new AtomicLong();
+        private final AtomicLong mRows = new AtomicLong();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final AtomicLong mMaxRows = new AtomicLong();
+
+        void record(int rows, long bytes) {
+            mBatches.incrementAndGet();
+            mRows.addAndGet(rows);
+            mBytes.addAndGet(bytes);
+            long max;
+            while (rows > (max = mMaxRows.get())) {
+                if (mMaxRows.compareAndSet(max, rows)) {
+                    break;
+                }
+            }
+        }
+
+        FetchBatchStatistics getStatistics() {
+            return new FetchBatchStatistics
+                (mBatches.get(), mRows.get(), mBytes.get(), (int) mMaxRows.get());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of the batch sizes chosen by a server when writing query results.
+ *
+ * @author agent
+ * @see RemoteRepositoryServer#getFetchBatchStatistics
+ */
+public class FetchBatchStatistics {
+    private final long mBatches;
+    private final long mRows;
+    private final long mBytes;
+    private final int mMaxBatchSize;
+
+    FetchBatchStatistics(long batches, long rows, long bytes, int maxBatchSize) {
+        mBatches = batches;
+        mRows = rows;
+        mBytes = bytes;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the amount of batches written.
+     */
+    public long getBatchCount() {
+        return mBatches;
+    }
+
+    /**
+     * Returns the amount of storables written.
+     */
+    public long getRowCount() {
+        return mRows;
+    }
+
+    /**
+     * Returns the amount of serialized storable bytes written.
+     */
+    public long getByteCount() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the average amount of storables per batch.
+     */
+    public double getAverageBatchSize() {
+        return mBatches == 0 ? 0.0 : ((double) mRows) / mBatches;
+    }
+
+    /**
+     * Returns the largest amount of storables written in one batch.
+     */
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    @Override
+    public String toString() {
+        return "FetchBatchStatistics {batches=" + mBatches + ", rows=" + mRows +
+            ", bytes=" + mBytes + ", averageBatchSize=" + getAverageBatchSize() +
+            ", maxBatchSize=" + mMaxBatchSize + '}';
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of non-negative values, such as latencies or row
+ * counts, using power-of-two buckets. Bucket zero counts zero values, and
+ * bucket n counts values in the range [2<sup>n-1</sup>, 2<sup>n</sup>).
+ *
+ * @author agent
+ */
+public class Histogram {
+    static final int BUCKETS = 64;
+
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount;
+    private final AtomicLong mTotal;
+    private final AtomicLong mMax;
+
+    Histogram() {
+        mBuckets = new AtomicLongArray(BUCKETS);
+        mCount = new AtomicLong();
+        mTotal = new AtomicLong();
+        mMax = new AtomicLong();
+    }
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of recorded values.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     */
+    public long getTotal() {
+        return mTotal.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Returns the average recorded value, which is zero if none.
+     */
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0.0 : ((double) mTotal.get()) / count;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile, which is accurate to
+     * within a factor of two.
+     *
+     * @param percentile value from 0 to 100
+     */
+    public long getPercentile(double percentile) {
+        long[] buckets = getBuckets();
+        long count = 0;
+        for (long c : buckets) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100);
+        long seen = 0;
+        for (int i=0; i<buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= target && seen > 0) {
+                // Upper bound of the bucket, which overflows to MAX_VALUE for the last one.
+                return i == 0 ? 0 : Math.min(getMax(), (1L << i) - 1);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns a copy of the bucket counts.
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[BUCKETS];
+        for (int i=0; i<BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram {count=" + getCount() + ", mean=" + getMean() +
+            ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) +
+            ", max=" + getMax() + '}';
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.rmi.RemoteException;
+
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Broadcasts invalidation messages to all client sessions which are caching
+ * a Storable type. One instance is shared by all sessions over the same
+ * Repository, even when they are served by separate {@link
+ * RemoteRepositoryServer} instances.
+ *
+ * @author agent
+ * @see RepositoryState#invalidatorFor
+ */
+class Invalidator {
+    // Keeps the shared state reachable while sessions are listening, even
+    // if the server which created them is gone.
+    private final RepositoryState mOwner;
+
+    private final String[] mKeyNames;
+    private final CopyOnWriteArraySet<RemoteInvalidationListener> mListeners;
+
+    Invalidator(RepositoryState owner, Class<? extends Storable> type) {
+        mOwner = owner;
+        mKeyNames = NearCacheKey.namesFor(type);
+        mListeners = new CopyOnWriteArraySet<RemoteInvalidationListener>();
+    }
+
+    void addListener(RemoteInvalidationListener listener) {
+        mListeners.add(listener);
+    }
+
+    void removeListener(RemoteInvalidationListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Notifies all listeners that the given storable has changed. If a
+     * transaction is given, listeners are notified again when the outermost
+     * transaction commits, which prevents clients from caching values which
+     * were read before the commit.
+     *
+     * @param txn optional
+     */
+    void invalidate(Storable storable, RemoteTransaction txn) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        Object[] key = NearCacheKey.valuesFor(storable, mKeyNames);
+        if (key == null) {
+            invalidateAll(txn);
+        } else {
+            broadcast(key);
+            defer(txn, key);
+        }
+    }
+
+    /**
+     * Notifies all listeners that any storable might have changed.
+     *
+     * @param txn optional
+     */
+    void invalidateAll(RemoteTransaction txn) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        broadcast(null);
+        defer(txn, null);
+    }
+
+    private void defer(RemoteTransaction txn, Object[] key) {
+        if (txn instanceof RemoteTransactionServer) {
+            ((RemoteTransactionServer) txn).deferInvalidation(new Deferred(this, key));
+        }
+    }
+
+    void broadcast(Object[] key) {
+        for (RemoteInvalidationListener listener : mListeners) {
+            try {
+                if (key == null) {
+                    listener.invalidateAll();
+                } else {
+                    listener.invalidate(key);
+                }
+            } catch (RemoteException e) {
+                // Session is gone.
+                mListeners.remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Invalidation message which is sent again after a transaction commits.
+     */
+    static final class Deferred {
+        private final Invalidator mInvalidator;
+        private final Object[] mKey;
+
+        Deferred(Invalidator invalidator, Object[] key) {
+            mInvalidator = invalidator;
+            mKey = key;
+        }
+
+        void fire() {
+            mInvalidator.broadcast(mKey);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Exports each {@link StorageMetrics} as a read-only MBean, named
+ * {@code com.amazon.carbonado.repo.dirmi:type=StorageMetrics,repository=...,storable=...}.
+ * Every operation has attributes for its count, error count and latency
+ * mean, percentiles and maximum, in nanoseconds.
+ *
+ * <p>Servers over the same Repository share metrics, which are exported
+ * once. If metrics of another Repository with the same name are already
+ * exported, those are kept, and a warning is logged.
+ *
+ * @author agent
+ */
+public class JmxMetricsRegistry implements MetricsRegistry {
+    private static final String DOMAIN = "com.amazon.carbonado.repo.dirmi";
+
+    // MBean servers which each metrics instance has been exported to.
+    private static final Map<StorageMetrics, List<MBeanServer>> cExported =
+        new WeakHashMap<StorageMetrics, List<MBeanServer>>();
+
+    private final MBeanServer mServer;
+
+    /**
+     * Registers with the platform MBean server.
+     */
+    public JmxMetricsRegistry() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public JmxMetricsRegistry(MBeanServer server) {
+        if (server == null) {
+            throw new IllegalArgumentException("MBeanServer cannot be null");
+        }
+        mServer = server;
+    }
+
+    public void register(StorageMetrics metrics) {
+        synchronized (cExported) {
+            List<MBeanServer> servers = cExported.get(metrics);
+            if (servers == null) {
+                servers = new ArrayList<MBeanServer>(1);
+                cExported.put(metrics, servers);
+            } else {
+                for (MBeanServer server : servers) {
+                    if (server == mServer) {
+                        // Exported by another server over the same repository.
+                        return;
+                    }
+                }
+            }
+
+            ObjectName name = null;
+            try {
+                name = objectNameFor(metrics);
+                mServer.registerMBean(new MetricsBean(metrics), name);
+                servers.add(mServer);
+            } catch (InstanceAlreadyExistsException e) {
+                // Don't take over the metrics of a live server.
+                LogFactory.getLog(JmxMetricsRegistry.class).warn
+                    ("Metrics are already registered by another repository with the same " +
+                     "name, and so they are not exported: " + name);
+            } catch (JMException e) {
+                LogFactory.getLog(JmxMetricsRegistry.class).warn
+                    ("Unable to register metrics for " + metrics.getStorableType().getName(), e);
+            }
+        }
+    }
+
+    static ObjectName objectNameFor(StorageMetrics metrics) throws JMException {
+        String repoName = metrics.getRepositoryName();
+        return new ObjectName
+            (DOMAIN + ":type=StorageMetrics,repository=" +
+             ObjectName.quote(repoName == null ? "" : repoName) +
+             ",storable=" + metrics.getStorableType().getName());
+    }
+
+    private static abstract class Attr {
+        final String mDescription;
+
+        Attr(String description) {
+            mDescription = description;
+        }
+
+        abstract long get();
+    }
+
+    private static class MetricsBean implements DynamicMBean {
+        private final Map<String, Attr> mAttrs;
+        private final MBeanInfo mInfo;
+
+        MetricsBean(final StorageMetrics metrics) {
+            mAttrs = new LinkedHashMap<String, Attr>();
+
+            for (StorageMetrics.Operation op : StorageMetrics.Operation.values()) {
+                final OperationMetrics om = metrics.getOperation(op);
+                String prefix = attributePrefix(op);
+                mAttrs.put(prefix + "Count", new Attr("Completed operations") {
+                    long get() {
+                        return om.getCount();
+                    }
+                });
+                mAttrs.put(prefix + "ErrorCount", new Attr("Failed operations") {
+                    long get() {
+                        return om.getErrorCount();
+                    }
+                });
+                addHistogram(prefix, "LatencyNanos", om.getLatencyNanos());
+            }
+
+            mAttrs.put("BytesIn", new Attr("Serialized storable bytes received") {
+                long get() {
+                    return metrics.getBytesIn();
+                }
+            });
+            mAttrs.put("BytesOut", new Attr("Serialized storable bytes sent") {
+                long get() {
+                    return metrics.getBytesOut();
+                }
+            });
+            mAttrs.put("SessionCount", new Attr("Open client sessions") {
+                long get() {
+                    return metrics.getSessionCount();
+                }
+            });
+            mAttrs.put("QueryCacheHitCount", new Attr("Queries prepared from the cache") {
+                long get() {
+                    return metrics.getQueryCacheHitCount();
+                }
+            });
+            mAttrs.put("QueryCacheMissCount", new Attr("Queries prepared from scratch") {
+                long get() {
+                    return metrics.getQueryCacheMissCount();
+                }
+            });
+            mAttrs.put("PreparedQueryCount", new Attr("Query handles prepared by clients") {
+                long get() {
+                    return metrics.getPreparedQueryCount();
+                }
+            });
+            mAttrs.put("DroppedIOErrorCount", new Attr("I/O errors not reported to clients") {
+                long get() {
+                    return metrics.getDroppedIOErrorCount();
+                }
+            });
+            mAttrs.put("DroppedSupportErrorCount", new Attr("Serialization errors not reported") {
+                long get() {
+                    return metrics.getDroppedSupportErrorCount();
+                }
+            });
+            addHistogram("Cursor", "Rows", metrics.getCursorRows());
+            addHistogram("Attach", "WaitNanos", metrics.getAttachWaitNanos());
+            mAttrs.put("AttachSpinCount", new Attr("Attachments acquired by spinning") {
+                long get() {
+                    return metrics.getAttachSpinCount();
+                }
+            });
+            mAttrs.put("AttachParkCount", new Attr("Attachments which waited in line") {
+                long get() {
+                    return metrics.getAttachParkCount();
+                }
+            });
+            addHistogram("Admission", "WaitNanos", metrics.getAdmissionWaitNanos());
+            mAttrs.put("AdmissionQueueDepth", new Attr("Operations waiting to be admitted") {
+                long get() {
+                    return metrics.getAdmissionQueueDepth();
+                }
+            });
+            mAttrs.put("AdmissionRejectedCount", new Attr("Operations not admitted in time") {
+                long get() {
+                    return metrics.getAdmissionRejectedCount();
+                }
+            });
+
+            List<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Attr> entry : mAttrs.entrySet()) {
+                infos.add(new MBeanAttributeInfo
+                          (entry.getKey(), "long", entry.getValue().mDescription,
+                           true, false, false));
+            }
+
+            mInfo = new MBeanInfo
+                (StorageMetrics.class.getName(),
+                 "Remote storage metrics for " + metrics.getStorableType().getName(),
+                 infos.toArray(new MBeanAttributeInfo[infos.size()]),
+                 null, null, null);
+        }
+
+        private void addHistogram(String prefix, String suffix, final Histogram h) {
+            mAttrs.put(prefix + "Mean" + suffix, new Attr("Mean") {
+                long get() {
+                    return Math.round(h.getMean());
+                }
+            });
+            mAttrs.put(prefix + "P50" + suffix, new Attr("50th percentile upper bound") {
+                long get() {
+                    return h.getPercentile(50);
+                }
+            });
+            mAttrs.put(prefix + "P99" + suffix, new Attr("99th percentile upper bound") {
+                long get() {
+                    return h.getPercentile(99);
+                }
+            });
+            mAttrs.put(prefix + "Max" + suffix, new Attr("Maximum") {
+                long get() {
+                    return h.getMax();
+                }
+            });
+        }
+
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            Attr attr = mAttrs.get(name);
+            if (attr == null) {
+                throw new AttributeNotFoundException(name);
+            }
+            return attr.get();
+        }
+
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String name : names) {
+                Attr attr = mAttrs.get(name);
+                if (attr != null) {
+                    list.add(new Attribute(name, attr.get()));
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Read-only: " + attribute.getName());
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature)
+            throws ReflectionException
+        {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            return mInfo;
+        }
+    }
+
+    /**
+     * Converts TRY_LOAD to "TryLoad", for example.
+     */
+    static String attributePrefix(StorageMetrics.Operation op) {
+        StringBuilder b = new StringBuilder();
+        for (String part : op.name().split("_")) {
+            b.append(part.charAt(0)).append(part.substring(1).toLowerCase());
+        }
+        return b.toString();
+    }
+}
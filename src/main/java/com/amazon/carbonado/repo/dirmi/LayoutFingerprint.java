@@ -0,0 +1,110 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Arrays;
+
+import com.amazon.carbonado.RepositoryException;
+
+import com.amazon.carbonado.layout.Layout;
+
+/**
+ * SHA-1 digest of a serialized Layout, which identifies it without sending
+ * it. Layouts are serialized with their generation and creation details, and
+ * so equal fingerprints imply identical serialized forms.
+ *
+ * @author agent
+ */
+final class LayoutFingerprint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static LayoutFingerprint of(Layout layout) throws RepositoryException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try {
+            layout.writeTo(bout);
+            return new LayoutFingerprint(newDigest().digest(bout.toByteArray()));
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * Returns a stream which computes the fingerprint of a serialized
+     * layout as it's read. Skipped bytes aren't included.
+     */
+    static DigestInputStream digesting(InputStream in) throws IOException {
+        return new DigestInputStream(in, newDigest());
+    }
+
+    /**
+     * Returns the fingerprint of the bytes read by a digesting stream.
+     */
+    static LayoutFingerprint of(DigestInputStream in) {
+        return new LayoutFingerprint(in.getMessageDigest().digest());
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private final byte[] mDigest;
+
+    private LayoutFingerprint(byte[] digest) {
+        mDigest = digest;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mDigest);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof LayoutFingerprint) {
+            return Arrays.equals(mDigest, ((LayoutFingerprint) obj).mDigest);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder(mDigest.length * 2);
+        for (byte d : mDigest) {
+            b.append(Character.forDigit((d >> 4) & 0xf, 16));
+            b.append(Character.forDigit(d & 0xf, 16));
+        }
+        return b.toString();
+    }
+}
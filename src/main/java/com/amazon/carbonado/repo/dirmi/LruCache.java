@@ -0,0 +1,191 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache which evicts least recently used entries. Entries are striped
+ * over independently locked segments, and so eviction order is only
+ * approximately LRU.
+ *
+ * @author agent
+ */
+class LruCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentMask;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+    private final AtomicLong mEvictions;
+
+    /**
+     * @param maxSize approximate maximum amount of entries to retain
+     */
+    LruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maxSize);
+        }
+
+        // Use a power of two amount of segments, but don't create tiny ones.
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * MAX_SEGMENTS < maxSize) {
+            count <<= 1;
+        }
+
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+        mEvictions = new AtomicLong();
+
+        int segmentSize = (maxSize + count - 1) / count;
+        mSegments = new Segment[count];
+        for (int i=0; i<count; i++) {
+            mSegments[i] = new Segment<K, V>(segmentSize, mEvictions);
+        }
+        mSegmentMask = count - 1;
+    }
+
+    /**
+     * Returns the cached value, or null if none. Hit and miss counts are updated.
+     */
+    V get(K key) {
+        V value = peek(key);
+        if (value == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value, or null if none. Hit and miss counts are not updated.
+     */
+    V peek(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    void put(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * @return existing value, or null if given value was put
+     */
+    V putIfAbsent(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            V existing = segment.get(key);
+            if (existing == null) {
+                segment.put(key, value);
+            }
+            return existing;
+        }
+    }
+
+    V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes the entry only if currently mapped to the given value.
+     */
+    boolean remove(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (segment.get(key) == value) {
+                segment.remove(key);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    void clear() {
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        // Spread the hash bits, since low bits select the segment.
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return mSegments[h & mSegmentMask];
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private final int mMaxSize;
+        private final AtomicLong mEvictions;
+
+        Segment(int maxSize, AtomicLong evictions) {
+            super(16, 0.75f, true);
+            mMaxSize = maxSize;
+            mEvictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > mMaxSize) {
+                mEvictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Receives the metrics of a {@link RemoteRepositoryServer} for export, such
+ * as to JMX. Metrics objects are live, and so they only need to be
+ * registered once.
+ *
+ * @author agent
+ * @see RemoteRepositoryServerBuilder#setMetricsRegistry
+ * @see JmxMetricsRegistry
+ */
+public interface MetricsRegistry {
+    /**
+     * Called when a Storable type is first accessed by any client of a
+     * server. Servers over the same Repository share metrics, and so the
+     * same metrics can be registered by each of them.
+     */
+    void register(StorageMetrics metrics);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Capability for inspecting the client-side cache of loaded storables, which
+ * is enabled by {@link ClientRepositoryBuilder#setNearCacheSize}.
+ *
+ * @author agent
+ */
+public interface NearCacheCapability extends Capability {
+    /**
+     * Returns cache counters for the given type, or null if caching is
+     * disabled or isn't supported by the server.
+     */
+    NearCacheStatistics getNearCacheStatistics(Class<? extends Storable> type)
+        throws RepositoryException;
+
+    /**
+     * Discards all cached storables of the given type.
+     */
+    void clearNearCache(Class<? extends Storable> type) throws RepositoryException;
+
+    /**
+     * Waits until the invalidation count of the given type reaches the given
+     * amount. Invalidation messages are sent asynchronously by the server,
+     * and so this is used to observe changes made through other sessions.
+     *
+     * @return false if timed out, or if caching is disabled
+     * @see NearCacheStatistics#getInvalidationCount
+     */
+    boolean awaitInvalidationCount(Class<? extends Storable> type, long count,
+                                   long timeout, TimeUnit unit)
+        throws RepositoryException, InterruptedException;
+}
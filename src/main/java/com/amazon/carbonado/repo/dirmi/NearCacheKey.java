@@ -0,0 +1,96 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.Arrays;
+
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.info.StorableIntrospector;
+
+/**
+ * Primary key values of a Storable, as used by the client near cache. Client
+ * and server both order the values by property name, and so the raw values
+ * can be passed along with invalidation messages.
+ *
+ * @author agent
+ */
+final class NearCacheKey {
+    /**
+     * Returns the primary key property names of the given type, in a
+     * canonical order.
+     */
+    static String[] namesFor(Class<? extends Storable> type) {
+        String[] names = StorableIntrospector.examine(type)
+            .getPrimaryKeyProperties().keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Returns the primary key values of the given storable, or null if the
+     * key isn't fully initialized or if any value cannot be compared by
+     * value.
+     */
+    static Object[] valuesFor(Storable storable, String[] names) {
+        Object[] values = new Object[names.length];
+        for (int i=0; i<names.length; i++) {
+            String name = names[i];
+            if (storable.isPropertyUninitialized(name)) {
+                return null;
+            }
+            Object value = storable.getPropertyValue(name);
+            if (value != null && value.getClass().isArray()) {
+                return null;
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private final Object[] mValues;
+    private final int mHashCode;
+
+    NearCacheKey(Object[] values) {
+        mValues = values;
+        mHashCode = Arrays.hashCode(values);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof NearCacheKey) {
+            NearCacheKey other = (NearCacheKey) obj;
+            return mHashCode == other.mHashCode && Arrays.equals(mValues, other.mValues);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCacheKey " + Arrays.toString(mValues);
+    }
+}
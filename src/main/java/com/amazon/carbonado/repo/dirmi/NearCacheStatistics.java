@@ -0,0 +1,94 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of client near cache counters for one Storable type.
+ *
+ * @author agent
+ * @see NearCacheCapability
+ */
+public class NearCacheStatistics {
+    private final long mHits;
+    private final long mMisses;
+    private final long mEvictions;
+    private final long mExpirations;
+    private final long mInvalidations;
+    private final int mSize;
+
+    NearCacheStatistics(long hits, long misses, long evictions,
+                        long expirations, long invalidations, int size)
+    {
+        mHits = hits;
+        mMisses = misses;
+        mEvictions = evictions;
+        mExpirations = expirations;
+        mInvalidations = invalidations;
+        mSize = size;
+    }
+
+    /**
+     * Returns the amount of loads which were served from the cache.
+     */
+    public long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the amount of cacheable loads which required a remote call.
+     */
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the amount of entries discarded because the cache was full.
+     */
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the amount of entries discarded because they were too old.
+     */
+    public long getExpirationCount() {
+        return mExpirations;
+    }
+
+    /**
+     * Returns the amount of invalidation messages received.
+     */
+    public long getInvalidationCount() {
+        return mInvalidations;
+    }
+
+    /**
+     * Returns the current amount of cached entries.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCacheStatistics {hits=" + mHits + ", misses=" + mMisses +
+            ", evictions=" + mEvictions + ", expirations=" + mExpirations +
+            ", invalidations=" + mInvalidations + ", size=" + mSize + '}';
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histogram and error count for one kind of server operation.
+ *
+ * @author agent
+ * @see StorageMetrics
+ */
+public class OperationMetrics {
+    private final Histogram mLatency;
+    private final AtomicLong mErrors;
+
+    OperationMetrics() {
+        mLatency = new Histogram();
+        mErrors = new AtomicLong();
+    }
+
+    /**
+     * @param start System.nanoTime when operation started
+     * @param success false if operation failed with an exception
+     */
+    void record(long start, boolean success) {
+        mLatency.record(System.nanoTime() - start);
+        if (!success) {
+            mErrors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the amount of completed operations, including failures.
+     */
+    public long getCount() {
+        return mLatency.getCount();
+    }
+
+    /**
+     * Returns the amount of operations which failed with an exception.
+     */
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Returns the operation latencies, in nanoseconds.
+     */
+    public Histogram getLatencyNanos() {
+        return mLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics {count=" + getCount() + ", errors=" + getErrorCount() +
+            ", latencyNanos=" + mLatency + '}';
+    }
+}
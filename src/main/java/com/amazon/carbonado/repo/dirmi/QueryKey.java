@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import com.amazon.carbonado.filter.Filter;
+
+import com.amazon.carbonado.qe.OrderingList;
+
+/**
+ * Identifies a query by its filter and ordering, but not its values. Filters
+ * and orderings are immutable and define equality, but either can be null.
+ *
+ * @author agent
+ */
+final class QueryKey {
+    private final Filter mFilter;
+    private final OrderingList mOrderBy;
+
+    /**
+     * @param filter optional
+     * @param orderBy optional; empty ordering is treated as null
+     */
+    QueryKey(Filter filter, OrderingList orderBy) {
+        mFilter = filter;
+        mOrderBy = (orderBy == null || orderBy.size() == 0) ? null : orderBy;
+    }
+
+    /**
+     * @return null if unfiltered
+     */
+    Filter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * @return null if unordered
+     */
+    OrderingList getOrderBy() {
+        return mOrderBy;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = mFilter == null ? 0 : mFilter.hashCode();
+        return hash * 31 + (mOrderBy == null ? 0 : mOrderBy.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof QueryKey) {
+            QueryKey other = (QueryKey) obj;
+            return (mFilter == null ? other.mFilter == null : mFilter.equals(other.mFilter)) &&
+                (mOrderBy == null ? other.mOrderBy == null : mOrderBy.equals(other.mOrderBy));
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryKey {filter=" + mFilter + ", orderBy=" + mOrderBy + '}';
+    }
+}
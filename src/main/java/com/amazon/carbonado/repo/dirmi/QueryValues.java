@@ -0,0 +1,199 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Compact encoding of the values supplied to a prepared query. Common types
+ * are written with a one byte tag followed by the raw value, and other types
+ * fall back to Java serialization.
+ *
+ * @author agent
+ */
+class QueryValues {
+    private static final byte
+        NULL = 0, INT = 1, LONG = 2, STRING = 3, BOOLEAN = 4, DOUBLE = 5, FLOAT = 6,
+        SHORT = 7, BYTE = 8, CHAR = 9, BYTES = 10, SERIALIZED = 11;
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    /**
+     * @param values optional
+     * @return null if no values
+     */
+    static byte[] encode(Object[] values) throws IOException {
+        if (values == null || values.length == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(values.length * 9 + 1);
+        DataOutputStream out = new DataOutputStream(bout);
+        writeLength(out, values.length);
+
+        for (Object value : values) {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof String) {
+                out.writeByte(STRING);
+                byte[] utf = ((String) value).getBytes("UTF-8");
+                writeLength(out, utf.length);
+                out.write(utf);
+            } else if (value instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Character) {
+                out.writeByte(CHAR);
+                out.writeChar((Character) value);
+            } else if (value instanceof byte[]) {
+                out.writeByte(BYTES);
+                byte[] bytes = (byte[]) value;
+                writeLength(out, bytes.length);
+                out.write(bytes);
+            } else {
+                out.writeByte(SERIALIZED);
+                ByteArrayOutputStream sout = new ByteArrayOutputStream();
+                ObjectOutputStream oout = new ObjectOutputStream(sout);
+                oout.writeObject(value);
+                oout.close();
+                writeLength(out, sout.size());
+                sout.writeTo(out);
+            }
+        }
+
+        out.flush();
+        return bout.toByteArray();
+    }
+
+    /**
+     * @param encoded optional
+     * @return empty array if no values
+     */
+    static Object[] decode(byte[] encoded) throws IOException {
+        if (encoded == null) {
+            return NO_VALUES;
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        Object[] values = new Object[readLength(in)];
+
+        for (int i=0; i<values.length; i++) {
+            byte tag = in.readByte();
+            switch (tag) {
+            case NULL:
+                break;
+            case INT:
+                values[i] = in.readInt();
+                break;
+            case LONG:
+                values[i] = in.readLong();
+                break;
+            case STRING:
+                values[i] = new String(readBytes(in), "UTF-8");
+                break;
+            case BOOLEAN:
+                values[i] = in.readBoolean();
+                break;
+            case DOUBLE:
+                values[i] = in.readDouble();
+                break;
+            case FLOAT:
+                values[i] = in.readFloat();
+                break;
+            case SHORT:
+                values[i] = in.readShort();
+                break;
+            case BYTE:
+                values[i] = in.readByte();
+                break;
+            case CHAR:
+                values[i] = in.readChar();
+                break;
+            case BYTES:
+                values[i] = readBytes(in);
+                break;
+            case SERIALIZED:
+                ObjectInputStream oin =
+                    new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+                try {
+                    values[i] = oin.readObject();
+                } catch (ClassNotFoundException e) {
+                    IOException io = new IOException("Unable to decode query value");
+                    io.initCause(e);
+                    throw io;
+                }
+                break;
+            default:
+                throw new IOException("Unknown query value tag: " + tag);
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Writes a non-negative length in one byte if less than 128, or else in
+     * four bytes with the high bit set.
+     */
+    private static void writeLength(DataOutputStream out, int length) throws IOException {
+        if (length < 0x80) {
+            out.writeByte(length);
+        } else {
+            out.writeInt(length | 0x80000000);
+        }
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int b = in.readUnsignedByte();
+        if (b < 0x80) {
+            return b;
+        }
+        return ((b & 0x7f) << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -18,15 +18,36 @@
 
 package com.amazon.carbonado.repo.dirmi;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import java.lang.reflect.Method;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.LogFactory;
+
 import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryException;
@@ -42,15 +63,42 @@ import com.amazon.carbonado.layout.LayoutFactory;
 import com.amazon.carbonado.gen.DetachedStorableFactory;
 import com.amazon.carbonado.gen.StorableCopier;
 
-import com.amazon.carbonado.util.SoftValuedCache;
-
 /**
- * Cache of reconstructed classes corresponding to a Layout.
+ * Cache of reconstructed classes corresponding to a Layout. Cache hits don't
+ * lock, and each class is generated by only one thread, while other threads
+ * requesting the same class wait for it.
+ *
+ * <p>Layouts are normally kept in memory only. If the {@link #DIRECTORY_PROPERTY}
+ * system property names a directory, layouts are kept there instead, along
+ * with a registry of the layouts which needed reconstructed classes. When the
+ * JVM starts again, those classes and their writers are generated in the
+ * background before they are requested.
  *
  * @author Brian S O'Neill
  */
 class ReconstructedCache {
-    static final ReconstructedCache THE = new ReconstructedCache();
+    static final ReconstructedCache THE = new ReconstructedCache(directory());
+
+    // Generated classes might not be unloadable, and so the cache is bounded
+    // instead of being cleared under memory pressure, which would only cause
+    // the same classes to be generated again.
+    static final int MAX_CLASSES = 1000;
+
+    // Layouts are added by remote endpoints, and so the amount kept is
+    // bounded. Evicted layouts are sent again in full when needed.
+    static final int MAX_FINGERPRINTS = 4000;
+
+    /**
+     * System property which names a directory for persisting layouts and
+     * the registry of reconstructed classes. The directory can only be used
+     * by one JVM at a time.
+     */
+    static final String DIRECTORY_PROPERTY =
+        "com.amazon.carbonado.repo.dirmi.ReconstructedCache.directory";
+
+    private static final String REGISTRY_FILE = "reconstructed";
+
+    private static final int LAYOUT_LOCKS = 16;
 
     // Keep a reference to LayoutFactory instance, since it generates classes,
     // sometimes indirectly. Keeping the same instance prevents classes from
@@ -58,40 +106,113 @@ class ReconstructedCache {
     // class loading memory leaks.
     final LayoutFactory mLayoutFactory;
 
-    private final SoftValuedCache<StorableLayoutKey, Class> mCache;
+    // Serializes LayoutFactory access per Storable type. Is a single lock when
+    // using the Map repository, because of its locking defects.
+    private final Object[] mLayoutLocks;
+
+    private final ConcurrentHashMap<Class, Layout> mLocalLayouts;
+    private final ConcurrentHashMap<Class, LayoutFingerprint> mLocalFingerprints;
+
+    // Local layouts and layouts read from remote endpoints. Remote endpoints
+    // can then send just the fingerprint of a layout which was sent before.
+    private final ConcurrentHashMap<LayoutFingerprint, Layout> mFingerprintLayouts;
+    // Fingerprints in insertion order, for evicting the oldest layouts.
+    private final ConcurrentLinkedQueue<LayoutFingerprint> mFingerprintOrder;
+
+    private final ConcurrentHashMap<StorableLayoutKey, FutureTask<Class>> mCache;
+    // Keys in insertion order, for evicting the oldest classes.
+    private final ConcurrentLinkedQueue<StorableLayoutKey> mCacheOrder;
+    // Writers for cached classes, evicted along with them.
+    private final ConcurrentHashMap<StorableLayoutKey, StorableWriter> mWriters;
+
+    private final AtomicLong mHits;
+    private final AtomicLong mMisses;
+    private final AtomicLong mWriterHits;
+    private final AtomicLong mEvictions;
+    private final AtomicLong mPreloaded;
+
+    // Registry of reconstructed layouts, which is null unless persistent.
+    private final File mRegistry;
+    // Registry entries which have been written, as "type-name generation".
+    private final ConcurrentHashMap<String, Boolean> mRegistered;
+
+    private final Repository mRepository;
+
+    private static File directory() {
+        String dirName = System.getProperty(DIRECTORY_PROPERTY);
+        return (dirName == null || dirName.length() == 0) ? null : new File(dirName);
+    }
+
+    /**
+     * @param dir directory for persisting layouts; pass null to keep them in
+     * memory only
+     */
+    ReconstructedCache(File dir) {
+        File registry = null;
+        Repository repo = null;
 
-    private ReconstructedCache() {
         try {
-            // Favor in-memory Tupl repository, but fallback to BDB-JE, and
-            // then to the Map repository. Map repository has locking defects,
-            // which is why it is the least preferred. BDB-JE isn't suitable
-            // for long-term in-memory storage, because it never cleans out old
-            // log entries. Tupl is the better choice overall because it
-            // implements locks correctly and doesn't leak memory.
-
-            Repository repo;
             File tmpDir = null;
+            int lockCount = LAYOUT_LOCKS;
 
-            try {
-                repo = (Repository) Class.forName
-                    ("com.amazon.carbonado.repo.tupl.TuplRepositoryBuilder")
-                    .getMethod("newRepository").invoke(null);
-            } catch (Throwable e) {
-                tmpDir = new File(System.getProperty("java.io.tmpdir"),
-                                  "CarbonadoDirmi-" + UUID.randomUUID());
-
+            if (dir != null) {
                 try {
+                    dir.mkdirs();
+
                     BDBRepositoryBuilder b = new BDBRepositoryBuilder();
                     b.setName("ReconstructedCache");
-                    b.setEnvironmentHomeFile(tmpDir);
-                    b.setLogInMemory(true);
+                    b.setEnvironmentHomeFile(new File(dir, "layouts"));
                     b.setCacheSize(1000000);
                     b.setProduct("JE");
                     b.setTransactionNoSync(true);
 
                     repo = b.build();
-                } catch (Throwable e2) {
-                    repo = MapRepositoryBuilder.newRepository();
+                    registry = new File(dir, REGISTRY_FILE);
+
+                    final Repository fRepo = repo;
+                    Runtime.getRuntime().addShutdownHook(new Thread() {
+                        public void run() {
+                            fRepo.close();
+                        }
+                    });
+                } catch (Throwable e) {
+                    // Possibly in use by another JVM.
+                    LogFactory.getLog(ReconstructedCache.class).warn
+                        ("Unable to use persistent layout cache directory: " + dir, e);
+                }
+            }
+
+            if (repo == null) {
+                // Favor in-memory Tupl repository, but fallback to BDB-JE, and
+                // then to the Map repository. Map repository has locking
+                // defects, which is why it is the least preferred. BDB-JE
+                // isn't suitable for long-term in-memory storage, because it
+                // never cleans out old log entries. Tupl is the better choice
+                // overall because it implements locks correctly and doesn't
+                // leak memory.
+
+                try {
+                    repo = (Repository) Class.forName
+                        ("com.amazon.carbonado.repo.tupl.TuplRepositoryBuilder")
+                        .getMethod("newRepository").invoke(null);
+                } catch (Throwable e) {
+                    tmpDir = new File(System.getProperty("java.io.tmpdir"),
+                                      "CarbonadoDirmi-" + UUID.randomUUID());
+
+                    try {
+                        BDBRepositoryBuilder b = new BDBRepositoryBuilder();
+                        b.setName("ReconstructedCache");
+                        b.setEnvironmentHomeFile(tmpDir);
+                        b.setLogInMemory(true);
+                        b.setCacheSize(1000000);
+                        b.setProduct("JE");
+                        b.setTransactionNoSync(true);
+
+                        repo = b.build();
+                    } catch (Throwable e2) {
+                        repo = MapRepositoryBuilder.newRepository();
+                        lockCount = 1;
+                    }
                 }
             }
 
@@ -111,12 +232,177 @@ class ReconstructedCache {
             }
 
             mLayoutFactory = new LayoutFactory(repo);
+
+            mLayoutLocks = new Object[lockCount];
+            for (int i=0; i<lockCount; i++) {
+                mLayoutLocks[i] = new Object();
+            }
         } catch (RepositoryException e) {
             // MapRepository shouldn't throw a RepositoryException.
             throw new AssertionError(e);
         }
 
-        mCache = SoftValuedCache.newCache(3);
+        mLocalLayouts = new ConcurrentHashMap<Class, Layout>();
+        mLocalFingerprints = new ConcurrentHashMap<Class, LayoutFingerprint>();
+        mFingerprintLayouts = new ConcurrentHashMap<LayoutFingerprint, Layout>();
+        mFingerprintOrder = new ConcurrentLinkedQueue<LayoutFingerprint>();
+        mCache = new ConcurrentHashMap<StorableLayoutKey, FutureTask<Class>>();
+        mCacheOrder = new ConcurrentLinkedQueue<StorableLayoutKey>();
+        mWriters = new ConcurrentHashMap<StorableLayoutKey, StorableWriter>();
+        mHits = new AtomicLong();
+        mMisses = new AtomicLong();
+        mWriterHits = new AtomicLong();
+        mEvictions = new AtomicLong();
+        mPreloaded = new AtomicLong();
+
+        mRegistry = registry;
+        mRegistered = new ConcurrentHashMap<String, Boolean>();
+        mRepository = repo;
+
+        if (registry != null && registry.exists()) {
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            AsyncExecutor.execute(new Runnable() {
+                public void run() {
+                    preload(loader);
+                }
+            });
+        }
+    }
+
+    /**
+     * Generates the classes listed in the registry, most recent last, unless
+     * they have already been requested.
+     */
+    private void preload(ClassLoader loader) {
+        List<String> entries;
+        synchronized (mRegistry) {
+            try {
+                entries = compactRegistry();
+            } catch (IOException e) {
+                LogFactory.getLog(ReconstructedCache.class).warn
+                    ("Unable to read reconstructed layout registry: " + mRegistry, e);
+                return;
+            }
+        }
+
+        for (String entry : entries) {
+            if (mRegistered.putIfAbsent(entry, Boolean.TRUE) != null) {
+                // Already requested.
+                continue;
+            }
+            try {
+                int split = entry.lastIndexOf(' ');
+                Class type = Class.forName(entry.substring(0, split), true, loader);
+                if (!Storable.class.isAssignableFrom(type)) {
+                    continue;
+                }
+                int generation = Integer.parseInt(entry.substring(split + 1));
+                Layout layout;
+                synchronized (layoutLock(type)) {
+                    layout = layoutFor(type).getGeneration(generation);
+                }
+                writerFor(type, layout);
+                mPreloaded.incrementAndGet();
+            } catch (Exception e) {
+                // Type is gone or has changed, or the entry is malformed.
+                // Classes are generated on demand instead.
+            }
+        }
+    }
+
+    /**
+     * Reads the registry and rewrites it down to the most recent distinct
+     * entries which fit in the cache, since it is otherwise only appended
+     * to. Caller must hold the registry lock.
+     *
+     * @return retained entries, most recent last
+     * @throws IOException if registry cannot be read
+     */
+    private List<String> compactRegistry() throws IOException {
+        // Set is ordered by most recent occurrence.
+        Set<String> distinct = new LinkedHashSet<String>();
+        int lineCount = 0;
+        BufferedReader in = new BufferedReader
+            (new InputStreamReader(new FileInputStream(mRegistry), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineCount++;
+                if (line.length() > 0) {
+                    distinct.remove(line);
+                    distinct.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        // Only the most recent entries fit in the cache.
+        List<String> entries = new ArrayList<String>(distinct);
+        entries = entries.subList(Math.max(0, entries.size() - MAX_CLASSES), entries.size());
+
+        if (entries.size() < lineCount) {
+            File temp = new File(mRegistry.getPath() + ".tmp");
+            try {
+                Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+                try {
+                    for (String entry : entries) {
+                        out.write(entry);
+                        out.write('\n');
+                    }
+                } finally {
+                    out.close();
+                }
+                // Rename fails on some platforms if the target exists.
+                if (!temp.renameTo(mRegistry) &&
+                    !(mRegistry.delete() && temp.renameTo(mRegistry)))
+                {
+                    throw new IOException("Unable to replace " + mRegistry + " with " + temp);
+                }
+            } catch (IOException e) {
+                temp.delete();
+                LogFactory.getLog(ReconstructedCache.class).warn
+                    ("Unable to write reconstructed layout registry: " + mRegistry, e);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Appends a reconstructed layout to the registry, if persistent.
+     */
+    private void record(Class type, Layout layout) {
+        if (mRegistry == null) {
+            return;
+        }
+        String entry = type.getName() + ' ' + layout.getGeneration();
+        if (mRegistered.putIfAbsent(entry, Boolean.TRUE) != null) {
+            return;
+        }
+        synchronized (mRegistry) {
+            try {
+                Writer out = new OutputStreamWriter
+                    (new FileOutputStream(mRegistry, true), "UTF-8");
+                try {
+                    out.write(entry);
+                    out.write('\n');
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                LogFactory.getLog(ReconstructedCache.class).warn
+                    ("Unable to write reconstructed layout registry: " + mRegistry, e);
+            }
+        }
+    }
+
+    /**
+     * Closes the repository which stores layouts. Only used when a cache
+     * other than the shared instance is no longer needed.
+     */
+    void close() {
+        mRepository.close();
     }
 
     static void deleteTempDir(File file) {
@@ -139,9 +425,75 @@ class ReconstructedCache {
     }
 
     Layout layoutFor(Class<? extends Storable> type) throws RepositoryException {
-        synchronized (mLayoutFactory) {
-            return mLayoutFactory.layoutFor(type);
+        Layout layout = mLocalLayouts.get(type);
+        if (layout == null) {
+            synchronized (layoutLock(type)) {
+                layout = mLayoutFactory.layoutFor(type);
+            }
+            Layout existing = mLocalLayouts.putIfAbsent(type, layout);
+            if (existing != null) {
+                layout = existing;
+            }
         }
+        return layout;
+    }
+
+    /**
+     * Returns the fingerprint of the local layout for the given type.
+     */
+    LayoutFingerprint fingerprintFor(Class<? extends Storable> type) throws RepositoryException {
+        LayoutFingerprint fingerprint = mLocalFingerprints.get(type);
+        if (fingerprint == null) {
+            Layout layout = layoutFor(type);
+            fingerprint = LayoutFingerprint.of(layout);
+            LayoutFingerprint existing = mLocalFingerprints.putIfAbsent(type, fingerprint);
+            if (existing != null) {
+                fingerprint = existing;
+            } else {
+                register(fingerprint, layout);
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns the layout with the given fingerprint, or null if it hasn't
+     * been seen by this process.
+     */
+    Layout layoutFor(LayoutFingerprint fingerprint) {
+        return fingerprint == null ? null : mFingerprintLayouts.get(fingerprint);
+    }
+
+    /**
+     * Remembers a layout by fingerprint, which must have been computed by
+     * this process. The oldest layouts are evicted when there are too many.
+     */
+    void register(LayoutFingerprint fingerprint, Layout layout) {
+        if (mFingerprintLayouts.putIfAbsent(fingerprint, layout) != null) {
+            return;
+        }
+        mFingerprintOrder.add(fingerprint);
+        while (mFingerprintLayouts.size() > MAX_FINGERPRINTS) {
+            LayoutFingerprint oldest = mFingerprintOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            mFingerprintLayouts.remove(oldest);
+        }
+    }
+
+    /**
+     * Reads a layout which was written by a remote endpoint for the given type.
+     */
+    Layout readLayoutFrom(Class type, InputStream in) throws IOException, RepositoryException {
+        synchronized (layoutLock(type)) {
+            return mLayoutFactory.readLayoutFrom(in);
+        }
+    }
+
+    private Object layoutLock(Class type) {
+        Object[] locks = mLayoutLocks;
+        return locks[(type.getName().hashCode() & 0x7fffffff) % locks.length];
     }
 
     /**
@@ -156,25 +508,101 @@ class ReconstructedCache {
         // Protocol version doesn't matter.
         StorableLayoutKey key = new StorableLayoutKey(0, type, layout);
 
-        synchronized (this) {
-            Class clazz = mCache.get(key);
-            if (clazz == null) {
-                clazz = layout.reconstruct(type.getClassLoader());
-                mCache.put(key, clazz);
+        boolean miss = false;
+        FutureTask<Class> task = mCache.get(key);
+        if (task != null) {
+            mHits.incrementAndGet();
+        } else {
+            final Class<? extends Storable> fType = type;
+            final Layout fLayout = layout;
+            FutureTask<Class> newTask = new FutureTask<Class>(new Callable<Class>() {
+                public Class call() throws RepositoryException {
+                    return fLayout.reconstruct(fType.getClassLoader());
+                }
+            });
+
+            task = mCache.putIfAbsent(key, newTask);
+            if (task != null) {
+                // Another thread is generating or has generated the class.
+                mHits.incrementAndGet();
+            } else {
+                mMisses.incrementAndGet();
+                task = newTask;
+                task.run();
+                mCacheOrder.add(key);
+                evict();
+                miss = true;
+            }
+        }
+
+        try {
+            Class target = task.get();
+            if (miss) {
+                record(type, layout);
+            }
+            return target;
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            // Allow another attempt.
+            if (mCache.remove(key, task)) {
+                mCacheOrder.remove(key);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            }
+            ClientStorage.throwIfUnchecked(cause);
+            throw new RepositoryException(cause);
+        }
+    }
+
+    private void evict() {
+        while (mCache.size() > MAX_CLASSES) {
+            StorableLayoutKey key = mCacheOrder.poll();
+            if (key == null) {
+                break;
+            }
+            if (mCache.remove(key) != null) {
+                mEvictions.incrementAndGet();
             }
-            return clazz;
+            mWriters.remove(key);
         }
     }
 
+    ReconstructedCacheStatistics getStatistics() {
+        return new ReconstructedCacheStatistics
+            (mHits.get(), mMisses.get(), mWriterHits.get(), mEvictions.get(), mCache.size(),
+             mPreloaded.get());
+    }
+
     <S extends Storable> StorableWriter<S> writerFor(Class<S> type, Layout layout)
         throws RepositoryException
     {
+        StorableLayoutKey key = new StorableLayoutKey(0, type, layout);
+        StorableWriter<S> writer = mWriters.get(key);
+        if (writer != null) {
+            mWriterHits.incrementAndGet();
+            return writer;
+        }
+
         Class target = reconstruct(type, layout);
         if (target == null) {
             return (StorableWriter<S>) StorableWriter.DEFAULT;
         }
         StorableCopier<S, Storable> copier = StorableCopier.from(type).to(target);
         DetachedStorableFactory<?> factory = new DetachedStorableFactory(target);
-        return new StorableWriter.Copier<S>(copier, factory);
+        String[] names = StorableWriter.commonPropertyNames(type, target);
+        writer = new StorableWriter.Copier<S>(copier, factory, names);
+
+        StorableWriter<S> existing = mWriters.putIfAbsent(key, writer);
+        if (existing != null) {
+            return existing;
+        }
+        if (!mCache.containsKey(key)) {
+            // Class was evicted concurrently.
+            mWriters.remove(key, writer);
+        }
+        return writer;
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of counters for the cache of classes which are generated to
+ * convert storables to and from a remote endpoint's layout. The cache is
+ * shared by all repositories in the JVM.
+ *
+ * @author agent
+ */
+public class ReconstructedCacheStatistics {
+    private final long mHits;
+    private final long mMisses;
+    private final long mWriterHits;
+    private final long mEvictions;
+    private final int mSize;
+    private final long mPreloaded;
+
+    ReconstructedCacheStatistics(long hits, long misses, long writerHits, long evictions,
+                                 int size, long preloaded)
+    {
+        mHits = hits;
+        mMisses = misses;
+        mWriterHits = writerHits;
+        mEvictions = evictions;
+        mSize = size;
+        mPreloaded = preloaded;
+    }
+
+    /**
+     * Returns the amount of requests for a class which was already generated
+     * or was being generated by another thread.
+     */
+    public long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the amount of classes generated.
+     */
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the amount of requests for a converter which was already
+     * prepared for a generated class. These requests don't look up the class
+     * itself, and so they aren't counted as hits.
+     */
+    public long getWriterHitCount() {
+        return mWriterHits;
+    }
+
+    /**
+     * Returns the amount of classes discarded because the cache was full.
+     */
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the current amount of cached classes.
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Returns the amount of layouts prepared at startup from the registry in
+     * the persistent cache directory. Classes generated for them are also
+     * counted as misses.
+     */
+    public long getPreloadedCount() {
+        return mPreloaded;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconstructedCacheStatistics {hits=" + mHits + ", misses=" + mMisses +
+            ", writerHits=" + mWriterHits + ", evictions=" + mEvictions + ", size=" + mSize + ", preloaded=" + mPreloaded + '}';
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import org.cojen.dirmi.Asynchronous;
+
+/**
+ * Client-side callback which is notified by the server when storables are
+ * modified, allowing cached copies to be discarded.
+ *
+ * @author agent
+ * @see RemoteStorage#addInvalidationListener
+ */
+public interface RemoteInvalidationListener extends Remote {
+    /**
+     * Called when the storable with the given primary key might have changed.
+     *
+     * @param key primary key values, ordered by property name
+     */
+    @Asynchronous
+    void invalidate(Object[] key) throws RemoteException;
+
+    /**
+     * Called when any storable might have changed.
+     */
+    @Asynchronous
+    void invalidateAll() throws RemoteException;
+}
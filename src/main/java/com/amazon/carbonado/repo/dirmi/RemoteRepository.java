@@ -51,6 +51,21 @@ public interface RemoteRepository extends Remote {
     RemoteStorageTransport storageFor(StorableTypeTransport transport)
         throws RepositoryException;
 
+    /**
+     * Returns storage for each of the given types, in the same order, with
+     * one round trip. An element is null if storage couldn't be provided for
+     * the type, which must then be requested individually to obtain the
+     * exception.
+     *
+     * <p>Transports given to this method can omit their layouts, sending only
+     * fingerprints. If the server hasn't seen a layout, the element is null,
+     * and the type must be requested again with the full layout.
+     */
+    @RemoteFailure(exception=RepositoryException.class)
+    @Timeout(60000) // 60 seconds
+    RemoteStorageTransport[] storagesFor(StorableTypeTransport[] transports)
+        throws RepositoryException;
+
     @Deprecated
     @Asynchronous(CallMode.REQUEST_REPLY)
     Pipe storageRequest(StorageResponse response, Pipe pipe) throws RemoteException;
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.io.IOException;
+
+/**
+ * Opens sessions to a {@link RemoteRepositoryServer}, for use by a striped
+ * {@link ClientRepository}.
+ *
+ * @author agent
+ * @see ClientRepositoryBuilder#setStripeCount
+ */
+public interface RemoteRepositoryFactory {
+    /**
+     * Opens a new session to the server, and returns the remote repository
+     * which it serves. All remote repositories returned by this factory must
+     * be served by the same server repository.
+     */
+    RemoteRepository newRemoteRepository() throws IOException;
+}
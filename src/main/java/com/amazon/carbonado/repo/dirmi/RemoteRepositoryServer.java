@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import java.rmi.Remote;
@@ -35,7 +36,7 @@ import org.cojen.dirmi.util.Wrapper;
 import com.amazon.carbonado.IsolationLevel;
 import com.amazon.carbonado.Repository;
 import com.amazon.carbonado.RepositoryException;
-import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.SupportException;
 import com.amazon.carbonado.Transaction;
 
@@ -45,7 +46,6 @@ import com.amazon.carbonado.layout.Layout;
 
 import com.amazon.carbonado.repo.indexed.IndexEntryAccessCapability;
 import com.amazon.carbonado.sequence.SequenceCapability;
-import com.amazon.carbonado.sequence.SequenceValueProducer;
 
 /**
  * Wraps a repository for server-side access, which can be accessed on the
@@ -58,13 +58,129 @@ public class RemoteRepositoryServer implements RemoteRepository {
      * Returns a remotely servable repository.
      */
     public static RemoteRepository from(Repository repo) {
-        return new RemoteRepositoryServer(repo);
+        if (repo == null) {
+            throw new IllegalArgumentException("Repository cannot be null");
+        }
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        return new RemoteRepositoryServer(builder);
     }
 
     final Repository mRepository;
 
-    private RemoteRepositoryServer(Repository repo) {
-        mRepository = repo;
+    // Shared by all servers over the repository.
+    private final RepositoryState mShared;
+
+    private final MetricsRegistry mMetricsRegistry;
+    // Types whose shared metrics have been given to the registry.
+    private final ConcurrentHashMap<Class, Boolean> mRegisteredMetrics;
+
+    private final ConcurrentHashMap<Class, AdmissionControl> mAdmissions;
+    // Per-type limits, copied from the builder.
+    private final Map<Class, Integer> mTypeMaxPointOperations;
+    private final Map<Class, Integer> mTypeMaxScans;
+    // Global pools are shared with other servers over the repository, and
+    // they are null if unlimited.
+    private final AdmissionControl.Pool mGlobalPointPool;
+    private final AdmissionControl.Pool mGlobalScanPool;
+    private final long mAdmissionTimeoutNanos;
+
+    private final int mQueryCacheSize;
+    private final int mMaxPreparedQueries;
+
+    private final int mFetchByteBudget;
+    private final FetchBatchSizer.Recorder mFetchBatchRecorder;
+
+    // Zero if compression is disabled.
+    private final int mCompressionThreshold;
+    private final int mCompressionLevel;
+    private final CompressionRecorder mCompressionRecorder;
+    private final CompressionRecorder mDecompressionRecorder;
+
+    RemoteRepositoryServer(RemoteRepositoryServerBuilder builder) {
+        mRepository = builder.getRepository();
+        mShared = RepositoryState.forRepository(mRepository);
+        mMetricsRegistry = builder.getMetricsRegistry();
+        mRegisteredMetrics = new ConcurrentHashMap<Class, Boolean>();
+        mAdmissions = new ConcurrentHashMap<Class, AdmissionControl>();
+        mTypeMaxPointOperations = new HashMap<Class, Integer>();
+        mTypeMaxScans = new HashMap<Class, Integer>();
+        builder.copyTypeLimits(mTypeMaxPointOperations, mTypeMaxScans);
+        mGlobalPointPool = mShared.poolFor
+            (null, "global point operation pool", builder.getMaxConcurrentPointOperations());
+        mGlobalScanPool = mShared.poolFor
+            (null, "global scan pool", builder.getMaxConcurrentScans());
+        mAdmissionTimeoutNanos = builder.getAdmissionTimeout(TimeUnit.NANOSECONDS);
+        mQueryCacheSize = builder.getQueryCacheSize();
+        mMaxPreparedQueries = builder.getMaxPreparedQueries();
+        mFetchByteBudget = builder.getFetchByteBudget();
+        mFetchBatchRecorder = new FetchBatchSizer.Recorder();
+        mCompressionThreshold =
+            builder.isCompressionEnabled() ? builder.getCompressionThreshold() : 0;
+        mCompressionLevel = builder.getCompressionLevel();
+        mCompressionRecorder = new CompressionRecorder();
+        mDecompressionRecorder = new CompressionRecorder();
+    }
+
+    /**
+     * Returns the batch sizes chosen when writing query results, for all
+     * sessions served by this instance.
+     */
+    public FetchBatchStatistics getFetchBatchStatistics() {
+        return mFetchBatchRecorder.getStatistics();
+    }
+
+    /**
+     * Returns counters for query results compressed by this server, for all
+     * sessions served by this instance.
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return mCompressionRecorder.getStatistics();
+    }
+
+    /**
+     * Returns counters for write batches decompressed by this server, for all
+     * sessions served by this instance.
+     */
+    public CompressionStatistics getDecompressionStatistics() {
+        return mDecompressionRecorder.getStatistics();
+    }
+
+    /**
+     * Returns the operation metrics for the given type, for all sessions
+     * over the same repository, including those served by other instances.
+     * Returns null if no client has accessed the type.
+     */
+    public StorageMetrics getStorageMetrics(Class<? extends Storable> type) {
+        return mShared.existingMetricsFor(type);
+    }
+
+    /**
+     * Returns the state of the global point operation limit, or null if
+     * unlimited.
+     *
+     * @see RemoteRepositoryServerBuilder#setMaxConcurrentPointOperations(int)
+     */
+    public AdmissionStatistics getPointAdmissionStatistics() {
+        return mGlobalPointPool == null ? null : mGlobalPointPool.getStatistics();
+    }
+
+    /**
+     * Returns the state of the global scan limit, or null if unlimited.
+     *
+     * @see RemoteRepositoryServerBuilder#setMaxConcurrentScans(int)
+     */
+    public AdmissionStatistics getScanAdmissionStatistics() {
+        return mGlobalScanPool == null ? null : mGlobalScanPool.getStatistics();
+    }
+
+    /**
+     * Returns counters for the classes generated to convert storables to and
+     * from the layouts of remote endpoints. The counters are shared by all
+     * repositories in the JVM.
+     */
+    public ReconstructedCacheStatistics getReconstructedCacheStatistics() {
+        return ReconstructedCache.THE.getStatistics();
     }
 
     public String getName() {
@@ -78,19 +194,51 @@ public class RemoteRepositoryServer implements RemoteRepository {
         Class storableType = transport.getStorableType();
         Layout clientLayout = transport.getLayout();
 
+        if (clientLayout == null) {
+            // Client sent only the fingerprint of a layout not seen before.
+            throw new RepositoryException
+                ("Unknown layout for " + storableType.getName() + ": " +
+                 transport.getFingerprint());
+        }
+
+        // Only compress if client can decompress.
+        int compressionThreshold = protocolVersion <= -3 ? mCompressionThreshold : 0;
+
+        StorageServerState state = mShared.stateFor(storableType, clientLayout);
+
         RemoteStorage remoteStorage;
         {
-            Storage storage = mRepository.storageFor(storableType);
-            StorableWriter writer =
-                ReconstructedCache.THE.writerFor(storableType, clientLayout);
-            boolean writeStartMarker = protocolVersion == 1;
-            remoteStorage = new RemoteStorageServer(storage, writer, writeStartMarker);
+            CompressedStreams streams = compressionThreshold <= 0 ? null
+                : new CompressedStreams(compressionThreshold, mCompressionLevel,
+                                        mCompressionRecorder, mDecompressionRecorder);
+            remoteStorage = new RemoteStorageServer
+                (state, protocolVersion, mShared.invalidatorFor(storableType),
+                 mFetchByteBudget, mFetchBatchRecorder, streams, metricsFor(storableType),
+                 admissionFor(storableType), mQueryCacheSize, mMaxPreparedQueries);
         }
 
         Layout localLayout = ReconstructedCache.THE.layoutFor(storableType);
+        LayoutFingerprint fingerprint = ReconstructedCache.THE.fingerprintFor(storableType);
+
+        // Client already has the layout if it sent the same fingerprint.
+        boolean omitLayout = fingerprint.equals(transport.getPeerFingerprint());
 
         return new RemoteStorageTransport
-            (protocolVersion, storableType, localLayout, remoteStorage);
+            (protocolVersion, storableType, localLayout, remoteStorage,
+             compressionThreshold, mCompressionLevel, state.supportedProperties(),
+             fingerprint, omitLayout);
+    }
+
+    public RemoteStorageTransport[] storagesFor(StorableTypeTransport[] transports) {
+        RemoteStorageTransport[] storages = new RemoteStorageTransport[transports.length];
+        for (int i=0; i<transports.length; i++) {
+            try {
+                storages[i] = storageFor(transports[i]);
+            } catch (Exception e) {
+                // Client requests the type individually to obtain the exception.
+            }
+        }
+        return storages;
     }
 
     public Pipe storageRequest(StorageResponse response, Pipe pipe) {
@@ -126,7 +274,7 @@ public class RemoteRepositoryServer implements RemoteRepository {
         try {
             Transaction txn = mRepository.enterTransaction(level);
             txn.detach();
-            return new RemoteTransactionServer(txn);
+            return new RemoteTransactionServer(txn, (RemoteTransactionServer) parent);
         } finally {
             detach(parent);
         }
@@ -142,7 +290,7 @@ public class RemoteRepositoryServer implements RemoteRepository {
             Transaction txn = mRepository.enterTransaction(level);
             txn.setDesiredLockTimeout(timeout, unit);
             txn.detach();
-            return new RemoteTransactionServer(txn);
+            return new RemoteTransactionServer(txn, (RemoteTransactionServer) parent);
         } finally {
             detach(parent);
         }
@@ -151,7 +299,7 @@ public class RemoteRepositoryServer implements RemoteRepository {
     public RemoteTransaction enterTopTransaction(IsolationLevel level) {
         Transaction txn = mRepository.enterTopTransaction(level);
         txn.detach();
-        return new RemoteTransactionServer(txn);
+        return new RemoteTransactionServer(txn, null);
     }
 
     public RemoteTransaction enterTopTransaction(IsolationLevel level,
@@ -160,7 +308,7 @@ public class RemoteRepositoryServer implements RemoteRepository {
         Transaction txn = mRepository.enterTopTransaction(level);
         txn.setDesiredLockTimeout(timeout, unit);
         txn.detach();
-        return new RemoteTransactionServer(txn);
+        return new RemoteTransactionServer(txn, null);
     }
 
     public RemoteSequenceValueProducer getSequenceValueProducer(String name)
@@ -170,16 +318,38 @@ public class RemoteRepositoryServer implements RemoteRepository {
         if (cap == null) {
             throw new RepositoryException("Sequences not supported");
         }
-        SequenceValueProducer producer = cap.getSequenceValueProducer(name);
-        return Wrapper
-            .from(RemoteSequenceValueProducer.class, SequenceValueProducer.class)
-            .wrap(producer);
+        return new RemoteSequenceValueProducerServer(cap.getSequenceValueProducer(name));
     }
 
     public RemoteProcedureExecutor newRemoteProcedureExecutor(RemoteStorageRequestor r) {
         return new RemoteProcedureExecutorServer(this, r);
     }
 
+    private StorageMetrics metricsFor(Class type) {
+        StorageMetrics metrics = mShared.metricsFor(type);
+        if (mMetricsRegistry != null && mRegisteredMetrics.putIfAbsent(type, true) == null) {
+            mMetricsRegistry.register(metrics);
+        }
+        return metrics;
+    }
+
+    private AdmissionControl admissionFor(Class type) {
+        AdmissionControl admission = mAdmissions.get(type);
+        if (admission == null) {
+            // Per-type pools are shared by all sessions for the type.
+            admission = new AdmissionControl
+                (mShared.poolFor(type, "point operation pool", mTypeMaxPointOperations.get(type)),
+                 mShared.poolFor(type, "scan pool", mTypeMaxScans.get(type)),
+                 mGlobalPointPool, mGlobalScanPool,
+                 mAdmissionTimeoutNanos, metricsFor(type));
+            AdmissionControl existing = mAdmissions.putIfAbsent(type, admission);
+            if (existing != null) {
+                admission = existing;
+            }
+        }
+        return admission;
+    }
+
     boolean attach(RemoteTransaction txn) {
         if (txn != null) {
             try {
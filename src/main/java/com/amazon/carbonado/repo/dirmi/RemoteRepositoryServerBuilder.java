@@ -0,0 +1,309 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.zip.Deflater;
+
+import com.amazon.carbonado.ConfigurationException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+
+/**
+ * Builds a {@link RemoteRepositoryServer} with optional settings. The static
+ * {@code RemoteRepositoryServer.from} method is a shortcut which uses the
+ * default settings.
+ *
+ * @author agent
+ */
+public class RemoteRepositoryServerBuilder {
+    private Repository mRepository;
+    private int mFetchByteBudget = FetchBatchSizer.DEFAULT_BYTE_BUDGET;
+    private boolean mCompressionEnabled;
+    private int mCompressionThreshold = 1024;
+    private int mCompressionLevel = Deflater.BEST_SPEED;
+    private MetricsRegistry mMetricsRegistry;
+    private int mMaxPointOperations;
+    private int mMaxScans;
+    private final Map<Class, Integer> mTypeMaxPointOperations = new HashMap<Class, Integer>();
+    private final Map<Class, Integer> mTypeMaxScans = new HashMap<Class, Integer>();
+    private long mAdmissionTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private int mQueryCacheSize = 256;
+    private int mMaxPreparedQueries = 1024;
+
+    public RemoteRepositoryServerBuilder() {
+    }
+
+    public RemoteRepositoryServer build() throws ConfigurationException {
+        if (mRepository == null) {
+            throw new ConfigurationException("Repository is not set");
+        }
+        return new RemoteRepositoryServer(this);
+    }
+
+    public Repository getRepository() {
+        return mRepository;
+    }
+
+    /**
+     * Set the repository to serve, which is required.
+     */
+    public void setRepository(Repository repo) {
+        mRepository = repo;
+    }
+
+    public int getFetchByteBudget() {
+        return mFetchByteBudget;
+    }
+
+    /**
+     * Set the approximate maximum amount of serialized bytes which a query
+     * cursor holds in memory while writing results. The amount of storables
+     * per batch adapts to the observed serialized size. Default is 256KiB.
+     */
+    public void setFetchByteBudget(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Fetch byte budget must be positive");
+        }
+        mFetchByteBudget = bytes;
+    }
+
+    public boolean isCompressionEnabled() {
+        return mCompressionEnabled;
+    }
+
+    /**
+     * Enable compression of query results sent to clients and of write
+     * batches received from them. Compression is only applied to clients
+     * which support it, and it's disabled by default.
+     *
+     * @see RemoteRepositoryServer#getCompressionStatistics
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
+    public int getCompressionThreshold() {
+        return mCompressionThreshold;
+    }
+
+    /**
+     * Set the minimum size of a block of data to compress. Smaller blocks,
+     * such as the results of short queries, are sent uncompressed. Default is
+     * 1024 bytes.
+     */
+    public void setCompressionThreshold(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Compression threshold must be positive");
+        }
+        mCompressionThreshold = bytes;
+    }
+
+    public int getCompressionLevel() {
+        return mCompressionLevel;
+    }
+
+    /**
+     * Set the Deflater compression level, from 1 to 9, which also applies to
+     * data compressed by clients. Default is 1, which is the fastest.
+     */
+    public void setCompressionLevel(int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Illegal compression level: " + level);
+        }
+        mCompressionLevel = level;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return mMetricsRegistry;
+    }
+
+    /**
+     * Set a registry which exports the per-type metrics, which are always
+     * available from {@link RemoteRepositoryServer#getStorageMetrics}.
+     *
+     * @param registry optional registry, such as {@link JmxMetricsRegistry}
+     */
+    public void setMetricsRegistry(MetricsRegistry registry) {
+        mMetricsRegistry = registry;
+    }
+
+    /**
+     * Returns the global limit of concurrent point operations, or zero if
+     * unlimited.
+     */
+    public int getMaxConcurrentPointOperations() {
+        return mMaxPointOperations;
+    }
+
+    /**
+     * Set the maximum amount of concurrent point operations over all types,
+     * which are loads, inserts, updates and deletes of one storable, and
+     * queries for one storable. Additional operations wait to be admitted,
+     * and they fail if the admission timeout elapses. Default is zero, which
+     * is unlimited.
+     *
+     * <p>Limits apply across all servers over the same repository which are
+     * built with the same limit, such as servers built for each session.
+     *
+     * @see RemoteRepositoryServer#getPointAdmissionStatistics
+     */
+    public void setMaxConcurrentPointOperations(int max) {
+        mMaxPointOperations = checkLimit(max);
+    }
+
+    /**
+     * Returns the limit of concurrent point operations for the given type,
+     * or zero if unlimited.
+     */
+    public int getMaxConcurrentPointOperations(Class<? extends Storable> type) {
+        Integer max = mTypeMaxPointOperations.get(type);
+        return max == null ? 0 : max;
+    }
+
+    /**
+     * Set the maximum amount of concurrent point operations for the given
+     * type, which also counts against the global limit. Default is zero,
+     * which is unlimited.
+     */
+    public void setMaxConcurrentPointOperations(Class<? extends Storable> type, int max) {
+        mTypeMaxPointOperations.put(checkType(type), checkLimit(max));
+    }
+
+    /**
+     * Returns the global limit of concurrent scans, or zero if unlimited.
+     */
+    public int getMaxConcurrentScans() {
+        return mMaxScans;
+    }
+
+    /**
+     * Set the maximum amount of concurrent scans over all types, which are
+     * query fetches, counts and deletes of all matches, truncates and
+     * batches. A query fetch is admitted while it fetches each batch from its
+     * cursor, but not while it writes the batch to the client, and a batch
+     * is admitted for each chunk. Scans and point operations are
+     * limited separately, and so scans cannot starve point operations.
+     * Default is zero, which is unlimited.
+     *
+     * <p>Limits apply across all servers over the same repository which are
+     * built with the same limit, such as servers built for each session.
+     *
+     * @see RemoteRepositoryServer#getScanAdmissionStatistics
+     */
+    public void setMaxConcurrentScans(int max) {
+        mMaxScans = checkLimit(max);
+    }
+
+    /**
+     * Returns the limit of concurrent scans for the given type, or zero if
+     * unlimited.
+     */
+    public int getMaxConcurrentScans(Class<? extends Storable> type) {
+        Integer max = mTypeMaxScans.get(type);
+        return max == null ? 0 : max;
+    }
+
+    /**
+     * Set the maximum amount of concurrent scans for the given type, which
+     * also counts against the global limit. Default is zero, which is
+     * unlimited.
+     */
+    public void setMaxConcurrentScans(Class<? extends Storable> type, int max) {
+        mTypeMaxScans.put(checkType(type), checkLimit(max));
+    }
+
+    public long getAdmissionTimeout(TimeUnit unit) {
+        return unit.convert(mAdmissionTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the maximum time an operation waits to be admitted when a
+     * concurrency limit is reached, after which it fails with a
+     * FetchTimeoutException. Zero fails immediately. Default is 10 seconds.
+     */
+    public void setAdmissionTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Admission timeout cannot be negative");
+        }
+        mAdmissionTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    public int getQueryCacheSize() {
+        return mQueryCacheSize;
+    }
+
+    /**
+     * Set the maximum amount of prepared queries to cache for each session
+     * and type, keyed by filter and ordering. Repeated queries then only
+     * need to have their values applied. Least recently used queries are
+     * evicted first. Default is 256, and zero disables the cache.
+     *
+     * @see StorageMetrics#getQueryCacheHitRate
+     */
+    public void setQueryCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Query cache size cannot be negative");
+        }
+        mQueryCacheSize = size;
+    }
+
+    public int getMaxPreparedQueries() {
+        return mMaxPreparedQueries;
+    }
+
+    /**
+     * Set the maximum amount of query handles which each session can prepare
+     * for each type. Prepared queries are executed by sending only their
+     * values, and they are held until the session is closed. Once the limit
+     * is reached, clients send the full query instead. Default is 1024, and
+     * zero disables prepared queries.
+     *
+     * @see StorageMetrics#getPreparedQueryCount
+     */
+    public void setMaxPreparedQueries(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Maximum prepared queries cannot be negative");
+        }
+        mMaxPreparedQueries = max;
+    }
+
+    void copyTypeLimits(Map<Class, Integer> maxPointOperations, Map<Class, Integer> maxScans) {
+        maxPointOperations.putAll(mTypeMaxPointOperations);
+        maxScans.putAll(mTypeMaxScans);
+    }
+
+    private static int checkLimit(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Concurrency limit cannot be negative");
+        }
+        return max;
+    }
+
+    private static Class checkType(Class type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Storable type cannot be null");
+        }
+        return type;
+    }
+}
@@ -45,4 +45,14 @@ public interface RemoteSequenceValueProducer extends Remote {
 
     @RemoteFailure(exception=PersistException.class)
     boolean returnReservedValues() throws FetchException, PersistException;
+
+    /**
+     * Returns the given amount of values, as if by calling nextLongValue
+     * repeatedly. Values are reserved by the caller, which is responsible
+     * for handing them out.
+     *
+     * @param count amount of values to reserve, at least one
+     */
+    @RemoteFailure(exception=PersistException.class)
+    long[] nextLongValues(int count) throws PersistException;
 }
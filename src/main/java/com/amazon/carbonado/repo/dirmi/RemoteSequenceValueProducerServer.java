@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+
+import com.amazon.carbonado.sequence.SequenceValueProducer;
+
+/**
+ * Server-side adapter of a SequenceValueProducer, which can also reserve
+ * blocks of values for a client.
+ *
+ * @author agent
+ */
+class RemoteSequenceValueProducerServer implements RemoteSequenceValueProducer {
+    // Limits the size of a reply.
+    static final int MAX_RESERVE = 10000;
+
+    private final SequenceValueProducer mProducer;
+
+    RemoteSequenceValueProducerServer(SequenceValueProducer producer) {
+        mProducer = producer;
+    }
+
+    @Override
+    public String nextDecimalValue() throws PersistException {
+        return mProducer.nextDecimalValue();
+    }
+
+    @Override
+    public int nextIntValue() throws PersistException {
+        return mProducer.nextIntValue();
+    }
+
+    @Override
+    public long nextLongValue() throws PersistException {
+        return mProducer.nextLongValue();
+    }
+
+    @Override
+    public String nextNumericalValue(int radix, int minLength) throws PersistException {
+        return mProducer.nextNumericalValue(radix, minLength);
+    }
+
+    @Override
+    public long[] nextLongValues(int count) throws PersistException {
+        if (count <= 0 || count > MAX_RESERVE) {
+            throw new PersistException("Illegal amount of sequence values to reserve: " + count);
+        }
+        long[] values = new long[count];
+        for (int i=0; i<count; i++) {
+            values[i] = mProducer.nextLongValue();
+        }
+        return values;
+    }
+
+    @Override
+    public boolean returnReservedValues() throws FetchException, PersistException {
+        return mProducer.returnReservedValues();
+    }
+}
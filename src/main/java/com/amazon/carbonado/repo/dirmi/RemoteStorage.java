@@ -31,6 +31,7 @@ import com.amazon.carbonado.FetchException;
 import com.amazon.carbonado.PersistException;
 import com.amazon.carbonado.Query;
 
+import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
 import com.amazon.carbonado.qe.OrderingList;
@@ -49,7 +50,8 @@ import com.amazon.carbonado.qe.OrderingList;
 public interface RemoteStorage extends Remote {
     /**
      * Returns serialized storable properties, using the serialized
-     * key. Returns null if not found.
+     * key. Returns null if not found. The serialized storable need only have
+     * the primary key or an alternate key initialized.
      *
      * @param txn optional
      * @param pipe send serialized key properties
@@ -76,7 +78,7 @@ public interface RemoteStorage extends Remote {
      * properties.
      *
      * @param txn optional
-     * @param pipe send fully serialized storable
+     * @param pipe send serialized primary key, dirty and version properties
      * @return true if updated
      */
     @Asynchronous(CallMode.REQUEST_REPLY)
@@ -282,4 +284,131 @@ public interface RemoteStorage extends Remote {
 
     @RemoteFailure(exception=FetchException.class)
     Set<String> getPropertySupport(String... propertyNames) throws FetchException;
+
+    /**
+     * Registers a listener which is notified when storables are inserted,
+     * updated or deleted by any session. The listener is removed
+     * automatically when this session is closed.
+     */
+    @RemoteFailure(exception=FetchException.class)
+    void addInvalidationListener(RemoteInvalidationListener listener) throws FetchException;
+
+    /**
+     * Loads a stream of storables, using serialized keys. Keys are sent in
+     * chunks of at most 1000, each preceded by an int count, and a count of
+     * zero ends the batch. Each chunk is loaded within one transaction attachment. The
+     * server replies after each chunk with an exception or null, followed by
+     * a boolean for each key, each followed by the load response if found.
+     * Processing stops at the first exception.
+     *
+     * @param txn optional
+     * @param pipe send chunks of serialized key properties
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=FetchException.class)
+    Pipe tryLoadBatch(RemoteTransaction txn, Pipe pipe) throws FetchException;
+
+    /**
+     * Inserts a stream of serialized storables. Storables are sent in chunks
+     * of at most 1000, each preceded by an int count, and a count of zero
+     * ends the batch. The
+     * server replies after each chunk with a result byte per storable,
+     * followed by the insert response if changed. Processing stops at the
+     * first exception, which is sent as a result byte followed by the
+     * exception.
+     *
+     * @param txn optional
+     * @param pipe send chunks of fully serialized storables
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=PersistException.class)
+    Pipe tryInsertBatch(RemoteTransaction txn, Pipe pipe) throws PersistException;
+
+    /**
+     * Updates a stream of serialized storables, using the same protocol as
+     * {@link #tryInsertBatch tryInsertBatch}.
+     *
+     * @param txn optional
+     * @param pipe send chunks of serialized primary key, dirty and version
+     * properties
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=PersistException.class)
+    Pipe tryUpdateBatch(RemoteTransaction txn, Pipe pipe) throws PersistException;
+
+    /**
+     * Deletes a stream of storables, using the same protocol as {@link
+     * #tryInsertBatch tryInsertBatch}, except no response follows the result
+     * bytes.
+     *
+     * @param txn optional
+     * @param pipe send chunks of serialized key properties
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=PersistException.class)
+    Pipe tryDeleteBatch(RemoteTransaction txn, Pipe pipe) throws PersistException;
+
+    /**
+     * Prepares a query for repeated execution, returning a handle which
+     * remains valid for this session. Returns -1 if the query cannot be
+     * prepared, in which case the unprepared query methods should be used.
+     *
+     * @param filter optional unbound filter
+     * @param orderBy optional
+     */
+    @RemoteFailure(exception=FetchException.class)
+    int prepareQuery(Filter filter, OrderingList orderBy) throws FetchException;
+
+    /**
+     * Counts storables using a prepared query.
+     *
+     * @param values optional filter values, as encoded by QueryValues
+     * @param txn optional
+     * @param controller optional
+     */
+    @RemoteFailure(exception=FetchException.class)
+    long preparedCount(int handle, byte[] values, RemoteTransaction txn,
+                       Query.Controller controller)
+        throws FetchException;
+
+    /**
+     * Fetches storables using a prepared query.
+     *
+     * @param values optional filter values, as encoded by QueryValues
+     * @param from optional
+     * @param to optional
+     * @param txn optional
+     * @param controller optional
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=FetchException.class)
+    Pipe preparedFetch(int handle, byte[] values, Long from, Long to,
+                       RemoteTransaction txn, Pipe pipe, Query.Controller controller)
+        throws FetchException;
+
+    /**
+     * Fetches one storable using a prepared query.
+     *
+     * @param values optional filter values, as encoded by QueryValues
+     * @param txn optional
+     * @param controller optional
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=FetchException.class)
+    Pipe preparedLoadOne(int handle, byte[] values, RemoteTransaction txn, Pipe pipe,
+                         Query.Controller controller)
+        throws FetchException;
+
+    /**
+     * Fetches one storable using a prepared query.
+     *
+     * @param values optional filter values, as encoded by QueryValues
+     * @param txn optional
+     * @param controller optional
+     */
+    @Asynchronous(CallMode.REQUEST_REPLY)
+    @RemoteFailure(exception=FetchException.class)
+    Pipe preparedTryLoadOne(int handle, byte[] values, RemoteTransaction txn, Pipe pipe,
+                            Query.Controller controller)
+        throws FetchException;
 }
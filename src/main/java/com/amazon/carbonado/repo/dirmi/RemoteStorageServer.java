@@ -23,9 +23,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.cojen.dirmi.Pipe;
 import org.cojen.dirmi.Unreferenced;
 
@@ -39,6 +48,7 @@ import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.Storage;
 import com.amazon.carbonado.SupportException;
 
+import com.amazon.carbonado.filter.Filter;
 import com.amazon.carbonado.filter.FilterValues;
 
 import com.amazon.carbonado.qe.OrderingList;
@@ -55,58 +65,120 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
     static final byte STORABLE_CHANGED = 0;
     static final byte STORABLE_UNCHANGED = 1;
     static final byte STORABLE_CHANGE_FAILED = 2;
+    static final byte STORABLE_CHANGE_EXCEPTION = 3;
+    // Followed by a storable with only the properties changed by the server.
+    static final byte STORABLE_PARTIAL = 4;
 
     static final byte CURSOR_STORABLE = 0;
     static final byte CURSOR_EXCEPTION = 1;
     static final byte CURSOR_END = 2;
     static final byte CURSOR_START = 3;
 
-    private static final int FETCH_BATCH_SIZE = 100;
+    private static final int BATCH_INSERT = 0, BATCH_UPDATE = 1, BATCH_DELETE = 2;
+
+    // Maximum amount of storables a client can send in one batch chunk.
+    static final int MAX_BATCH_SIZE = 1000;
 
+    private final StorageServerState mState;
     private final Storage mStorage;
     private final StorableWriter mWriter;
+    private final int mProtocolVersion;
     private final boolean mWriteStartMarker;
+    // Properties compared to detect changes made by insert and update.
+    private final String[] mPropertyNames;
+    // Null if not versioned.
+    private final String mVersionName;
 
     private final UnreferencedController mUnrefController;
+    private final AtomicBoolean mUnreferenced;
 
-    RemoteStorageServer(Storage storage, StorableWriter writer, boolean writeStartMarker)
-        throws SupportException
-    {
-        mStorage = storage;
-        mWriter = writer;
-        mWriteStartMarker = writeStartMarker;
+    private final Invalidator mInvalidator;
+    // Listeners registered by this session, removed when unreferenced.
+    private final CopyOnWriteArrayList<RemoteInvalidationListener> mListeners;
 
-        UnreferencedController unrefController;
-        try {
-            unrefController = new UnreferencedController();
+    private final int mFetchByteBudget;
+    private final FetchBatchSizer.Recorder mFetchBatchRecorder;
 
-            // Check that Query.Controller feature works locally.
-            try {
-                storage.query().exists(unrefController);
-            } catch (FetchException e) {
-                // Don't worry about this right now.
-            }
-        } catch (LinkageError e) {
-            // Must be using version of Carbonado or dependency which doesn't
-            // support Query.Controller.
-            unrefController = null;
-        }
+    // Is null if compression is disabled.
+    private final CompressedStreams mStreams;
+
+    private final StorageMetrics mMetrics;
+    private final AdmissionControl mAdmission;
 
-        mUnrefController = unrefController;
+    // Queries with filter and ordering applied, but no values. Is null if disabled.
+    private final LruCache<QueryKey, Query> mQueryCache;
+
+    // Prepared queries indexed by handle, which are never evicted. Array is
+    // replaced when a query is prepared, and so it can be read without locking.
+    private volatile Query[] mPrepared;
+    // Maps prepared queries to handles; also used as the prepare lock.
+    private final Map<QueryKey, Integer> mPreparedHandles;
+    private final int mMaxPreparedQueries;
+
+    /**
+     * @param state shared by all sessions for the type and client layout
+     * @param protocolVersion client protocol version
+     * @param fetchBatchRecorder optional
+     * @param streams optional; compresses query results and decompresses write batches
+     * @param metrics required; shared by all sessions for the type
+     * @param admission required; shared by all sessions for the type
+     * @param queryCacheSize maximum amount of prepared queries to cache; zero to disable
+     * @param maxPreparedQueries maximum amount of query handles; zero to disable
+     */
+    RemoteStorageServer(StorageServerState state, int protocolVersion,
+                        Invalidator invalidator,
+                        int fetchByteBudget, FetchBatchSizer.Recorder fetchBatchRecorder,
+                        CompressedStreams streams, StorageMetrics metrics,
+                        AdmissionControl admission, int queryCacheSize,
+                        int maxPreparedQueries)
+        throws SupportException
+    {
+        mState = state;
+        mStorage = state.storage();
+        mWriter = state.writer();
+        mProtocolVersion = protocolVersion;
+        mWriteStartMarker = protocolVersion == 1;
+        mPropertyNames = state.propertyNames();
+        mVersionName = StorableWriter.versionPropertyName(mStorage.getStorableType());
+        mInvalidator = invalidator;
+        mListeners = new CopyOnWriteArrayList<RemoteInvalidationListener>();
+        mFetchByteBudget = fetchByteBudget;
+        mFetchBatchRecorder = fetchBatchRecorder;
+        mStreams = streams;
+        mMetrics = metrics;
+        mAdmission = admission;
+        mQueryCache = queryCacheSize <= 0 ? null : new LruCache<QueryKey, Query>(queryCacheSize);
+        mPrepared = new Query[0];
+        mPreparedHandles = new HashMap<QueryKey, Integer>();
+        mMaxPreparedQueries = maxPreparedQueries;
+
+        // Feature was checked once for all sessions.
+        mUnrefController = state.isControllerSupported() ? new UnreferencedController() : null;
+
+        mUnreferenced = new AtomicBoolean();
+        metrics.sessionOpened();
     }
 
     @Override
     public Pipe tryLoad(RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingInputStream in = new CountingInputStream(pipe.getInputStream());
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         try {
             Storable s = mStorage.prepare();
             try {
-                s.readFrom(pipe.getInputStream());
+                s.readFrom(in);
             } catch (Throwable e) {
+                // Nothing to detach.
+                txn = null;
                 pipe.writeThrowable(e);
                 return null;
             }
 
-            if (attachFetch(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachFetch(txn, pipe)) {
                 boolean loaded;
                 try {
                     loaded = s.tryLoad();
@@ -114,12 +186,13 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                     pipe.writeThrowable(e);
                     return null;
                 }
-                
+
+                success = true;
                 pipe.writeThrowable(null);
                 
                 if (loaded) {
                     pipe.writeBoolean(true);
-                    mWriter.writeLoadResponse(s, pipe.getOutputStream());
+                    mWriter.writeLoadResponse(s, out);
                 } else {
                     pipe.writeBoolean(false);
                 }
@@ -127,16 +200,20 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                 txn = null;
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } catch (SupportException e) {
-            // Ignore. 
+            mMetrics.droppedSupportError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.TRY_LOAD, start, success, in, out);
         }
 
         return null;
@@ -144,16 +221,25 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
 
     @Override
     public Pipe tryInsert(RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingInputStream in = new CountingInputStream(pipe.getInputStream());
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         try {
             Storable s = mStorage.prepare();
             try {
-                s.readFrom(pipe.getInputStream());
+                s.readFrom(in);
             } catch (Throwable e) {
+                // Nothing to detach.
+                txn = null;
                 pipe.writeThrowable(e);
                 return null;
             }
 
-            if (attachPersist(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachPersist(txn, pipe)) {
+                Storable before = s.copy();
                 boolean inserted;
                 try {
                     inserted = s.tryInsert();
@@ -161,13 +247,13 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                     pipe.writeThrowable(e);
                     return null;
                 }
-                
+
+                success = true;
                 pipe.writeThrowable(null);
                 
                 if (inserted) {
-                    // TODO: As an optimization, pass nothing back if unchanged
-                    pipe.write(STORABLE_CHANGED);
-                    mWriter.writeInsertResponse(s, pipe.getOutputStream());
+                    mInvalidator.invalidate(s, txn);
+                    writePersistResponse(true, before, s, out);
                 } else {
                     pipe.write(STORABLE_CHANGE_FAILED);
                 }
@@ -175,16 +261,20 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                 txn = null;
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } catch (SupportException e) {
-            // Ignore.
+            mMetrics.droppedSupportError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.TRY_INSERT, start, success, in, out);
         }
 
         return null;
@@ -192,16 +282,25 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
 
     @Override
     public Pipe tryUpdate(RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingInputStream in = new CountingInputStream(pipe.getInputStream());
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         try {
             Storable s = mStorage.prepare();
             try {
-                s.readFrom(pipe.getInputStream());
+                s.readFrom(in);
             } catch (Throwable e) {
+                // Nothing to detach.
+                txn = null;
                 pipe.writeThrowable(e);
                 return null;
             }
 
-            if (attachPersist(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachPersist(txn, pipe)) {
+                Storable before = s.copy();
                 boolean updated;
                 try {
                     updated = s.tryUpdate();
@@ -209,13 +308,13 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                     pipe.writeThrowable(e);
                     return null;
                 }
-                
+
+                success = true;
                 pipe.writeThrowable(null);
                 
                 if (updated) {
-                    // TODO: As an optimization, pass nothing back if unchanged
-                    pipe.write(STORABLE_CHANGED);
-                    mWriter.writeUpdateResponse(s, pipe.getOutputStream());
+                    mInvalidator.invalidate(s, txn);
+                    writePersistResponse(false, before, s, out);
                 } else {
                     pipe.write(STORABLE_CHANGE_FAILED);
                 }
@@ -223,16 +322,20 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                 txn = null;
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } catch (SupportException e) {
-            // Ignore.
+            mMetrics.droppedSupportError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.TRY_UPDATE, start, success, in, out);
         }
 
         return null;
@@ -240,16 +343,24 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
 
     @Override
     public Pipe tryDelete(RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingInputStream in = new CountingInputStream(pipe.getInputStream());
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         try {
             Storable s = mStorage.prepare();
             try {
-                s.readFrom(pipe.getInputStream());
+                s.readFrom(in);
             } catch (Throwable e) {
+                // Nothing to detach.
+                txn = null;
                 pipe.writeThrowable(e);
                 return null;
             }
 
-            if (attachPersist(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachPersist(txn, pipe)) {
                 boolean deleted;
                 try {
                     deleted = s.tryDelete();
@@ -257,26 +368,352 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                     pipe.writeThrowable(e);
                     return null;
                 }
+
+                success = true;
                 
+                if (deleted) {
+                    mInvalidator.invalidate(s, txn);
+                }
+
                 pipe.writeThrowable(null);
                 pipe.writeBoolean(deleted);
             } else {
                 txn = null;
             } 
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
+            try {
+                pipe.close();
+            } catch (IOException e) {
+                mMetrics.droppedIOError();
+            }
+            record(StorageMetrics.Operation.TRY_DELETE, start, success, in, out);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Pipe tryLoadBatch(RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        CountingInputStream in = new CountingInputStream(pipe.getInputStream());
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
+        try {
+            Storable[] batch = new Storable[0];
+            boolean[] loaded = new boolean[0];
+
+            int size;
+            while ((size = pipe.readInt()) != 0) {
+                if (size < 0 || size > MAX_BATCH_SIZE) {
+                    pipe.writeThrowable(new FetchException("Illegal batch size: " + size));
+                    return null;
+                }
+
+                if (size > batch.length) {
+                    batch = new Storable[size];
+                    loaded = new boolean[size];
+                }
+
+                try {
+                    for (int i=0; i<size; i++) {
+                        Storable s = mStorage.prepare();
+                        s.readFrom(in);
+                        batch[i] = s;
+                    }
+                } catch (Throwable e) {
+                    pipe.writeThrowable(e);
+                    return null;
+                }
+
+                if (!enterScan(pipe)) {
+                    return null;
+                }
+
+                try {
+                    if (!attachFetch(txn, pipe)) {
+                        return null;
+                    }
+
+                    try {
+                        for (int i=0; i<size; i++) {
+                            loaded[i] = batch[i].tryLoad();
+                        }
+                    } catch (Throwable e) {
+                        pipe.writeThrowable(e);
+                        return null;
+                    } finally {
+                        detach(txn);
+                    }
+                } finally {
+                    // Don't hold the permit while writing the responses.
+                    mAdmission.exitScan();
+                }
+
+                pipe.writeThrowable(null);
+
+                for (int i=0; i<size; i++) {
+                    if (loaded[i]) {
+                        pipe.writeBoolean(true);
+                        mWriter.writeLoadResponse(batch[i], out);
+                    } else {
+                        pipe.writeBoolean(false);
+                    }
+                    batch[i] = null;
+                }
+
+                pipe.flush();
+            }
+
+            success = true;
+        } catch (IOException e) {
+            mMetrics.droppedIOError();
+        } catch (SupportException e) {
+            mMetrics.droppedSupportError();
+        } finally {
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.LOAD_BATCH, start, success, in, out);
         }
 
         return null;
     }
 
+    @Override
+    public Pipe tryInsertBatch(RemoteTransaction txn, Pipe pipe) {
+        persistBatch(BATCH_INSERT, txn, pipe);
+        return null;
+    }
+
+    @Override
+    public Pipe tryUpdateBatch(RemoteTransaction txn, Pipe pipe) {
+        persistBatch(BATCH_UPDATE, txn, pipe);
+        return null;
+    }
+
+    @Override
+    public Pipe tryDeleteBatch(RemoteTransaction txn, Pipe pipe) {
+        persistBatch(BATCH_DELETE, txn, pipe);
+        return null;
+    }
+
+    private void persistBatch(int op, RemoteTransaction txn, Pipe pipe) {
+        long start = System.nanoTime();
+        boolean success = false;
+        CompressedInputStream cin = null;
+        CountingInputStream in = null;
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
+        try {
+            if (mStreams == null) {
+                in = new CountingInputStream(pipe.getInputStream());
+            } else {
+                // Only the storables are compressed, and not the chunk sizes.
+                cin = mStreams.input(pipe.getInputStream());
+                in = new CountingInputStream(cin);
+            }
+
+            Storable[] batch = new Storable[0];
+            Storable[] befores = new Storable[0];
+            byte[] results = new byte[0];
+
+            int size;
+            while ((size = pipe.readInt()) != 0) {
+                if (size < 0 || size > MAX_BATCH_SIZE) {
+                    out.write(STORABLE_CHANGE_EXCEPTION);
+                    pipe.writeThrowable(new PersistException("Illegal batch size: " + size));
+                    return;
+                }
+
+                if (size > batch.length) {
+                    batch = new Storable[size];
+                    befores = new Storable[size];
+                    results = new byte[size];
+                }
+
+                int count = 0;
+                Throwable ex = null;
+                boolean admitted = false;
+
+                try {
+                    for (int i=0; i<size; i++) {
+                        Storable s = mStorage.prepare();
+                        s.readFrom(in);
+                        batch[i] = s;
+                        if (op != BATCH_DELETE) {
+                            befores[i] = s.copy();
+                        }
+                    }
+
+                    // Only attach while persisting the chunk, and not while
+                    // blocked on the pipe, so that other threads can use the
+                    // transaction. Admission is likewise held per chunk.
+                    mAdmission.enterScan();
+                    admitted = true;
+                    attachPersist(txn);
+                    try {
+                        for (; count<size; count++) {
+                            Storable s = batch[count];
+                            boolean changed;
+                            switch (op) {
+                            case BATCH_INSERT:
+                                changed = s.tryInsert();
+                                break;
+                            case BATCH_UPDATE:
+                                changed = s.tryUpdate();
+                                break;
+                            default:
+                                changed = s.tryDelete();
+                                break;
+                            }
+                            if (changed) {
+                                mInvalidator.invalidate(s, txn);
+                                results[count] = STORABLE_CHANGED;
+                            } else {
+                                results[count] = STORABLE_CHANGE_FAILED;
+                            }
+                        }
+                    } finally {
+                        detach(txn);
+                    }
+                } catch (Throwable e) {
+                    ex = e;
+                } finally {
+                    if (admitted) {
+                        mAdmission.exitScan();
+                    }
+                }
+
+                for (int i=0; i<count; i++) {
+                    byte result = results[i];
+                    if (result == STORABLE_CHANGED && op != BATCH_DELETE) {
+                        writePersistResponse(op == BATCH_INSERT, befores[i], batch[i], out);
+                    } else {
+                        out.write(result);
+                    }
+                }
+
+                for (int i=0; i<size; i++) {
+                    batch[i] = null;
+                    befores[i] = null;
+                }
+
+                if (ex != null) {
+                    out.write(STORABLE_CHANGE_EXCEPTION);
+                    pipe.writeThrowable(ex);
+                    return;
+                }
+
+                pipe.flush();
+            }
+
+            success = true;
+        } catch (IOException e) {
+            mMetrics.droppedIOError();
+        } catch (SupportException e) {
+            mMetrics.droppedSupportError();
+        } finally {
+            if (cin != null) {
+                cin.end();
+            }
+            try {
+                pipe.close();
+            } catch (IOException e) {
+                mMetrics.droppedIOError();
+            }
+            StorageMetrics.Operation metricsOp;
+            switch (op) {
+            case BATCH_INSERT:
+                metricsOp = StorageMetrics.Operation.INSERT_BATCH;
+                break;
+            case BATCH_UPDATE:
+                metricsOp = StorageMetrics.Operation.UPDATE_BATCH;
+                break;
+            default:
+                metricsOp = StorageMetrics.Operation.DELETE_BATCH;
+                break;
+            }
+            record(metricsOp, start, success, in, out);
+        }
+    }
+
+    /**
+     * Writes the result code and response for a successful insert or update,
+     * sending only the properties which were changed by the server.
+     *
+     * @param before copy of storable made before it was persisted
+     */
+    private void writePersistResponse(boolean insert, Storable before, Storable s,
+                                      OutputStream out)
+        throws IOException, SupportException
+    {
+        List<String> changed = changedProperties(insert, before, s);
+
+        if (changed.isEmpty()) {
+            out.write(STORABLE_UNCHANGED);
+        } else if (mProtocolVersion <= -2) {
+            out.write(STORABLE_PARTIAL);
+            mWriter.writePartialResponse(s, changed, out);
+        } else {
+            // Client is too old to understand a partial response.
+            out.write(STORABLE_CHANGED);
+            if (insert) {
+                mWriter.writeInsertResponse(s, out);
+            } else {
+                mWriter.writeUpdateResponse(s, out);
+            }
+        }
+    }
+
+    private List<String> changedProperties(boolean insert, Storable before, Storable after) {
+        List<String> changed = null;
+        for (String name : mPropertyNames) {
+            if (after.isPropertyUninitialized(name)) {
+                continue;
+            }
+            boolean isChanged;
+            if (before.isPropertyUninitialized(name)) {
+                // An update only sends some of the properties, and the rest
+                // are loaded by the server. They're not changes, except for
+                // the version, which the server sets.
+                isChanged = insert || name.equals(mVersionName);
+            } else {
+                isChanged = !equalValues(before.getPropertyValue(name),
+                                         after.getPropertyValue(name));
+            }
+            if (isChanged) {
+                if (changed == null) {
+                    changed = new ArrayList<String>();
+                }
+                changed.add(name);
+            }
+        }
+        if (changed == null) {
+            return Collections.emptyList();
+        }
+        return changed;
+    }
+
+    private static boolean equalValues(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a.getClass().isArray()) {
+            return Arrays.deepEquals(new Object[] {a}, new Object[] {b});
+        }
+        return a.equals(b);
+    }
+
     @Override
     public long queryCount(FilterValues fv, RemoteTransaction txn) throws FetchException {
         return queryCount(fv, txn, null);
@@ -287,12 +724,36 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                            Query.Controller controller)
         throws FetchException
     {
-        controller = createController(controller);
-        attachFetch(txn);
+        return count(fv, null, null, txn, controller);
+    }
+
+    /**
+     * @param handle prepared query handle; if null, query is built from fv
+     */
+    private long count(FilterValues fv, Integer handle, byte[] values,
+                       RemoteTransaction txn, Query.Controller controller)
+        throws FetchException
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
         try {
-            return buildQuery(fv, null).count(controller);
+            controller = createController(controller);
+            mAdmission.enterScan();
+            admitted = true;
+            attachFetch(txn);
+            try {
+                long count = resolveQuery(fv, null, handle, values).count(controller);
+                success = true;
+                return count;
+            } finally {
+                detach(txn);
+            }
         } finally {
-            detach(txn);
+            if (admitted) {
+                mAdmission.exitScan();
+            }
+            mMetrics.record(StorageMetrics.Operation.QUERY_COUNT, start, success);
         }
     }
 
@@ -308,13 +769,39 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                            RemoteTransaction txn, Pipe pipe,
                            Query.Controller controller)
     {
+        return fetch(fv, orderBy, null, null, from, to, txn, pipe, controller);
+    }
+
+    /**
+     * @param handle prepared query handle; if null, query is built from fv and orderBy
+     */
+    private Pipe fetch(FilterValues fv, OrderingList orderBy, Integer handle, byte[] values,
+                       Long from, Long to, RemoteTransaction txn, Pipe pipe,
+                       Query.Controller controller)
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        long rows = 0;
+        long bytes = 0;
+        boolean admitted = false;
         controller = createController(controller);
+        CompressedOutputStream cout = null;
         try {
             OutputStream out = pipe.getOutputStream();
+            if (mStreams != null) {
+                out = cout = mStreams.output(out);
+            }
             try {
-                Query query = buildQuery(fv, orderBy);
+                Query query = resolveQuery(fv, orderBy, handle, values);
                 Cursor cursor;
 
+                // Admitted while fetching from the cursor, but not while
+                // blocked on the pipe. Otherwise, a few slow readers could
+                // hold every permit, and a client which iterates a nested
+                // query would wait for a permit it holds itself.
+                mAdmission.enterScan();
+                admitted = true;
+
                 attachFetch(txn);
                 try {
                     if (from == null) {
@@ -336,16 +823,25 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                         // while fetching from the cursor. Detach cursor from
                         // thread while writing over pipe, which is a blocking
                         // operation. To reduce overhead of attach/detach,
-                        // operate over batches.
+                        // operate over batches, sized to fit a byte budget.
 
-                        final Storable[] batch = new Storable[FETCH_BATCH_SIZE];
+                        final FetchBatchSizer sizer =
+                            new FetchBatchSizer(mFetchByteBudget, mFetchBatchRecorder);
+                        final CountingOutputStream counter = new CountingOutputStream(out);
                         final RemoteTransaction originalTxn = txn;
 
+                        Storable[] batch = new Storable[sizer.batchSize()];
+
                         while (true) {
+                            int limit = sizer.batchSize();
+                            if (limit > batch.length) {
+                                batch = new Storable[limit];
+                            }
+
                             int size = 0;
                             while (cursor.hasNext()) {
                                 batch[size++] = (Storable) cursor.next();
-                                if (size >= batch.length) {
+                                if (size >= limit) {
                                     break;
                                 }
                             }
@@ -359,19 +855,40 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                             // block from functioning.
                             detach(txn);
                             txn = null;
+                            mAdmission.exitScan();
+                            admitted = false;
+
+                            long batchStart = System.nanoTime();
+                            counter.resetCount();
 
                             for (int i=0; i<size; i++) {
-                                out.write(CURSOR_STORABLE);
-                                mWriter.writeLoadResponse(batch[i], out);
+                                counter.write(CURSOR_STORABLE);
+                                mWriter.writeLoadResponse(batch[i], counter);
                                 batch[i] = null;
                             }
 
-                            if (size < batch.length) {
-                                // Incomplete batch because cursor has finished.
+                            // Incomplete batch because cursor has finished.
+                            boolean finished = size < limit;
+
+                            if (!finished) {
+                                // Send the batch now, rather than when the
+                                // buffer fills up. Flushing blocks while the
+                                // client is slow to read, and so it's part of
+                                // the time given to the sizer.
+                                out.flush();
+                            }
+
+                            rows += size;
+                            bytes += counter.getCount();
+                            sizer.written(size, counter.getCount(), System.nanoTime() - batchStart);
+
+                            if (finished) {
                                 break;
                             }
 
-                            // Re-attach and fetch another batch.
+                            // Re-admit, re-attach and fetch another batch.
+                            mAdmission.enterScan();
+                            admitted = true;
                             attachFetch(originalTxn);
                             txn = originalTxn;
                         }
@@ -383,20 +900,38 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                 }
 
                 out.write(CURSOR_END);
+                success = true;
             } catch (IOException e) {
                 throw e;
             } catch (Exception e) {
                 out.write(CURSOR_EXCEPTION);
+                if (cout != null) {
+                    // Exception isn't compressed.
+                    cout.finish();
+                }
                 pipe.writeThrowable(e);
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } finally {
+            if (cout != null) {
+                try {
+                    cout.finish();
+                } catch (IOException e) {
+                    mMetrics.droppedIOError();
+                }
+            }
+            if (admitted) {
+                mAdmission.exitScan();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Don't care.
+                mMetrics.droppedIOError();
             }
+            mMetrics.bytesOut(bytes);
+            mMetrics.cursorRows(rows);
+            mMetrics.record(StorageMetrics.Operation.QUERY_FETCH, start, success);
         }
         return null;
     }
@@ -410,33 +945,52 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
     public Pipe queryLoadOne(FilterValues fv, RemoteTransaction txn, Pipe pipe,
                              Query.Controller controller)
     {
+        return loadOne(fv, null, null, txn, pipe, controller);
+    }
+
+    /**
+     * @param handle prepared query handle; if null, query is built from fv
+     */
+    private Pipe loadOne(FilterValues fv, Integer handle, byte[] values,
+                         RemoteTransaction txn, Pipe pipe, Query.Controller controller)
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         controller = createController(controller);
         try {
-            if (attachFetch(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachFetch(txn, pipe)) {
                 Storable s;
                 try {
-                    s = buildQuery(fv, null).loadOne(controller);
+                    s = resolveQuery(fv, null, handle, values).loadOne(controller);
                 } catch (Throwable e) {
                     pipe.writeThrowable(e);
                     return null;
                 }
-                
+
+                success = true;
                 pipe.writeThrowable(null);
-                mWriter.writeLoadResponse(s, pipe.getOutputStream());
+                mWriter.writeLoadResponse(s, out);
             } else {
                 txn = null;
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } catch (SupportException e) {
-            // Ignore.
+            mMetrics.droppedSupportError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.QUERY_LOAD_ONE, start, success, null, out);
         }
 
         return null;
@@ -451,22 +1005,37 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
     public Pipe queryTryLoadOne(FilterValues fv, RemoteTransaction txn, Pipe pipe,
                                 Query.Controller controller)
     {
+        return tryLoadOne(fv, null, null, txn, pipe, controller);
+    }
+
+    /**
+     * @param handle prepared query handle; if null, query is built from fv
+     */
+    private Pipe tryLoadOne(FilterValues fv, Integer handle, byte[] values,
+                            RemoteTransaction txn, Pipe pipe, Query.Controller controller)
+    {
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
+        CountingOutputStream out = new CountingOutputStream(pipe.getOutputStream());
         controller = createController(controller);
         try {
-            if (attachFetch(txn, pipe)) {
+            admitted = enterPoint(pipe);
+            if (admitted && attachFetch(txn, pipe)) {
                 Storable s;
                 try {
-                    s = buildQuery(fv, null).tryLoadOne(controller);
+                    s = resolveQuery(fv, null, handle, values).tryLoadOne(controller);
                 } catch (Throwable e) {
                     pipe.writeThrowable(e);
                     return null;
                 }
-                
+
+                success = true;
                 pipe.writeThrowable(null);
                 
                 if (s != null) {
                     pipe.writeBoolean(true);
-                    mWriter.writeLoadResponse(s, pipe.getOutputStream());
+                    mWriter.writeLoadResponse(s, out);
                 } else {
                     pipe.writeBoolean(false);
                 }
@@ -474,16 +1043,20 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                 txn = null;
             }
         } catch (IOException e) {
-            // Ignore.
+            mMetrics.droppedIOError();
         } catch (SupportException e) {
-            // Ignore.
+            mMetrics.droppedSupportError();
         } finally {
             detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
             try {
                 pipe.close();
             } catch (IOException e) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
+            record(StorageMetrics.Operation.QUERY_TRY_LOAD_ONE, start, success, null, out);
         }
 
         return null;
@@ -501,13 +1074,27 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                                Query.Controller controller)
         throws FetchException, PersistException
     {
-        controller = createController(controller);
-        attachPersist(txn);
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
         try {
-            Query query = buildQuery(fv, null);
-            query.deleteOne(controller);
+            controller = createController(controller);
+            mAdmission.enterPoint();
+            admitted = true;
+            attachPersist(txn);
+            try {
+                Query query = buildQuery(fv, null);
+                query.deleteOne(controller);
+                success = true;
+                mInvalidator.invalidateAll(txn);
+            } finally {
+                detach(txn);
+            }
         } finally {
-            detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
+            mMetrics.record(StorageMetrics.Operation.QUERY_DELETE_ONE, start, success);
         }
     }
 
@@ -523,13 +1110,30 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                                      Query.Controller controller)
         throws FetchException, PersistException
     {
-        controller = createController(controller);
-        attachPersist(txn);
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
         try {
-            Query query = buildQuery(fv, null);
-            return query.tryDeleteOne(controller);
+            controller = createController(controller);
+            mAdmission.enterPoint();
+            admitted = true;
+            attachPersist(txn);
+            try {
+                Query query = buildQuery(fv, null);
+                boolean deleted = query.tryDeleteOne(controller);
+                success = true;
+                if (deleted) {
+                    mInvalidator.invalidateAll(txn);
+                }
+                return deleted;
+            } finally {
+                detach(txn);
+            }
         } finally {
-            detach(txn);
+            if (admitted) {
+                mAdmission.exitPoint();
+            }
+            mMetrics.record(StorageMetrics.Operation.QUERY_TRY_DELETE_ONE, start, success);
         }
     }
 
@@ -545,12 +1149,26 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
                                Query.Controller controller)
         throws FetchException, PersistException
     {
-        controller = createController(controller);
-        attachPersist(txn);
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
         try {
-            buildQuery(fv, null).deleteAll(controller);
+            controller = createController(controller);
+            mAdmission.enterScan();
+            admitted = true;
+            attachPersist(txn);
+            try {
+                buildQuery(fv, null).deleteAll(controller);
+                success = true;
+                mInvalidator.invalidateAll(txn);
+            } finally {
+                detach(txn);
+            }
         } finally {
-            detach(txn);
+            if (admitted) {
+                mAdmission.exitScan();
+            }
+            mMetrics.record(StorageMetrics.Operation.QUERY_DELETE_ALL, start, success);
         }
     }
 
@@ -588,36 +1206,117 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
 
     @Override
     public void truncate(RemoteTransaction txn) throws PersistException {
-        attachPersist(txn);
+        long start = System.nanoTime();
+        boolean success = false;
+        boolean admitted = false;
         try {
-            mStorage.truncate();
+            try {
+                mAdmission.enterScan();
+            } catch (FetchException e) {
+                throw e.toPersistException();
+            }
+            admitted = true;
+            attachPersist(txn);
+            try {
+                mStorage.truncate();
+                success = true;
+                mInvalidator.invalidateAll(txn);
+            } finally {
+                detach(txn);
+            }
         } finally {
-            detach(txn);
+            if (admitted) {
+                mAdmission.exitScan();
+            }
+            mMetrics.record(StorageMetrics.Operation.TRUNCATE, start, success);
         }
     }
 
     @Override
     public Set<String> getPropertySupport(String... propertyNames) {
-        Storable s = mStorage.prepare();
-        Set<String> supported = null;
-        for (int i=0; i<propertyNames.length; i++) {
-            if (s.isPropertySupported(propertyNames[i])) {
-                if (supported == null) {
-                    supported = new HashSet<String>();
-                }
-                supported.add(propertyNames[i]);
+        return mState.propertySupport(propertyNames);
+    }
+
+    @Override
+    public void addInvalidationListener(RemoteInvalidationListener listener) {
+        if (listener != null) {
+            mListeners.add(listener);
+            mInvalidator.addListener(listener);
+        }
+    }
+
+    @Override
+    public int prepareQuery(Filter filter, OrderingList orderBy) throws FetchException {
+        if (mMaxPreparedQueries <= 0) {
+            return -1;
+        }
+
+        QueryKey key = new QueryKey(filter, orderBy);
+
+        synchronized (mPreparedHandles) {
+            Integer handle = mPreparedHandles.get(key);
+            if (handle != null) {
+                return handle;
             }
+
+            Query[] prepared = mPrepared;
+            if (prepared.length >= mMaxPreparedQueries) {
+                return -1;
+            }
+
+            Query query = newQuery(key);
+
+            Query[] newPrepared = new Query[prepared.length + 1];
+            System.arraycopy(prepared, 0, newPrepared, 0, prepared.length);
+            newPrepared[prepared.length] = query;
+            mPrepared = newPrepared;
+
+            mPreparedHandles.put(key, prepared.length);
+            mMetrics.queryPrepared();
+
+            return prepared.length;
         }
-        return supported;
+    }
+
+    @Override
+    public long preparedCount(int handle, byte[] values, RemoteTransaction txn,
+                              Query.Controller controller)
+        throws FetchException
+    {
+        return count(null, handle, values, txn, controller);
+    }
+
+    @Override
+    public Pipe preparedFetch(int handle, byte[] values, Long from, Long to,
+                              RemoteTransaction txn, Pipe pipe, Query.Controller controller)
+    {
+        return fetch(null, null, handle, values, from, to, txn, pipe, controller);
+    }
+
+    @Override
+    public Pipe preparedLoadOne(int handle, byte[] values, RemoteTransaction txn, Pipe pipe,
+                                Query.Controller controller)
+    {
+        return loadOne(null, handle, values, txn, pipe, controller);
+    }
+
+    @Override
+    public Pipe preparedTryLoadOne(int handle, byte[] values, RemoteTransaction txn, Pipe pipe,
+                                   Query.Controller controller)
+    {
+        return tryLoadOne(null, handle, values, txn, pipe, controller);
     }
 
     private void attachFetch(RemoteTransaction txn) throws FetchException {
         if (txn != null) {
+            long start = System.nanoTime();
+            int result;
             try {
-                ((RemoteTransactionServer) txn).attach();
+                result = ((RemoteTransactionServer) txn).attach();
             } catch (ClassCastException e) {
                 throw new FetchException(ClientStorage.TXN_INVALID_MSG);
             }
+            mMetrics.attached(result, System.nanoTime() - start);
         }
     }
 
@@ -637,7 +1336,7 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
             try {
                 pipe.writeThrowable(e);
             } catch (IOException e2) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
             return false;
         }
@@ -646,11 +1345,14 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
 
     private void attachPersist(RemoteTransaction txn) throws PersistException {
         if (txn != null) {
+            long start = System.nanoTime();
+            int result;
             try {
-                ((RemoteTransactionServer) txn).attach();
+                result = ((RemoteTransactionServer) txn).attach();
             } catch (ClassCastException e) {
                 throw new PersistException(ClientStorage.TXN_INVALID_MSG);
             }
+            mMetrics.attached(result, System.nanoTime() - start);
         }
     }
 
@@ -670,13 +1372,47 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
             try {
                 pipe.writeThrowable(e);
             } catch (IOException e2) {
-                // Ignore.
+                mMetrics.droppedIOError();
             }
             return false;
         }
         return true;
     }
 
+    /**
+     * @return true if admitted, false if exception was written to pipe
+     */
+    private boolean enterPoint(Pipe pipe) {
+        try {
+            mAdmission.enterPoint();
+        } catch (FetchException e) {
+            writeRejection(e, pipe);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if admitted, false if exception was written to pipe
+     */
+    private boolean enterScan(Pipe pipe) {
+        try {
+            mAdmission.enterScan();
+        } catch (FetchException e) {
+            writeRejection(e, pipe);
+            return false;
+        }
+        return true;
+    }
+
+    private void writeRejection(FetchException e, Pipe pipe) {
+        try {
+            pipe.writeThrowable(e);
+        } catch (IOException e2) {
+            mMetrics.droppedIOError();
+        }
+    }
+
     /**
      * Detach does not need to check for a ClassCastException because the same
      * transaction is being operated upon. The check that the transaction is
@@ -690,13 +1426,78 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
         }
     }
 
+    /**
+     * @param in optional
+     * @param out optional
+     */
+    private void record(StorageMetrics.Operation op, long start, boolean success,
+                        CountingInputStream in, CountingOutputStream out)
+    {
+        if (in != null) {
+            mMetrics.bytesIn(in.getCount());
+        }
+        if (out != null) {
+            mMetrics.bytesOut(out.getCount());
+        }
+        mMetrics.record(op, start, success);
+    }
+
+    /**
+     * @param handle prepared query handle; if null, query is built from fv and orderBy
+     * @param values encoded values for prepared query
+     */
+    private Query resolveQuery(FilterValues fv, OrderingList orderBy,
+                               Integer handle, byte[] values)
+        throws FetchException
+    {
+        if (handle == null) {
+            return buildQuery(fv, orderBy);
+        }
+
+        Query[] prepared = mPrepared;
+        int index = handle;
+        if (index < 0 || index >= prepared.length) {
+            throw new FetchException("Unknown prepared query handle: " + index);
+        }
+
+        Object[] decoded;
+        try {
+            decoded = QueryValues.decode(values);
+        } catch (IOException e) {
+            throw new FetchException(e);
+        }
+
+        return prepared[index].withValues(decoded);
+    }
+
     private Query buildQuery(FilterValues fv, OrderingList orderBy) throws FetchException {
+        QueryKey key = new QueryKey(fv == null ? null : fv.getFilter(), orderBy);
+
         Query query;
-        if (fv == null) {
-            query = mStorage.query();
+        if (mQueryCache == null) {
+            query = newQuery(key);
         } else {
-            query = mStorage.query(fv.getFilter()).withValues(fv.getSuppliedValues());
+            query = mQueryCache.get(key);
+            if (query != null) {
+                mMetrics.queryCacheHit();
+            } else {
+                mMetrics.queryCacheMiss();
+                query = newQuery(key);
+                // Queries are immutable, and so they can be shared by threads.
+                mQueryCache.put(key, query);
+            }
         }
+
+        return fv == null ? query : query.withValues(fv.getSuppliedValues());
+    }
+
+    /**
+     * Returns a query with the filter and ordering applied, but no values.
+     */
+    private Query newQuery(QueryKey key) throws FetchException {
+        Filter filter = key.getFilter();
+        OrderingList orderBy = key.getOrderBy();
+        Query query = filter == null ? mStorage.query() : mStorage.query(filter);
         if (orderBy != null && orderBy.size() > 0) {
             int length = orderBy.size();
             String[] orderByNames = new String[length];
@@ -725,5 +1526,12 @@ class RemoteStorageServer implements RemoteStorage, Unreferenced {
         if (unrefController != null) {
             unrefController.mUnreferenced = true;
         }
+        for (RemoteInvalidationListener listener : mListeners) {
+            mInvalidator.removeListener(listener);
+        }
+        mListeners.clear();
+        if (mUnreferenced.compareAndSet(false, true)) {
+            mMetrics.sessionClosed();
+        }
     }
 }
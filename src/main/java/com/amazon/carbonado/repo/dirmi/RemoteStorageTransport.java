@@ -18,6 +18,8 @@
 
 package com.amazon.carbonado.repo.dirmi;
 
+import java.util.Set;
+
 import com.amazon.carbonado.Storable;
 
 import com.amazon.carbonado.layout.Layout;
@@ -32,6 +34,14 @@ public class RemoteStorageTransport extends StorableTypeTransport {
 
     private final RemoteStorage mStorage;
 
+    // Zero if the server doesn't support compression, or if it's disabled.
+    // Older servers don't send these fields, and so they read as zero.
+    private final int mCompressionThreshold;
+    private final int mCompressionLevel;
+
+    // Supported properties, which is null if not sent by the server.
+    private final Set<String> mSupportedProperties;
+
     RemoteStorageTransport(Class<? extends Storable> type, Layout layout, RemoteStorage storage) {
         super(type, layout);
         mStorage = storage;
@@ -40,11 +50,52 @@ public class RemoteStorageTransport extends StorableTypeTransport {
     RemoteStorageTransport(int protocolVersion,
                            Class<? extends Storable> type, Layout layout, RemoteStorage storage)
     {
-        super(protocolVersion, type, layout);
+        this(protocolVersion, type, layout, storage, 0, 0, null, null, false);
+    }
+
+    /**
+     * @param compressionThreshold minimum block size to compress; zero if
+     * compression is disabled
+     * @param compressionLevel Deflater compression level
+     * @param supported optional set of supported properties, which must be serializable
+     * @param fingerprint optional fingerprint of the given layout
+     * @param omitLayout when true, only the fingerprint is written, and so
+     * the client must already have the layout
+     */
+    RemoteStorageTransport(int protocolVersion,
+                           Class<? extends Storable> type, Layout layout, RemoteStorage storage,
+                           int compressionThreshold, int compressionLevel,
+                           Set<String> supported,
+                           LayoutFingerprint fingerprint, boolean omitLayout)
+    {
+        super(protocolVersion, type, layout, fingerprint, null, omitLayout);
         mStorage = storage;
+        mCompressionThreshold = compressionThreshold;
+        mCompressionLevel = compressionLevel;
+        mSupportedProperties = supported;
     }
 
     RemoteStorage getRemoteStorage() {
         return mStorage;
     }
+
+    /**
+     * Returns the minimum block size to compress, or zero if query results
+     * and write batches are not compressed.
+     */
+    int getCompressionThreshold() {
+        return mCompressionThreshold;
+    }
+
+    int getCompressionLevel() {
+        return mCompressionLevel;
+    }
+
+    /**
+     * Returns the supported properties of the storage, or null if the
+     * server didn't send them.
+     */
+    Set<String> getSupportedProperties() {
+        return mSupportedProperties;
+    }
 }
@@ -1,130 +1,264 @@
-/*
- * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
- * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
- * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.amazon.carbonado.repo.dirmi;
-
-import java.rmi.server.Unreferenced;
-
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
-
-import com.amazon.carbonado.IsolationLevel;
-import com.amazon.carbonado.PersistException;
-import com.amazon.carbonado.Transaction;
-
-/**
- * 
- *
- * @author Brian S O'Neill
- */
-class RemoteTransactionServer extends AbstractQueuedSynchronizer
-    implements RemoteTransaction, Unreferenced
-{
-    private volatile Transaction mTxn;
-
-    RemoteTransactionServer(Transaction txn) {
-        mTxn = txn;
-    }
-
-    public void commit() throws PersistException {
-        Transaction txn = mTxn;
-        if (txn != null) {
-            txn.commit();
-        }
-    }
-
-    public void exit() throws PersistException {
-        Transaction txn = mTxn;
-        if (txn != null) {
-            txn.exit();
-            // Allow Transaction to be freed before unreferenced is called.
-            mTxn = null;
-        }
-    }
-
-    public void setForUpdate(boolean forUpdate) {
-        Transaction txn = mTxn;
-        if (txn != null) {
-            txn.setForUpdate(forUpdate);
-        }
-    }
-
-    public boolean isForUpdate() {
-        Transaction txn = mTxn;
-        return txn == null ? false : txn.isForUpdate();
-    }
-
-    public IsolationLevel getIsolationLevel() {
-        Transaction txn = mTxn;
-        return txn == null ? IsolationLevel.NONE : txn.getIsolationLevel();
-    }
-
-    public void unreferenced() {
-        try {
-            exit();
-        } catch (PersistException e) {
-            // Ignore.
-        }
-    }
-
-    /**
-     * Acquires an exclusive lock on this object and then attaches the
-     * transaction to the current thread. Lock acquisition is not re-entrant.
-     */
-    void attach() {
-        super.acquire(0);
-
-        Transaction txn = mTxn;
-        if (txn != null) {
-            txn.attach();
-        }
-    }
-
-    /**
-     * Releases exclusive lock and detaches the transaction from the current
-     * thread.
-     */
-    void detach() {
-        try {
-            Transaction txn = mTxn;
-            if (txn != null) {
-                txn.detach();
-            }
-        } finally {
-            // Release exclusive lock.
-            super.release(0);
-        }
-    }
-
-    // Methods for AbstractQueuedSynchronizer support.
-
-    @Override
-    protected boolean tryAcquire(int arg) {
-        // Logic to acquire lock fairly.
-        return getState() == 0 && !shouldWait() && compareAndSetState(0, 1);
-    }
-
-    @Override
-    protected boolean tryRelease(int arg) {
-        setState(0);
-        return true;
-    }
-
-    private boolean shouldWait() {
-        return hasQueuedThreads() && getFirstQueuedThread() != Thread.currentThread();
-    }
-}
+/*
+ * Copyright 2008-2012 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.rmi.server.Unreferenced;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Transaction;
+
+/**
+ * 
+ *
+ * @author Brian S O'Neill
+ */
+class RemoteTransactionServer extends AbstractQueuedSynchronizer
+    implements RemoteTransaction, Unreferenced
+{
+    /** Result codes returned by attach. */
+    static final int ATTACH_FAST = 0, ATTACH_REENTERED = 1, ATTACH_SPUN = 2, ATTACH_PARKED = 3;
+
+    private static final int MIN_SPINS = 1 << 4, MAX_SPINS = 1 << 10;
+
+    // Spinning is pointless if the owner can't run at the same time.
+    private static final boolean SPIN = Runtime.getRuntime().availableProcessors() > 1;
+
+    private volatile Transaction mTxn;
+
+    // Adapts to how long the lock is typically held. Races are harmless.
+    private int mSpinLimit = MIN_SPINS;
+
+    private final RemoteTransactionServer mParent;
+
+    // Near cache invalidations to send again when the outermost transaction commits.
+    private List<Invalidator.Deferred> mDeferred;
+
+    /**
+     * @param parent optional
+     */
+    RemoteTransactionServer(Transaction txn, RemoteTransactionServer parent) {
+        mTxn = txn;
+        mParent = parent;
+    }
+
+    public void commit() throws PersistException {
+        Transaction txn = mTxn;
+        if (txn != null) {
+            txn.commit();
+            commitDeferred();
+        }
+    }
+
+    public void exit() throws PersistException {
+        Transaction txn = mTxn;
+        if (txn != null) {
+            txn.exit();
+            // Allow Transaction to be freed before unreferenced is called.
+            mTxn = null;
+            synchronized (this) {
+                // Changes were rolled back, so nothing else to send.
+                mDeferred = null;
+            }
+        }
+    }
+
+    public void setForUpdate(boolean forUpdate) {
+        Transaction txn = mTxn;
+        if (txn != null) {
+            txn.setForUpdate(forUpdate);
+        }
+    }
+
+    public boolean isForUpdate() {
+        Transaction txn = mTxn;
+        return txn == null ? false : txn.isForUpdate();
+    }
+
+    public IsolationLevel getIsolationLevel() {
+        Transaction txn = mTxn;
+        return txn == null ? IsolationLevel.NONE : txn.getIsolationLevel();
+    }
+
+    public void unreferenced() {
+        try {
+            exit();
+        } catch (PersistException e) {
+            // Ignore.
+        }
+    }
+
+    /**
+     * Acquires an exclusive lock on this object and then attaches the
+     * transaction to the current thread. Lock acquisition is re-entrant, and
+     * each attach must be matched by a detach. When contended, the lock is
+     * briefly spun on before parking, and waiting threads are served in
+     * order.
+     *
+     * @return ATTACH_FAST, ATTACH_REENTERED, ATTACH_SPUN or ATTACH_PARKED
+     */
+    int attach() {
+        if (getExclusiveOwnerThread() == Thread.currentThread()) {
+            // Transaction is already attached to this thread.
+            setState(getState() + 1);
+            return ATTACH_REENTERED;
+        }
+
+        int result;
+        if (tryAcquire(1)) {
+            result = ATTACH_FAST;
+        } else if (spinAcquire()) {
+            result = ATTACH_SPUN;
+        } else {
+            super.acquire(1);
+            result = ATTACH_PARKED;
+        }
+
+        Transaction txn = mTxn;
+        if (txn != null) {
+            txn.attach();
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases exclusive lock and detaches the transaction from the current
+     * thread. A re-entrant attach is only released by the matching detach.
+     * A thread other than the owner can release a single hold, but if the
+     * owner has re-entered, nothing happens. Nothing happens either if
+     * called when not attached.
+     */
+    void detach() {
+        int state = getState();
+        if (state == 0) {
+            return;
+        }
+
+        if (state > 1) {
+            if (getExclusiveOwnerThread() == Thread.currentThread()) {
+                setState(state - 1);
+            }
+            // Otherwise, the owner is still using the transaction, and
+            // releasing its holds would let another thread in.
+            return;
+        }
+
+        try {
+            Transaction txn = mTxn;
+            if (txn != null) {
+                txn.detach();
+            }
+        } finally {
+            // Release exclusive lock.
+            super.release(1);
+        }
+    }
+
+    synchronized void deferInvalidation(Invalidator.Deferred deferred) {
+        if (mDeferred == null) {
+            mDeferred = new ArrayList<Invalidator.Deferred>();
+        }
+        mDeferred.add(deferred);
+    }
+
+    private void commitDeferred() {
+        List<Invalidator.Deferred> deferred;
+        synchronized (this) {
+            deferred = mDeferred;
+            if (deferred == null) {
+                return;
+            }
+            mDeferred = null;
+        }
+        if (mParent != null) {
+            // Changes aren't visible until the parent commits.
+            for (Invalidator.Deferred d : deferred) {
+                mParent.deferInvalidation(d);
+            }
+        } else {
+            for (Invalidator.Deferred d : deferred) {
+                d.fire();
+            }
+        }
+    }
+
+    // Methods for AbstractQueuedSynchronizer support.
+
+    @Override
+    protected boolean tryAcquire(int arg) {
+        // Logic to acquire lock fairly.
+        if (getState() == 0 && !shouldWait() && compareAndSetState(0, 1)) {
+            setExclusiveOwnerThread(Thread.currentThread());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean tryRelease(int arg) {
+        setExclusiveOwnerThread(null);
+        setState(0);
+        return true;
+    }
+
+    /**
+     * Spins for the lock, in case the owner releases it soon. Spinning stops
+     * as soon as any thread is waiting in line, since a fair acquire cannot
+     * succeed then. The spin limit grows when spinning succeeds, and shrinks
+     * when it fails.
+     */
+    private boolean spinAcquire() {
+        if (!SPIN) {
+            return false;
+        }
+        int limit = mSpinLimit;
+        for (int i=0; i<limit; i++) {
+            if (hasQueuedThreads()) {
+                break;
+            }
+            // Only attempt the CAS when the lock looks free, to avoid
+            // contending on the state with the owner.
+            if (getState() == 0 && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                if (limit < MAX_SPINS) {
+                    mSpinLimit = limit << 1;
+                }
+                return true;
+            }
+            if ((i & (MIN_SPINS - 1)) == (MIN_SPINS - 1)) {
+                // Back off, letting the owner run if it shares the CPU.
+                Thread.yield();
+            }
+        }
+        if (limit > MIN_SPINS) {
+            mSpinLimit = limit >> 1;
+        }
+        return false;
+    }
+
+    private boolean shouldWait() {
+        return hasQueuedThreads() && getFirstQueuedThread() != Thread.currentThread();
+    }
+}
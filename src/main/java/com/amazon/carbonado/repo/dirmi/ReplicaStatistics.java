@@ -0,0 +1,97 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of the reads sent to one read replica server.
+ *
+ * @author agent
+ * @see ClientRepository#getReplicaStatistics
+ */
+public class ReplicaStatistics {
+    private final int mReplica;
+    private final long mCalls;
+    private final long mFailures;
+    private final int mPending;
+    private final double mLatencyNanos;
+    private final boolean mAvailable;
+
+    ReplicaStatistics(int replica, long calls, long failures, int pending,
+                      double latencyNanos, boolean available)
+    {
+        mReplica = replica;
+        mCalls = calls;
+        mFailures = failures;
+        mPending = pending;
+        mLatencyNanos = latencyNanos;
+        mAvailable = available;
+    }
+
+    /**
+     * Returns the index of the replica, in the order given to the builder.
+     */
+    public int getReplica() {
+        return mReplica;
+    }
+
+    /**
+     * Returns the amount of reads sent to the replica.
+     */
+    public long getCallCount() {
+        return mCalls;
+    }
+
+    /**
+     * Returns the amount of reads which failed because the replica couldn't
+     * be reached, and so they were sent to the primary instead.
+     */
+    public long getFailureCount() {
+        return mFailures;
+    }
+
+    /**
+     * Returns the amount of reads currently waiting for a reply.
+     */
+    public int getPendingCount() {
+        return mPending;
+    }
+
+    /**
+     * Returns the moving average of observed round trip times, in
+     * nanoseconds. Is zero if none have been observed.
+     */
+    public double getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    /**
+     * Returns false if the replica recently couldn't be reached, and so it's
+     * temporarily skipped.
+     */
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicaStatistics {replica=" + mReplica + ", calls=" + mCalls +
+            ", failures=" + mFailures + ", pending=" + mPending +
+            ", latencyNanos=" + mLatencyNanos + ", available=" + mAvailable + '}';
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.lang.ref.WeakReference;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.layout.Layout;
+
+/**
+ * State which is shared by all {@link RemoteRepositoryServer} instances over
+ * the same Repository. Servers are commonly created for each session, by
+ * {@link RemoteRepositoryServer#from}, and so state which spans sessions
+ * cannot be kept by a server.
+ *
+ * @author agent
+ */
+class RepositoryState {
+    // Weakly keyed, so that closed repositories can be collected. Values are
+    // weakly referenced as well, because they refer to the repository. Each
+    // server and invalidator keeps its state reachable.
+    private static final Map<Repository, WeakReference<RepositoryState>> cStates =
+        new WeakHashMap<Repository, WeakReference<RepositoryState>>();
+
+    /**
+     * Returns the state shared by all servers over the given repository.
+     */
+    static RepositoryState forRepository(Repository repo) {
+        synchronized (cStates) {
+            WeakReference<RepositoryState> ref = cStates.get(repo);
+            RepositoryState state;
+            if (ref == null || (state = ref.get()) == null) {
+                state = new RepositoryState(repo);
+                cStates.put(repo, new WeakReference<RepositoryState>(state));
+            }
+            return state;
+        }
+    }
+
+    private final Repository mRepository;
+
+    private final ConcurrentHashMap<StorableLayoutKey, FutureTask<StorageServerState>> mStates;
+    private final ConcurrentHashMap<Class, StorageMetrics> mMetrics;
+    private final ConcurrentHashMap<Class, Invalidator> mInvalidators;
+    private final ConcurrentHashMap<String, AdmissionControl.Pool> mPools;
+
+    private RepositoryState(Repository repo) {
+        mRepository = repo;
+        mStates = new ConcurrentHashMap<StorableLayoutKey, FutureTask<StorageServerState>>();
+        mMetrics = new ConcurrentHashMap<Class, StorageMetrics>();
+        mInvalidators = new ConcurrentHashMap<Class, Invalidator>();
+        mPools = new ConcurrentHashMap<String, AdmissionControl.Pool>();
+    }
+
+    /**
+     * Returns the state shared by all sessions for the given type and client
+     * layout. Concurrent requests for new state wait for one thread to create
+     * it, since creating it queries the repository.
+     */
+    StorageServerState stateFor(final Class type, final Layout clientLayout)
+        throws RepositoryException
+    {
+        // Protocol version doesn't matter.
+        StorableLayoutKey key = new StorableLayoutKey(0, type, clientLayout);
+
+        FutureTask<StorageServerState> task = mStates.get(key);
+        if (task == null) {
+            FutureTask<StorageServerState> newTask = new FutureTask<StorageServerState>
+                (new Callable<StorageServerState>() {
+                    public StorageServerState call() throws RepositoryException {
+                        return new StorageServerState
+                            (mRepository.storageFor(type),
+                             ReconstructedCache.THE.writerFor(type, clientLayout));
+                    }
+                });
+            task = mStates.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            // Allow another attempt.
+            mStates.remove(key, task);
+            throw ClientStorage.toRepositoryException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the metrics for the given type, creating them if necessary.
+     */
+    StorageMetrics metricsFor(Class type) {
+        StorageMetrics metrics = mMetrics.get(type);
+        if (metrics == null) {
+            metrics = new StorageMetrics(mRepository.getName(), type);
+            StorageMetrics existing = mMetrics.putIfAbsent(type, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics for the given type, or null if no client has
+     * accessed the type.
+     */
+    StorageMetrics existingMetricsFor(Class type) {
+        return mMetrics.get(type);
+    }
+
+    Invalidator invalidatorFor(Class<? extends Storable> type) {
+        Invalidator invalidator = mInvalidators.get(type);
+        if (invalidator == null) {
+            invalidator = new Invalidator(this, type);
+            Invalidator existing = mInvalidators.putIfAbsent(type, invalidator);
+            if (existing != null) {
+                invalidator = existing;
+            }
+        }
+        return invalidator;
+    }
+
+    /**
+     * Returns an admission pool which is shared by all servers which set the
+     * same limit for it.
+     *
+     * @param type type limited by the pool; pass null for all types
+     * @param limit optional
+     * @return null if unlimited
+     */
+    AdmissionControl.Pool poolFor(Class type, String name, Integer limit) {
+        if (limit == null || limit <= 0) {
+            return null;
+        }
+        String key = (type == null ? "" : type.getName()) + ':' + name + ':' + limit;
+        AdmissionControl.Pool pool = mPools.get(key);
+        if (pool == null) {
+            pool = new AdmissionControl.Pool(name, limit);
+            AdmissionControl.Pool existing = mPools.putIfAbsent(key, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+}
@@ -23,6 +23,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.security.DigestInputStream;
+
 import org.apache.commons.logging.LogFactory;
 
 import com.amazon.carbonado.RepositoryException;
@@ -56,19 +58,57 @@ public class StorableTypeTransport implements Serializable {
     private final Class<? extends Storable> mType;
     private volatile transient Layout mLayout;
 
+    // Fingerprint of the layout, which is null if sent by an older endpoint.
+    // When the layout is read, it's replaced with the fingerprint of the
+    // bytes actually received, or null if they don't match.
+    private LayoutFingerprint mFingerprint;
+    // Fingerprint of the receiver's layout, which the sender already has.
+    // Is null if none, or if sent by an older endpoint.
+    private final LayoutFingerprint mPeerFingerprint;
+    // When true, the layout isn't written, and the receiver finds it by
+    // fingerprint instead. Must only be set when the receiver is known to
+    // support it, because older endpoints always read a layout.
+    private final boolean mLayoutOmitted;
+
     StorableTypeTransport(Class<? extends Storable> type, Layout layout) {
+        this(type, layout, null, null, false);
+    }
+
+    /**
+     * @param fingerprint fingerprint of the given layout
+     * @param peerFingerprint optional fingerprint of the receiver's layout,
+     * which the sender already has
+     * @param omitLayout when true, only the fingerprint is written
+     */
+    StorableTypeTransport(Class<? extends Storable> type, Layout layout,
+                          LayoutFingerprint fingerprint, LayoutFingerprint peerFingerprint,
+                          boolean omitLayout)
+    {
         // 0:  Original protocol version.
         // 1:  Use RemoteStorageServer.CURSOR_START marker. Obsolete.
         // -1: Doesn't write start marker and fetch doesn't block waiting for first result.
         //     Note: New protocol versions must go negative, as a workaround for
         //           older code which had a >= version check.
-        this(-1, type, layout);
+        // -2: Insert and update can respond with RemoteStorageServer.STORABLE_PARTIAL.
+        // -3: Client can read compressed query results, and it compresses
+        //     write batches if RemoteStorageTransport has a compression threshold.
+        this(-3, type, layout, fingerprint, peerFingerprint, omitLayout);
     }
 
     StorableTypeTransport(int protocolVersion, Class<? extends Storable> type, Layout layout) {
+        this(protocolVersion, type, layout, null, null, false);
+    }
+
+    StorableTypeTransport(int protocolVersion, Class<? extends Storable> type, Layout layout,
+                          LayoutFingerprint fingerprint, LayoutFingerprint peerFingerprint,
+                          boolean omitLayout)
+    {
         mProtocolVersion = protocolVersion;
         mType = type;
         mLayout = layout;
+        mFingerprint = fingerprint;
+        mPeerFingerprint = peerFingerprint;
+        mLayoutOmitted = omitLayout && fingerprint != null;
     }
 
     Class<? extends Storable> getStorableType() {
@@ -79,12 +119,33 @@ public class StorableTypeTransport implements Serializable {
         return mProtocolVersion;
     }
 
+    /**
+     * Returns null if the layout was omitted and this process hasn't seen it.
+     */
     Layout getLayout() {
         return mLayout;
     }
 
+    /**
+     * Returns null if sent by an older endpoint.
+     */
+    LayoutFingerprint getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of the receiver's layout which the sender
+     * already has, or null if none.
+     */
+    LayoutFingerprint getPeerFingerprint() {
+        return mPeerFingerprint;
+    }
+
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
+        if (mLayoutOmitted) {
+            return;
+        }
         try {
             mLayout.writeTo(out);
         } catch (RepositoryException e) {
@@ -94,19 +155,36 @@ public class StorableTypeTransport implements Serializable {
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
+        if (mLayoutOmitted) {
+            mLayout = ReconstructedCache.THE.layoutFor(mFingerprint);
+            return;
+        }
         try {
-            LayoutFactory factory;
             if (LAYOUT_FACTORY_VERSION == 1) {
                 // Older version of Carbonado cannot tolerate any property
                 // changes, even if irrelevant. A new repository must be used
                 // each time, which leads to excessive generated classes.
                 // Updates to Carbonado and CarbonadoDirmi are required.
-                factory = new LayoutFactory(MapRepositoryBuilder.newRepository());
-            } else {
-                factory = ReconstructedCache.THE.mLayoutFactory;
-            }
-            synchronized (factory) {
+                LayoutFactory factory = new LayoutFactory(MapRepositoryBuilder.newRepository());
                 mLayout = factory.readLayoutFrom(in);
+                // Layout isn't registered, so the fingerprint is useless.
+                mFingerprint = null;
+            } else if (mFingerprint == null) {
+                mLayout = ReconstructedCache.THE.readLayoutFrom(mType, in);
+            } else {
+                // Don't trust the fingerprint computed by the sender, since
+                // registering a wrong one would cause later requests which
+                // omit the layout to use a mismatched one.
+                DigestInputStream din = LayoutFingerprint.digesting(in);
+                mLayout = ReconstructedCache.THE.readLayoutFrom(mType, din);
+                LayoutFingerprint actual = LayoutFingerprint.of(din);
+                if (actual.equals(mFingerprint)) {
+                    ReconstructedCache.THE.register(actual, mLayout);
+                } else {
+                    LogFactory.getLog(StorableTypeTransport.class).warn
+                        ("Ignoring mismatched layout fingerprint for " + mType.getName());
+                    mFingerprint = null;
+                }
             }
         } catch (RepositoryException e) {
             // Something needs to be logged, because an IOException destroys
@@ -21,9 +21,22 @@ package com.amazon.carbonado.repo.dirmi;
 import java.io.IOException;
 import java.io.OutputStream;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import com.amazon.carbonado.Storable;
 import com.amazon.carbonado.SupportException;
 
+import com.amazon.carbonado.info.OrderedProperty;
+import com.amazon.carbonado.info.StorableInfo;
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+
 import com.amazon.carbonado.gen.DetachedStorableFactory;
 import com.amazon.carbonado.gen.StorableCopier;
 
@@ -35,6 +48,90 @@ import com.amazon.carbonado.gen.StorableCopier;
 abstract class StorableWriter<S extends Storable> {
     static final StorableWriter<Storable> DEFAULT = new Default();
 
+    private static final ConcurrentHashMap<Class, TypeInfo> cTypeInfo =
+        new ConcurrentHashMap<Class, TypeInfo>();
+
+    /**
+     * Returns the names of all properties which are serialized, excluding
+     * joins and derived properties.
+     */
+    static String[] serializedPropertyNames(Class<? extends Storable> type) {
+        return typeInfo(type).mPropertyNames.clone();
+    }
+
+    /**
+     * Returns the property names of the primary key, if fully initialized, or
+     * else of the first fully initialized alternate key. Returns null if no
+     * key is fully initialized.
+     */
+    static List<String> initializedKeyNames(Storable storable) {
+        keys: for (List<String> key : typeInfo(storable.storableType()).mKeys) {
+            for (String name : key) {
+                if (storable.isPropertyUninitialized(name)) {
+                    continue keys;
+                }
+            }
+            return key;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the names of the properties needed to update the given
+     * storable: the primary key, the dirty properties and the version
+     * property.
+     */
+    static List<String> updatePropertyNames(Storable storable) {
+        TypeInfo info = typeInfo(storable.storableType());
+        List<String> pk = info.mKeys.get(0);
+        List<String> names = new ArrayList<String>(pk);
+        for (String name : info.mPropertyNames) {
+            if (name.equals(info.mVersionName)) {
+                if (!storable.isPropertyUninitialized(name)) {
+                    names.add(name);
+                }
+            } else if (storable.isPropertyDirty(name) && !pk.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the name of the version property, or null if not versioned.
+     */
+    static String versionPropertyName(Class<? extends Storable> type) {
+        return typeInfo(type).mVersionName;
+    }
+
+    /**
+     * Returns the names of the serialized properties which both types have.
+     */
+    static String[] commonPropertyNames(Class<? extends Storable> a,
+                                        Class<? extends Storable> b)
+    {
+        List<String> bNames = Arrays.asList(typeInfo(b).mPropertyNames);
+        List<String> names = new ArrayList<String>();
+        for (String name : typeInfo(a).mPropertyNames) {
+            if (bNames.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    private static TypeInfo typeInfo(Class<? extends Storable> type) {
+        TypeInfo info = cTypeInfo.get(type);
+        if (info == null) {
+            info = new TypeInfo(StorableIntrospector.examine(type));
+            TypeInfo existing = cTypeInfo.putIfAbsent(type, info);
+            if (existing != null) {
+                info = existing;
+            }
+        }
+        return info;
+    }
+
     StorableWriter() {
     }
 
@@ -59,28 +156,116 @@ abstract class StorableWriter<S extends Storable> {
     abstract void writeUpdateResponse(S storable, OutputStream out)
         throws IOException, SupportException;
 
+    /**
+     * Writes only the given properties, as changed by an insert or update.
+     * Properties which the client doesn't have are skipped.
+     */
+    abstract void writePartialResponse(S storable, List<String> names, OutputStream out)
+        throws IOException, SupportException;
+
+    static void copyProperties(Storable from, Storable to, List<String> names) {
+        for (String name : names) {
+            try {
+                to.setPropertyValue(name, from.getPropertyValue(name));
+            } catch (IllegalArgumentException e) {
+                // Client layout doesn't have the property.
+            }
+        }
+    }
+
     static class Copier<S extends Storable> extends StorableWriter<S> {
+        // Must be a power of two.
+        private static final int POOL_SIZE = 4;
+
         private final StorableCopier<S, Storable> mCopier;
         private final DetachedStorableFactory<?> mFactory;
 
-        Copier(StorableCopier<S, Storable> copier, DetachedStorableFactory<?> factory) {
+        // Properties which both the source and target have. When all of them
+        // are initialized in the source, copying all properties overwrites
+        // everything in the target which was set by a previous copy.
+        private final String[] mCommonNames;
+
+        // Targets reused by the methods which copy all properties. Writers
+        // are shared by threads, which take a target out while using it. The
+        // pool is small, to bound how much each writer retains, and threads
+        // which find it empty allocate a target instead.
+        private final AtomicReferenceArray<Storable> mTargets;
+
+        /**
+         * @param commonNames properties which both the source and target have
+         */
+        Copier(StorableCopier<S, Storable> copier, DetachedStorableFactory<?> factory,
+               String[] commonNames)
+        {
             mCopier = copier;
             mFactory = factory;
+            mCommonNames = commonNames;
+            mTargets = new AtomicReferenceArray<Storable>(POOL_SIZE);
+        }
+
+        /**
+         * Returns a target with all properties copied from the given
+         * storable, which should be passed to recycle when no longer
+         * used. Properties of the target are dirty.
+         */
+        private Storable copyAll(S storable) {
+            Storable target = null;
+            // Uninitialized properties aren't copied, and so a reused target
+            // could retain values from a previous copy.
+            if (isFullyInitialized(storable)) {
+                int start = poolStart();
+                for (int i=0; i<POOL_SIZE; i++) {
+                    int slot = (start + i) & (POOL_SIZE - 1);
+                    if (mTargets.get(slot) != null
+                        && (target = mTargets.getAndSet(slot, null)) != null)
+                    {
+                        break;
+                    }
+                }
+            }
+            if (target == null) {
+                target = mFactory.newInstance();
+            }
+            mCopier.copyAllProperties(storable, target);
+            return target;
+        }
+
+        /**
+         * Returns a target to the pool, unless the pool is full.
+         */
+        private void recycle(Storable target) {
+            int start = poolStart();
+            for (int i=0; i<POOL_SIZE; i++) {
+                if (mTargets.compareAndSet((start + i) & (POOL_SIZE - 1), null, target)) {
+                    return;
+                }
+            }
+        }
+
+        private static int poolStart() {
+            // Spread threads over the pool to reduce contention.
+            return (int) Thread.currentThread().getId();
+        }
+
+        private boolean isFullyInitialized(S storable) {
+            for (String name : mCommonNames) {
+                if (storable.isPropertyUninitialized(name)) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         @Override
         void writeForLoad(S storable, OutputStream out) throws IOException, SupportException {
-            // TODO: just write the primary or alternate keys somehow
-            Storable target = mFactory.newInstance();
-            mCopier.copyAllProperties(storable, target);
-            target.writeTo(out);
+            writeKey(storable, out);
         }
 
         @Override
         void writeForInsert(S storable, OutputStream out) throws IOException, SupportException {
-            Storable target = mFactory.newInstance();
-            mCopier.copyAllProperties(storable, target);
+            Storable target = copyAll(storable);
             target.writeTo(out);
+            recycle(target);
         }
 
         @Override
@@ -94,8 +279,18 @@ abstract class StorableWriter<S extends Storable> {
 
         @Override
         void writeForDelete(S storable, OutputStream out) throws IOException, SupportException {
+            writeKey(storable, out);
+        }
+
+        private void writeKey(S storable, OutputStream out) throws IOException, SupportException {
             Storable target = mFactory.newInstance();
-            mCopier.copyPrimaryKeyProperties(storable, target);
+            List<String> key = initializedKeyNames(storable);
+            if (key == null) {
+                // Let the server report the missing key.
+                mCopier.copyAllProperties(storable, target);
+            } else {
+                copyProperties(storable, target, key);
+            }
             target.writeTo(out);
         }
 
@@ -103,43 +298,82 @@ abstract class StorableWriter<S extends Storable> {
         void writeLoadResponse(S storable, OutputStream out)
             throws IOException, SupportException
         {
-            Storable target = mFactory.newInstance();
-            mCopier.copyAllProperties(storable, target);
+            Storable target = copyAll(storable);
             target.markAllPropertiesClean();
             target.writeTo(out);
+            recycle(target);
         }
 
         @Override
         void writeInsertResponse(S storable, OutputStream out)
             throws IOException, SupportException
         {
-            // TODO: only write back what changed somehow
-            Storable target = mFactory.newInstance();
-            mCopier.copyAllProperties(storable, target);
+            Storable target = copyAll(storable);
             target.markAllPropertiesClean();
             target.writeTo(out);
+            recycle(target);
         }
 
         @Override
         void writeUpdateResponse(S storable, OutputStream out)
             throws IOException, SupportException
         {
-            // TODO: only write back what changed somehow
+            Storable target = copyAll(storable);
+            target.markAllPropertiesClean();
+            target.writeTo(out);
+            recycle(target);
+        }
+
+        @Override
+        void writePartialResponse(S storable, List<String> names, OutputStream out)
+            throws IOException, SupportException
+        {
             Storable target = mFactory.newInstance();
-            mCopier.copyAllProperties(storable, target);
+            copyProperties(storable, target, names);
             target.markAllPropertiesClean();
             target.writeTo(out);
         }
     }
 
+    private static final class TypeInfo {
+        // Serialized property names, excluding joins and derived properties.
+        final String[] mPropertyNames;
+        // Key property names, primary key first.
+        final List<List<String>> mKeys;
+        // Null if not versioned.
+        final String mVersionName;
+
+        TypeInfo(StorableInfo<?> info) {
+            List<String> names = new ArrayList<String>();
+            for (StorableProperty<?> prop : info.getAllProperties().values()) {
+                if (!prop.isJoin() && !prop.isDerived()) {
+                    names.add(prop.getName());
+                }
+            }
+            mPropertyNames = names.toArray(new String[names.size()]);
+
+            mKeys = new ArrayList<List<String>>(1 + info.getAlternateKeyCount());
+            mKeys.add(new ArrayList<String>(info.getPrimaryKeyProperties().keySet()));
+            for (int i=0; i<info.getAlternateKeyCount(); i++) {
+                List<String> key = new ArrayList<String>();
+                for (OrderedProperty<?> prop : info.getAlternateKey(i).getProperties()) {
+                    key.add(prop.getChainedProperty().getPrimeProperty().getName());
+                }
+                mKeys.add(key);
+            }
+
+            StorableProperty<?> version = info.getVersionProperty();
+            mVersionName = version == null ? null : version.getName();
+        }
+    }
+
     private static class Default<S extends Storable> extends StorableWriter<S> {
         Default() {
         }
 
         @Override
         void writeForLoad(S storable, OutputStream out) throws IOException, SupportException {
-            // TODO: just write the primary or alternate keys somehow
-            storable.writeTo(out);
+            writeKey(storable, out);
         }
 
         @Override
@@ -149,14 +383,28 @@ abstract class StorableWriter<S extends Storable> {
 
         @Override
         void writeForUpdate(S storable, OutputStream out) throws IOException, SupportException {
-            // TODO: just write the primary keys, dirty properties, and version property
-            storable.writeTo(out);
+            // Properties which aren't written are uninitialized when read by
+            // the server, and so they are left alone by the update.
+            Storable target = storable.prepare();
+            copyProperties(storable, target, updatePropertyNames(storable));
+            target.writeTo(out);
         }
 
         @Override
         void writeForDelete(S storable, OutputStream out) throws IOException, SupportException {
-            // TODO: just write the primary keys somehow
-            storable.writeTo(out);
+            writeKey(storable, out);
+        }
+
+        private void writeKey(S storable, OutputStream out) throws IOException, SupportException {
+            List<String> key = initializedKeyNames(storable);
+            if (key == null) {
+                // Let the server report the missing key.
+                storable.writeTo(out);
+            } else {
+                Storable target = storable.prepare();
+                copyProperties(storable, target, key);
+                target.writeTo(out);
+            }
         }
 
         @Override
@@ -170,7 +418,6 @@ abstract class StorableWriter<S extends Storable> {
         void writeInsertResponse(S storable, OutputStream out)
             throws IOException, SupportException
         {
-            // TODO: only write back what changed somehow
             storable.writeTo(out);
         }
 
@@ -178,8 +425,17 @@ abstract class StorableWriter<S extends Storable> {
         void writeUpdateResponse(S storable, OutputStream out)
             throws IOException, SupportException
         {
-            // TODO: only write back what changed somehow
             storable.writeTo(out);
         }
+
+        @Override
+        void writePartialResponse(S storable, List<String> names, OutputStream out)
+            throws IOException, SupportException
+        {
+            Storable target = storable.prepare();
+            copyProperties(storable, target, names);
+            target.markAllPropertiesClean();
+            target.writeTo(out);
+        }
     }
 }
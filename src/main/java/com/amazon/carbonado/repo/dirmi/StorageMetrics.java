@@ -0,0 +1,347 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import java.util.concurrent.TimeUnit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * Server-side counters for one Storable type, accumulated over all sessions
+ * served over the same Repository, by any {@link RemoteRepositoryServer}.
+ *
+ * @author agent
+ * @see RemoteRepositoryServer#getStorageMetrics
+ * @see MetricsRegistry
+ */
+public class StorageMetrics {
+    /**
+     * Remote storage operations which are measured.
+     */
+    public static enum Operation {
+        TRY_LOAD, TRY_INSERT, TRY_UPDATE, TRY_DELETE,
+        LOAD_BATCH, INSERT_BATCH, UPDATE_BATCH, DELETE_BATCH,
+        QUERY_COUNT, QUERY_FETCH, QUERY_LOAD_ONE, QUERY_TRY_LOAD_ONE,
+        QUERY_DELETE_ONE, QUERY_TRY_DELETE_ONE, QUERY_DELETE_ALL,
+        TRUNCATE
+    }
+
+    private final String mRepositoryName;
+    private final Class<? extends Storable> mType;
+    private final Map<Operation, OperationMetrics> mOperations;
+
+    // Also used to wait for sessions to close.
+    private final AtomicInteger mSessions;
+
+    private final AtomicLong mBytesIn;
+    private final AtomicLong mBytesOut;
+    private final Histogram mCursorRows;
+    private final Histogram mAttachWait;
+    private final AtomicLong mAttachSpins;
+    private final AtomicLong mAttachParks;
+    private final Histogram mAdmissionWait;
+    private final AtomicInteger mAdmissionQueued;
+    private final AtomicLong mAdmissionRejected;
+    private final AtomicLong mQueryCacheHits;
+    private final AtomicLong mQueryCacheMisses;
+    private final AtomicLong mPreparedQueries;
+    private final AtomicLong mDroppedIOErrors;
+    private final AtomicLong mDroppedSupportErrors;
+
+    StorageMetrics(String repositoryName, Class<? extends Storable> type) {
+        mRepositoryName = repositoryName;
+        mType = type;
+        // Fully populated up front, and so it's safe for concurrent reads.
+        mOperations = new EnumMap<Operation, OperationMetrics>(Operation.class);
+        for (Operation op : Operation.values()) {
+            mOperations.put(op, new OperationMetrics());
+        }
+        mSessions = new AtomicInteger();
+        mBytesIn = new AtomicLong();
+        mBytesOut = new AtomicLong();
+        mCursorRows = new Histogram();
+        mAttachWait = new Histogram();
+        mAttachSpins = new AtomicLong();
+        mAttachParks = new AtomicLong();
+        mAdmissionWait = new Histogram();
+        mAdmissionQueued = new AtomicInteger();
+        mAdmissionRejected = new AtomicLong();
+        mQueryCacheHits = new AtomicLong();
+        mQueryCacheMisses = new AtomicLong();
+        mPreparedQueries = new AtomicLong();
+        mDroppedIOErrors = new AtomicLong();
+        mDroppedSupportErrors = new AtomicLong();
+    }
+
+    public String getRepositoryName() {
+        return mRepositoryName;
+    }
+
+    public Class<? extends Storable> getStorableType() {
+        return mType;
+    }
+
+    public OperationMetrics getOperation(Operation op) {
+        return mOperations.get(op);
+    }
+
+    /**
+     * Returns the amount of remote storages served for the type whose client
+     * sessions are still open. Each client normally requests one per session.
+     */
+    public int getSessionCount() {
+        return mSessions.get();
+    }
+
+    /**
+     * Waits until the amount of open sessions for the type is at most the
+     * given amount. Sessions are closed asynchronously after clients
+     * disconnect.
+     *
+     * @return false if timed out
+     */
+    public boolean awaitSessionCount(int max, long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        long end = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mSessions) {
+            while (mSessions.get() > max) {
+                long remaining = end - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(mSessions, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the amount of uncompressed serialized storable bytes received
+     * from clients.
+     */
+    public long getBytesIn() {
+        return mBytesIn.get();
+    }
+
+    /**
+     * Returns the amount of uncompressed serialized storable bytes sent to
+     * clients.
+     */
+    public long getBytesOut() {
+        return mBytesOut.get();
+    }
+
+    /**
+     * Returns the amount of storables streamed by each query cursor.
+     */
+    public Histogram getCursorRows() {
+        return mCursorRows;
+    }
+
+    /**
+     * Returns the time spent waiting to attach to client transactions, in
+     * nanoseconds.
+     */
+    public Histogram getAttachWaitNanos() {
+        return mAttachWait;
+    }
+
+    /**
+     * Returns the amount of transaction attachments which were contended,
+     * but acquired by spinning briefly.
+     */
+    public long getAttachSpinCount() {
+        return mAttachSpins.get();
+    }
+
+    /**
+     * Returns the amount of transaction attachments which had to wait in
+     * line for another thread to detach.
+     */
+    public long getAttachParkCount() {
+        return mAttachParks.get();
+    }
+
+    /**
+     * Returns the time spent waiting to be admitted by the server's
+     * concurrency limits, in nanoseconds. Only admitted operations are
+     * recorded.
+     *
+     * @see RemoteRepositoryServerBuilder#setAdmissionTimeout
+     */
+    public Histogram getAdmissionWaitNanos() {
+        return mAdmissionWait;
+    }
+
+    /**
+     * Returns the amount of operations currently waiting to be admitted.
+     */
+    public int getAdmissionQueueDepth() {
+        return mAdmissionQueued.get();
+    }
+
+    /**
+     * Returns the amount of operations which failed because they weren't
+     * admitted in time.
+     */
+    public long getAdmissionRejectedCount() {
+        return mAdmissionRejected.get();
+    }
+
+    /**
+     * Returns the amount of queries which were prepared from the cache, and
+     * so only needed to have values applied.
+     *
+     * @see RemoteRepositoryServerBuilder#setQueryCacheSize
+     */
+    public long getQueryCacheHitCount() {
+        return mQueryCacheHits.get();
+    }
+
+    /**
+     * Returns the amount of queries which were prepared from scratch while
+     * the query cache was enabled.
+     */
+    public long getQueryCacheMissCount() {
+        return mQueryCacheMisses.get();
+    }
+
+    /**
+     * Returns the fraction of prepared queries which were found in the
+     * cache, from 0.0 to 1.0.
+     */
+    public double getQueryCacheHitRate() {
+        long hits = getQueryCacheHitCount();
+        long total = hits + getQueryCacheMissCount();
+        return total == 0 ? 0.0 : ((double) hits) / total;
+    }
+
+    /**
+     * Returns the amount of query handles prepared by clients, which are
+     * executed without sending the filter and ordering again.
+     *
+     * @see RemoteRepositoryServerBuilder#setMaxPreparedQueries
+     */
+    public long getPreparedQueryCount() {
+        return mPreparedQueries.get();
+    }
+
+    /**
+     * Returns the amount of I/O errors which couldn't be reported to a
+     * client, usually because it disconnected.
+     */
+    public long getDroppedIOErrorCount() {
+        return mDroppedIOErrors.get();
+    }
+
+    /**
+     * Returns the amount of storables which couldn't be serialized for a
+     * client, and whose failure couldn't be reported to it.
+     */
+    public long getDroppedSupportErrorCount() {
+        return mDroppedSupportErrors.get();
+    }
+
+    void sessionOpened() {
+        mSessions.incrementAndGet();
+    }
+
+    void sessionClosed() {
+        synchronized (mSessions) {
+            mSessions.decrementAndGet();
+            mSessions.notifyAll();
+        }
+    }
+
+    void record(Operation op, long start, boolean success) {
+        mOperations.get(op).record(start, success);
+    }
+
+    void bytesIn(long amount) {
+        mBytesIn.addAndGet(amount);
+    }
+
+    void bytesOut(long amount) {
+        mBytesOut.addAndGet(amount);
+    }
+
+    void cursorRows(long rows) {
+        mCursorRows.record(rows);
+    }
+
+    /**
+     * @param result code returned by RemoteTransactionServer.attach
+     */
+    void attached(int result, long nanos) {
+        mAttachWait.record(nanos);
+        if (result == RemoteTransactionServer.ATTACH_SPUN) {
+            mAttachSpins.incrementAndGet();
+        } else if (result == RemoteTransactionServer.ATTACH_PARKED) {
+            mAttachParks.incrementAndGet();
+        }
+    }
+
+    void admissionQueued() {
+        mAdmissionQueued.incrementAndGet();
+    }
+
+    void admissionDequeued(long waitNanos, boolean admitted) {
+        mAdmissionQueued.decrementAndGet();
+        if (admitted) {
+            mAdmissionWait.record(waitNanos);
+        } else {
+            mAdmissionRejected.incrementAndGet();
+        }
+    }
+
+    void queryCacheHit() {
+        mQueryCacheHits.incrementAndGet();
+    }
+
+    void queryCacheMiss() {
+        mQueryCacheMisses.incrementAndGet();
+    }
+
+    void queryPrepared() {
+        mPreparedQueries.incrementAndGet();
+    }
+
+    void droppedIOError() {
+        mDroppedIOErrors.incrementAndGet();
+    }
+
+    void droppedSupportError() {
+        mDroppedSupportErrors.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "StorageMetrics {repository=" + mRepositoryName + ", type=" + mType.getName() +
+            ", sessions=" + getSessionCount() + ", bytesIn=" + getBytesIn() + ", bytesOut=" + getBytesOut() +
+            ", droppedIOErrors=" + getDroppedIOErrorCount() +
+            ", droppedSupportErrors=" + getDroppedSupportErrorCount() + '}';
+    }
+}
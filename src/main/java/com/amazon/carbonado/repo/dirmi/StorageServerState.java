@@ -0,0 +1,133 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+/**
+ * State of a RemoteStorageServer which is shared by all sessions for the
+ * same Storable type and client layout.
+ *
+ * @author agent
+ */
+class StorageServerState {
+    private final Storage mStorage;
+    private final StorableWriter mWriter;
+    // Properties compared to detect changes made by insert and update.
+    private final String[] mPropertyNames;
+    // Is false if local Carbonado version doesn't support Query.Controller.
+    private final boolean mControllerSupported;
+
+    private final ConcurrentHashMap<String, Boolean> mPropertySupport;
+    // Supported properties of all those serialized, computed when first requested.
+    private volatile Set<String> mSupportedProperties;
+
+    StorageServerState(Storage storage, StorableWriter writer) {
+        mStorage = storage;
+        mWriter = writer;
+        mPropertyNames = StorableWriter.serializedPropertyNames(storage.getStorableType());
+
+        boolean controllerSupported;
+        try {
+            UnreferencedController probe = new UnreferencedController();
+
+            // Check that Query.Controller feature works locally.
+            try {
+                storage.query().exists(probe);
+            } catch (FetchException e) {
+                // Don't worry about this right now.
+            }
+
+            controllerSupported = true;
+        } catch (LinkageError e) {
+            // Must be using version of Carbonado or dependency which doesn't
+            // support Query.Controller.
+            controllerSupported = false;
+        }
+
+        mControllerSupported = controllerSupported;
+        mPropertySupport = new ConcurrentHashMap<String, Boolean>();
+    }
+
+    Storage storage() {
+        return mStorage;
+    }
+
+    StorableWriter writer() {
+        return mWriter;
+    }
+
+    String[] propertyNames() {
+        return mPropertyNames;
+    }
+
+    boolean isControllerSupported() {
+        return mControllerSupported;
+    }
+
+    /**
+     * Returns all serialized properties which are supported, which is sent
+     * to clients to avoid a separate call to getPropertySupport.
+     */
+    Set<String> supportedProperties() {
+        Set<String> supported = mSupportedProperties;
+        if (supported == null) {
+            supported = propertySupport(mPropertyNames);
+            if (supported == null) {
+                supported = Collections.emptySet();
+            }
+            mSupportedProperties = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Returns the given properties which are supported, or null if none.
+     */
+    Set<String> propertySupport(String... propertyNames) {
+        Storable s = null;
+        Set<String> supported = null;
+        for (int i=0; i<propertyNames.length; i++) {
+            String name = propertyNames[i];
+            Boolean result = mPropertySupport.get(name);
+            if (result == null) {
+                if (s == null) {
+                    s = mStorage.prepare();
+                }
+                result = s.isPropertySupported(name);
+                mPropertySupport.putIfAbsent(name, result);
+            }
+            if (result) {
+                if (supported == null) {
+                    supported = new HashSet<String>();
+                }
+                supported.add(name);
+            }
+        }
+        return supported;
+    }
+}
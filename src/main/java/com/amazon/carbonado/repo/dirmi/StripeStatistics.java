@@ -0,0 +1,76 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+/**
+ * Snapshot of the load placed on one session of a striped client repository.
+ *
+ * @author agent
+ * @see ClientRepository#getStripeStatistics
+ */
+public class StripeStatistics {
+    private final int mStripe;
+    private final long mCalls;
+    private final long mTxns;
+    private final int mOpenTxns;
+
+    StripeStatistics(int stripe, long calls, long txns, int openTxns) {
+        mStripe = stripe;
+        mCalls = calls;
+        mTxns = txns;
+        mOpenTxns = openTxns;
+    }
+
+    /**
+     * Returns the index of the stripe, starting at zero.
+     */
+    public int getStripe() {
+        return mStripe;
+    }
+
+    /**
+     * Returns the amount of storage operations and procedure calls made
+     * through the stripe's session.
+     */
+    public long getCallCount() {
+        return mCalls;
+    }
+
+    /**
+     * Returns the amount of transactions entered through the stripe's
+     * session, including nested transactions.
+     */
+    public long getTransactionCount() {
+        return mTxns;
+    }
+
+    /**
+     * Returns the amount of transactions which are currently open on the
+     * stripe's session, including nested transactions.
+     */
+    public int getOpenTransactionCount() {
+        return mOpenTxns;
+    }
+
+    @Override
+    public String toString() {
+        return "StripeStatistics {stripe=" + mStripe + ", calls=" + mCalls +
+            ", transactions=" + mTxns + ", openTransactions=" + mOpenTxns + '}';
+    }
+}
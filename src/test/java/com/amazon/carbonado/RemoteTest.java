@@ -25,10 +25,25 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
 import org.cojen.dirmi.Environment;
 import org.cojen.dirmi.Session;
 import org.junit.Test;
@@ -36,9 +51,28 @@ import org.junit.Test;
 import com.amazon.carbonado.capability.RemoteProcedure;
 import com.amazon.carbonado.capability.RemoteProcedureCapability;
 import com.amazon.carbonado.capability.ResyncCapability;
+import com.amazon.carbonado.repo.dirmi.AdmissionStatistics;
+import com.amazon.carbonado.repo.dirmi.AsyncCapability;
+import com.amazon.carbonado.repo.dirmi.BatchCapability;
+import com.amazon.carbonado.repo.dirmi.BatchPersistException;
 import com.amazon.carbonado.repo.dirmi.ClientRepository;
+import com.amazon.carbonado.repo.dirmi.ClientRepositoryBuilder;
+import com.amazon.carbonado.repo.dirmi.CompressionStatistics;
+import com.amazon.carbonado.repo.dirmi.FetchBatchStatistics;
+import com.amazon.carbonado.repo.dirmi.JmxMetricsRegistry;
+import com.amazon.carbonado.repo.dirmi.ManualClock;
+import com.amazon.carbonado.repo.dirmi.MetricsRegistry;
+import com.amazon.carbonado.repo.dirmi.NearCacheCapability;
+import com.amazon.carbonado.repo.dirmi.NearCacheStatistics;
+import com.amazon.carbonado.repo.dirmi.OperationMetrics;
+import com.amazon.carbonado.repo.dirmi.ReconstructedCacheStatistics;
 import com.amazon.carbonado.repo.dirmi.RemoteRepository;
+import com.amazon.carbonado.repo.dirmi.RemoteRepositoryFactory;
 import com.amazon.carbonado.repo.dirmi.RemoteRepositoryServer;
+import com.amazon.carbonado.repo.dirmi.RemoteRepositoryServerBuilder;
+import com.amazon.carbonado.repo.dirmi.ReplicaStatistics;
+import com.amazon.carbonado.repo.dirmi.StorageMetrics;
+import com.amazon.carbonado.repo.dirmi.StripeStatistics;
 import com.amazon.carbonado.repo.indexed.IndexEntryAccessCapability;
 import com.amazon.carbonado.repo.indexed.IndexEntryAccessor;
 import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
@@ -1518,6 +1552,1606 @@ public class RemoteTest {
         assertEquals("Indices not repaired", 1, indexStorage.query().count());
     }
 
+    @Test
+    public void nearCache() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepository server = RemoteRepositoryServer.from(repo);
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setRemoteRepository((RemoteRepository) pair[1].receive());
+        builder.setNearCacheSize(100);
+        Repository clientRepo = builder.build();
+
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server);
+        Repository clientRepo2 = ClientRepository.from((RemoteRepository) pair2[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        NearCacheCapability cap = clientRepo.getCapability(NearCacheCapability.class);
+        assertNotNull(cap);
+
+        for (int i=0; i<3; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(5);
+            assertTrue(stb.tryLoad());
+            assertEquals("5world", stb.getStringProp());
+        }
+
+        NearCacheStatistics stats = cap.getNearCacheStatistics(StorableTestVersioned.class);
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2, stats.getHitCount());
+
+        // Update through another session, which must invalidate the cached copy.
+        StorableTestVersioned stb =
+            clientRepo2.storageFor(StorableTestVersioned.class).prepare();
+        stb.setId(5);
+        stb.load();
+        stb.setStringProp("changed");
+        stb.update();
+
+        assertEquals("changed", awaitStringProp(clientRepo, storage, 5, "changed"));
+
+        // Local delete is observed immediately.
+        stb = storage.prepare();
+        stb.setId(5);
+        stb.delete();
+        stb = storage.prepare();
+        stb.setId(5);
+        assertFalse(stb.tryLoad());
+    }
+
+    @Test
+    public void batchPersist() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        BatchCapability cap = clientRepo.getCapability(BatchCapability.class);
+        assertNotNull(cap);
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        List<StorableTestVersioned> list = new ArrayList<StorableTestVersioned>();
+        for (int i=0; i<250; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp(i + "world");
+            stb.setIntProp(321);
+            stb.setLongProp(313244232323432L);
+            stb.setDoubleProp(1.423423);
+            list.add(stb);
+        }
+
+        boolean[] results = cap.tryInsertAll(StorableTestVersioned.class, list);
+        assertEquals(250, results.length);
+        for (boolean result : results) {
+            assertTrue(result);
+        }
+        assertEquals(250, storage.query().count());
+        int version = list.get(100).getVersion();
+
+        results = cap.tryInsertAll(StorableTestVersioned.class, list.subList(0, 2));
+        assertFalse(results[0]);
+        assertFalse(results[1]);
+
+        for (StorableTestVersioned stb : list) {
+            stb.setIntProp(stb.getId() * 2);
+        }
+        results = cap.tryUpdateAll(StorableTestVersioned.class, list);
+        for (boolean result : results) {
+            assertTrue(result);
+        }
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(100);
+        stb.load();
+        assertEquals(200, stb.getIntProp());
+        assertEquals(version + 1, stb.getVersion());
+        // Server assigned version is returned.
+        assertEquals(version + 1, list.get(100).getVersion());
+
+        results = cap.tryDeleteAll(StorableTestVersioned.class, list.subList(0, 200));
+        for (boolean result : results) {
+            assertTrue(result);
+        }
+        assertEquals(50, storage.query().count());
+
+        results = cap.tryDeleteAll(StorableTestVersioned.class, list.subList(0, 1));
+        assertFalse(results[0]);
+    }
+
+    @Test
+    public void batchLoad() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        List<StorableTestVersioned> list = new ArrayList<StorableTestVersioned>();
+        for (int i=0; i<40; i+=2) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            list.add(stb);
+        }
+
+        BatchCapability cap = clientRepo.getCapability(BatchCapability.class);
+        boolean[] results = cap.tryLoadAll(StorableTestVersioned.class, list);
+        assertEquals(20, results.length);
+
+        for (int i=0; i<20; i++) {
+            StorableTestVersioned stb = list.get(i);
+            if (stb.getId() < 20) {
+                assertTrue(results[i]);
+                assertEquals(stb.getId() + "world", stb.getStringProp());
+            } else {
+                assertFalse(results[i]);
+            }
+        }
+
+        Transaction txn = clientRepo.enterTransaction();
+        try {
+            results = cap.tryLoadAll(StorableTestVersioned.class, list.subList(0, 3));
+            assertTrue(results[0] && results[1] && results[2]);
+        } finally {
+            txn.exit();
+        }
+
+        // Spans several chunks, and results must stay in request order.
+        list.clear();
+        for (int i=249; i>=0; i--) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i % 40);
+            list.add(stb);
+        }
+
+        results = cap.tryLoadAll(StorableTestVersioned.class, list);
+        assertEquals(250, results.length);
+
+        for (int i=0; i<250; i++) {
+            StorableTestVersioned stb = list.get(i);
+            assertEquals((249 - i) % 40, stb.getId());
+            if (stb.getId() < 20) {
+                assertTrue(results[i]);
+                assertEquals(stb.getId() + "world", stb.getStringProp());
+            } else {
+                assertFalse(results[i]);
+            }
+        }
+    }
+
+    @Test
+    public void asyncOperations() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        AsyncCapability cap = clientRepo.getCapability(AsyncCapability.class);
+        assertNotNull(cap);
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        List<StorableTestVersioned> list = new ArrayList<StorableTestVersioned>();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i=0; i<50; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp(i + "world");
+            stb.setIntProp(321);
+            stb.setLongProp(313244232323432L);
+            stb.setDoubleProp(1.423423);
+            list.add(stb);
+            futures.add(cap.tryInsert(stb));
+        }
+
+        for (Future<Boolean> f : futures) {
+            assertTrue(f.get());
+        }
+
+        assertEquals(50L, cap.count(storage.query()).get().longValue());
+        assertEquals(1L, cap.count(storage.query("id = ?").with(7)).get().longValue());
+
+        StorableTestVersioned stb = cap.loadOne(storage.query("id = ?").with(7)).get();
+        assertEquals("7world", stb.getStringProp());
+
+        stb = storage.prepare();
+        stb.setId(8);
+        assertTrue(cap.tryLoad(stb).get());
+        assertEquals("8world", stb.getStringProp());
+
+        stb.setStringProp("hello");
+        assertTrue(cap.tryUpdate(stb).get());
+        assertTrue(cap.tryDelete(list.get(9)).get());
+        assertFalse(cap.tryInsert(list.get(10)).get());
+
+        stb = storage.prepare();
+        stb.setId(8);
+        stb.load();
+        assertEquals("hello", stb.getStringProp());
+
+        stb = storage.prepare();
+        stb.setId(9);
+        assertFalse(cap.tryLoad(stb).get());
+
+        try {
+            cap.loadOne(storage.query("id = ?").with(9)).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FetchNoneException);
+        }
+    }
+
+    @Test
+    public void cursorPrefetch() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        Query<StorableTestVersioned> query =
+            ClientRepository.withPrefetch(storage.query().orderBy("id"), 4);
+
+        Cursor<StorableTestVersioned> cursor = query.fetch();
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(count, cursor.next().getId());
+            count++;
+        }
+        assertEquals(20, count);
+        assertFalse(cursor.hasNext());
+
+        // Close before reading everything.
+        cursor = query.fetch();
+        assertTrue(cursor.hasNext());
+        cursor.next();
+        cursor.close();
+        assertFalse(cursor.hasNext());
+
+        // Prefetch setting survives parameter binding.
+        query = ClientRepository.withPrefetch(storage.query("id >= ?").orderBy("id"), 2);
+        assertEquals(5, query.with(15).fetch().toList().size());
+
+        // Prefetch within a transaction.
+        Transaction txn = clientRepo.enterTransaction();
+        try {
+            assertEquals(20, query.with(0).fetch().toList().size());
+        } finally {
+            txn.exit();
+        }
+    }
+
+    @Test
+    public void fetchBatchSizing() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        // Small enough that only a few storables fit in each batch.
+        builder.setFetchByteBudget(200);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        for (int i=0; i<300; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp(i + "world");
+            stb.setIntProp(321);
+            stb.setLongProp(313244232323432L);
+            stb.setDoubleProp(1.423423);
+            stb.insert();
+        }
+
+        assertEquals(300, storage.query().fetch().toList().size());
+
+        FetchBatchStatistics stats = server.getFetchBatchStatistics();
+        assertEquals(300, stats.getRowCount());
+        assertTrue(stats.getByteCount() > 0);
+        // First batch uses the default size, and later ones respect the budget.
+        assertTrue(stats.getAverageBatchSize() < 100);
+        assertTrue(stats.getBatchCount() > 3);
+    }
+
+    @Test
+    public void partialPersistResponse() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        RemoteRepositoryServer remoteServer = builder.build();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(remoteServer);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        stb.setStringProp("hello");
+        stb.setIntProp(1);
+        stb.setLongProp(1L);
+        stb.setDoubleProp(1.0);
+        stb.insert();
+
+        StorableTestVersioned server = repo.storageFor(StorableTestVersioned.class).prepare();
+        server.setId(1);
+        server.load();
+        assertEquals(server.getVersion(), stb.getVersion());
+
+        // Server only changes the version, which must be applied to the client copy.
+        stb.setStringProp("world");
+        stb.update();
+        server.load();
+        assertEquals("world", server.getStringProp());
+        assertEquals(server.getVersion(), stb.getVersion());
+        assertEquals("world", stb.getStringProp());
+        assertEquals(1, stb.getIntProp());
+
+        stb.setIntProp(2);
+        stb.update();
+        server.load();
+        assertEquals(server.getVersion(), stb.getVersion());
+        assertEquals(2, server.getIntProp());
+
+        char[] big = new char[2000];
+        Arrays.fill(big, 'x');
+        stb.setStringProp(new String(big));
+        stb.update();
+
+        // Update only sends the dirty property, and the server loads the
+        // large one. The response must only carry the new version, and not
+        // the loaded properties.
+        StorableTestVersioned other = storage.prepare();
+        other.setId(1);
+        other.load();
+
+        StorageMetrics metrics = remoteServer.getStorageMetrics(StorableTestVersioned.class);
+        long bytesOut = metrics.getBytesOut();
+        other.setIntProp(3);
+        other.update();
+        assertTrue(metrics.getBytesOut() - bytesOut < big.length);
+
+        assertEquals(3, other.getIntProp());
+        assertEquals(new String(big), other.getStringProp());
+        server.load();
+        assertEquals(server.getVersion(), other.getVersion());
+        assertEquals(3, server.getIntProp());
+    }
+
+    @PrimaryKey("id")
+    @AlternateKeys(@Key("name"))
+    public static interface KeyedRec extends Storable {
+        int getId();
+        void setId(int id);
+
+        String getName();
+        void setName(String name);
+
+        String getValue();
+        void setValue(String value);
+    }
+
+    @Test
+    public void keyOnlyLoadAndDelete() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<KeyedRec> storage = clientRepo.storageFor(KeyedRec.class);
+
+        KeyedRec rec = storage.prepare();
+        rec.setId(1);
+        rec.setName("one");
+        rec.setValue("first");
+        rec.insert();
+
+        rec = storage.prepare();
+        rec.setId(1);
+        assertTrue(rec.tryLoad());
+        assertEquals("one", rec.getName());
+        assertEquals("first", rec.getValue());
+
+        // Load by alternate key.
+        rec = storage.prepare();
+        rec.setName("one");
+        assertTrue(rec.tryLoad());
+        assertEquals(1, rec.getId());
+        assertEquals("first", rec.getValue());
+
+        rec = storage.prepare();
+        rec.setName("two");
+        assertFalse(rec.tryLoad());
+
+        // Dirty non-key properties don't affect the load or delete.
+        rec = storage.prepare();
+        rec.setId(1);
+        rec.setValue("ignored");
+        assertTrue(rec.tryLoad());
+        assertEquals("first", rec.getValue());
+
+        rec = storage.prepare();
+        rec.setId(1);
+        rec.setValue("ignored");
+        assertTrue(rec.tryDelete());
+        assertEquals(0, storage.query().count());
+    }
+
+    @Test
+    public void dirtyOnlyUpdate() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        stb.setStringProp("hello");
+        stb.setIntProp(1);
+        stb.setLongProp(1L);
+        stb.setDoubleProp(1.0);
+        stb.insert();
+
+        StorableTestVersioned a = storage.prepare();
+        a.setId(1);
+        a.load();
+        StorableTestVersioned b = storage.prepare();
+        b.setId(1);
+        b.load();
+
+        a.setIntProp(2);
+        a.update();
+
+        // Only the dirty property is written, and so the stale clean
+        // properties of the other copy don't overwrite anything.
+        b.setStringProp("world");
+        b.setVersion(a.getVersion());
+        b.update();
+
+        StorableTestVersioned server = repo.storageFor(StorableTestVersioned.class).prepare();
+        server.setId(1);
+        server.load();
+        assertEquals("world", server.getStringProp());
+        assertEquals(2, server.getIntProp());
+        assertEquals(1L, server.getLongProp());
+        assertEquals(server.getVersion(), b.getVersion());
+
+        // Stale version is still detected.
+        a.setLongProp(3L);
+        try {
+            a.update();
+            fail();
+        } catch (PersistException e) {
+        }
+    }
+
+    @Test
+    public void compressedStreams() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setCompressionEnabled(true);
+        builder.setCompressionThreshold(256);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        List<StorableTestVersioned> list = new ArrayList<StorableTestVersioned>();
+        for (int i=0; i<1000; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("hello world, hello world, hello world " + i);
+            stb.setIntProp(321);
+            stb.setLongProp(313244232323432L);
+            stb.setDoubleProp(1.423423);
+            list.add(stb);
+        }
+
+        BatchCapability cap = clientRepo.getCapability(BatchCapability.class);
+        for (boolean result : cap.tryInsertAll(StorableTestVersioned.class, list)) {
+            assertTrue(result);
+        }
+        assertEquals(1000, repo.storageFor(StorableTestVersioned.class).query().count());
+
+        CompressionStatistics sent = clientRepo.getCompressionStatistics();
+        CompressionStatistics received = server.getDecompressionStatistics();
+        assertTrue(sent.getCompressionRatio() > 1.0);
+        assertEquals(sent.getRawByteCount(), received.getRawByteCount());
+        assertEquals(sent.getWireByteCount(), received.getWireByteCount());
+
+        List<StorableTestVersioned> results = storage.query().orderBy("id").fetch().toList();
+        assertEquals(1000, results.size());
+        for (int i=0; i<1000; i++) {
+            assertEquals("hello world, hello world, hello world " + i,
+                         results.get(i).getStringProp());
+        }
+
+        // Small results aren't compressed.
+        long skipped = server.getCompressionStatistics().getSkippedBlockCount();
+        assertEquals(1, storage.query("id = ?").with(5).fetch().toList().size());
+        assertEquals(skipped + 1, server.getCompressionStatistics().getSkippedBlockCount());
+
+        CompressionStatistics compressed = server.getCompressionStatistics();
+        CompressionStatistics decompressed = clientRepo.getDecompressionStatistics();
+        assertTrue(compressed.getCompressionRatio() > 1.0);
+        assertTrue(compressed.getCodecNanos() > 0);
+        assertEquals(compressed.getWireByteCount(), decompressed.getWireByteCount());
+    }
+
+    @Test
+    public void storageMetrics() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        final List<StorageMetrics> registered = new ArrayList<StorageMetrics>();
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setMetricsRegistry(new MetricsRegistry() {
+            public void register(StorageMetrics metrics) {
+                registered.add(metrics);
+            }
+        });
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        for (int i=0; i<10; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("hello");
+            stb.setIntProp(i);
+            stb.setLongProp(i);
+            stb.setDoubleProp(i);
+            stb.insert();
+        }
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        assertTrue(stb.tryLoad());
+        stb.setId(100);
+        assertFalse(stb.tryLoad());
+
+        assertEquals(10, storage.query().fetch().toList().size());
+        assertEquals(10, storage.query().count());
+
+        stb = storage.prepare();
+        stb.setId(1);
+        stb.setStringProp("hello");
+        stb.setIntProp(1);
+        stb.setLongProp(1);
+        stb.setDoubleProp(1);
+        try {
+            stb.insert();
+            fail();
+        } catch (UniqueConstraintException e) {
+        }
+
+        storage.truncate();
+
+        StorageMetrics metrics = server.getStorageMetrics(StorableTestVersioned.class);
+        assertNotNull(metrics);
+        assertEquals(1, registered.size());
+        assertTrue(metrics == registered.get(0));
+
+        OperationMetrics inserts = metrics.getOperation(StorageMetrics.Operation.TRY_INSERT);
+        assertEquals(11, inserts.getCount());
+        assertEquals(1, inserts.getErrorCount());
+        assertTrue(inserts.getLatencyNanos().getMax() > 0);
+        assertTrue(inserts.getLatencyNanos().getPercentile(99)
+                   <= inserts.getLatencyNanos().getMax());
+
+        assertEquals(2, metrics.getOperation(StorageMetrics.Operation.TRY_LOAD).getCount());
+        assertEquals(1, metrics.getOperation(StorageMetrics.Operation.QUERY_FETCH).getCount());
+        assertEquals(1, metrics.getOperation(StorageMetrics.Operation.QUERY_COUNT).getCount());
+        assertEquals(1, metrics.getOperation(StorageMetrics.Operation.TRUNCATE).getCount());
+        assertEquals(1, metrics.getCursorRows().getCount());
+        assertEquals(10, metrics.getCursorRows().getMax());
+        assertTrue(metrics.getBytesIn() > 0);
+        assertTrue(metrics.getBytesOut() > 0);
+    }
+
+    @Test
+    public void jmxMetricsRegistry() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setMetricsRegistry(new JmxMetricsRegistry(mbs));
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        assertFalse(stb.tryLoad());
+
+        Set<ObjectName> names = mbs.queryNames
+            (new ObjectName("com.amazon.carbonado.repo.dirmi:type=StorageMetrics,*"), null);
+        assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        assertEquals(StorableTestVersioned.class.getName(), name.getKeyProperty("storable"));
+        assertEquals(1L, mbs.getAttribute(name, "TryLoadCount"));
+        assertEquals(0L, mbs.getAttribute(name, "TryLoadErrorCount"));
+        assertTrue((Long) mbs.getAttribute(name, "TryLoadMaxLatencyNanos") > 0);
+
+        try {
+            mbs.invoke(name, "reset", new Object[0], new String[0]);
+            fail();
+        } catch (ReflectionException e) {
+            assertTrue(e.getCause() instanceof NoSuchMethodException);
+        }
+
+        // A server over another repository with the same name doesn't take
+        // over the exported metrics.
+        MapRepositoryBuilder repoBuilder = new MapRepositoryBuilder();
+        repoBuilder.setName(repo.getName());
+        builder.setRepository(repoBuilder.build());
+        RemoteRepositoryServer server2 = builder.build();
+
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server2);
+        Repository clientRepo2 = ClientRepository.from((RemoteRepository) pair2[1].receive());
+        stb = clientRepo2.storageFor(StorableTestVersioned.class).prepare();
+        stb.setId(1);
+        assertFalse(stb.tryLoad());
+        assertFalse(stb.tryLoad());
+
+        assertEquals(1, mbs.queryNames(name, null).size());
+        assertEquals(1L, mbs.getAttribute(name, "TryLoadCount"));
+    }
+
+    @Test
+    public void stripedSessions() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        final RemoteRepository server = RemoteRepositoryServer.from(repo);
+        final Environment env = new Environment();
+
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setRemoteRepositoryFactory(new RemoteRepositoryFactory() {
+            public RemoteRepository newRemoteRepository() throws java.io.IOException {
+                Session[] pair = env.newSessionPair();
+                pair[0].send(server);
+                try {
+                    return (RemoteRepository) pair[1].receive();
+                } catch (ClassNotFoundException e) {
+                    throw new java.io.IOException(e.toString());
+                }
+            }
+        });
+        builder.setStripeCount(3);
+        final ClientRepository clientRepo = builder.build();
+
+        assertEquals(3, clientRepo.getStripeCount());
+
+        final Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        // Use several threads, which are spread across the stripes.
+        Thread[] threads = new Thread[6];
+        final Exception[] failure = new Exception[1];
+        for (int t=0; t<threads.length; t++) {
+            final int base = t * 10;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i=0; i<10; i++) {
+                            StorableTestVersioned stb = storage.prepare();
+                            stb.setId(base + i);
+                            stb.setStringProp("hello");
+                            stb.setIntProp(i);
+                            stb.setLongProp(i);
+                            stb.setDoubleProp(i);
+                            stb.insert();
+                        }
+
+                        // Everything within a transaction uses one stripe.
+                        Transaction txn = clientRepo.enterTransaction();
+                        try {
+                            StorableTestVersioned stb = storage.prepare();
+                            stb.setId(base);
+                            stb.load();
+                            stb.setIntProp(100);
+                            stb.update();
+
+                            Transaction nested = clientRepo.enterTransaction();
+                            try {
+                                assertEquals(10, storage.query("id >= ? & id < ?")
+                                             .with(base).with(base + 10).count());
+                                nested.commit();
+                            } finally {
+                                nested.exit();
+                            }
+
+                            txn.commit();
+                        } finally {
+                            txn.exit();
+                        }
+                    } catch (Exception e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+
+        assertEquals(60, storage.query().count());
+        assertEquals(6, storage.query("intProp = ?").with(100).count());
+
+        List<StripeStatistics> stats = clientRepo.getStripeStatistics();
+        assertEquals(3, stats.size());
+        long calls = 0, txns = 0;
+        for (int i=0; i<stats.size(); i++) {
+            StripeStatistics s = stats.get(i);
+            assertEquals(i, s.getStripe());
+            assertEquals(0, s.getOpenTransactionCount());
+            calls += s.getCallCount();
+            txns += s.getTransactionCount();
+        }
+        // Each thread made 10 inserts, a load, an update and a count, and
+        // entered a nested transaction.
+        assertTrue(calls >= 6 * 13);
+        assertEquals(12, txns);
+
+        clientRepo.close();
+        env.close();
+    }
+
+    @Test
+    public void readReplicas() throws Exception {
+        Repository primaryRepo = MapRepositoryBuilder.newRepository();
+        Repository replicaRepo = MapRepositoryBuilder.newRepository();
+
+        // Rows differ between the primary and the replica, to detect where
+        // reads are sent.
+        for (Repository repo : new Repository[] {primaryRepo, replicaRepo}) {
+            StorableTestVersioned stb = repo.storageFor(StorableTestVersioned.class).prepare();
+            stb.setId(1);
+            stb.setStringProp(repo == primaryRepo ? "primary" : "replica");
+            stb.setIntProp(1);
+            stb.setLongProp(1);
+            stb.setDoubleProp(1);
+            stb.insert();
+        }
+
+        Environment env = new Environment();
+        Session[] primaryPair = env.newSessionPair();
+        primaryPair[0].send(RemoteRepositoryServer.from(primaryRepo));
+        Session[] replicaPair = env.newSessionPair();
+        replicaPair[0].send(RemoteRepositoryServer.from(replicaRepo));
+
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setRemoteRepository((RemoteRepository) primaryPair[1].receive());
+        builder.setReplicaRepositories((RemoteRepository) replicaPair[1].receive());
+        builder.setReadYourWritesWindow(500, TimeUnit.MILLISECONDS);
+        ManualClock clock = new ManualClock();
+        clock.installIn(builder);
+        ClientRepository clientRepo = builder.build();
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        stb.load();
+        assertEquals("replica", stb.getStringProp());
+        assertEquals("replica", storage.query("id = ?").with(1).loadOne().getStringProp());
+        assertEquals("replica", storage.query().fetch().next().getStringProp());
+
+        // Reads within a transaction are sent to the primary.
+        Transaction txn = clientRepo.enterTransaction();
+        try {
+            stb = storage.prepare();
+            stb.setId(1);
+            stb.load();
+            assertEquals("primary", stb.getStringProp());
+        } finally {
+            txn.exit();
+        }
+
+        // Reads are sent to the primary for a while after a write.
+        stb = storage.prepare();
+        stb.setId(2);
+        stb.setStringProp("written");
+        stb.setIntProp(2);
+        stb.setLongProp(2);
+        stb.setDoubleProp(2);
+        stb.insert();
+        assertEquals(2, storage.query().count());
+        clock.advance(499, TimeUnit.MILLISECONDS);
+        assertEquals(2, storage.query().count());
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        assertEquals(1, storage.query().count());
+
+        List<ReplicaStatistics> stats = clientRepo.getReplicaStatistics();
+        assertEquals(1, stats.size());
+        assertEquals(4, stats.get(0).getCallCount());
+        assertEquals(0, stats.get(0).getFailureCount());
+        assertEquals(0, stats.get(0).getPendingCount());
+        assertTrue(stats.get(0).getLatencyNanos() > 0);
+
+        // Reads fall back to the primary when the replica is unreachable.
+        replicaPair[0].close();
+        stb = storage.prepare();
+        stb.setId(1);
+        stb.load();
+        assertEquals("primary", stb.getStringProp());
+
+        stats = clientRepo.getReplicaStatistics();
+        assertEquals(1, stats.get(0).getFailureCount());
+        assertFalse(stats.get(0).isAvailable());
+
+        assertEquals(2, storage.query().count());
+
+        clientRepo.close();
+        env.close();
+    }
+
+    @Test
+    public void admissionControl() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        repo.storageFor(StorableTestVersioned.class)
+            .addTrigger(new Trigger<StorableTestVersioned>() {
+                @Override
+                public Object beforeInsert(StorableTestVersioned s) throws PersistException {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new PersistException(e);
+                    }
+                    return null;
+                }
+            });
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setMaxConcurrentPointOperations(1);
+        builder.setMaxConcurrentScans(StorableTestVersioned.class, 2);
+        builder.setAdmissionTimeout(0, TimeUnit.MILLISECONDS);
+        RemoteRepositoryServer server = builder.build();
+        assertNull(server.getScanAdmissionStatistics());
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        final Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        // Occupy the only point operation permit.
+        Thread inserter = new Thread() {
+            public void run() {
+                try {
+                    StorableTestVersioned stb = storage.prepare();
+                    stb.setId(1);
+                    stb.setStringProp("hello");
+                    stb.insert();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        inserter.start();
+        entered.await();
+
+        assertEquals(1, server.getPointAdmissionStatistics().getActiveCount());
+
+        // Another server over the same repository, with the same limit, shares the pool.
+        RemoteRepositoryServer server2 = builder.build();
+        assertEquals(1, server2.getPointAdmissionStatistics().getActiveCount());
+
+        StorableTestVersioned stb = storage.prepare();
+        stb.setId(1);
+        try {
+            stb.load();
+            fail();
+        } catch (FetchTimeoutException e) {
+            assertTrue(e.getMessage().contains("point operation pool"));
+        }
+
+        release.countDown();
+        inserter.join();
+
+        stb.load();
+        assertEquals("hello", stb.getStringProp());
+
+        AdmissionStatistics stats = server.getPointAdmissionStatistics();
+        assertEquals(1, stats.getLimit());
+        assertEquals(0, stats.getActiveCount());
+        assertEquals(0, stats.getQueueDepth());
+
+        StorageMetrics metrics = server.getStorageMetrics(StorableTestVersioned.class);
+        assertEquals(1, metrics.getAdmissionRejectedCount());
+        assertEquals(0, metrics.getAdmissionQueueDepth());
+        assertEquals(2, metrics.getAdmissionWaitNanos().getCount());
+    }
+
+    @Test
+    public void concurrentTransactionAttach() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        for (int i=0; i<100; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("hello " + i);
+            stb.insert();
+        }
+
+        StorageMetrics metrics = server.getStorageMetrics(StorableTestVersioned.class);
+        long attached = metrics.getAttachWaitNanos().getCount();
+
+        // Many requests in flight within one transaction contend for it on the server.
+        AsyncCapability cap = clientRepo.getCapability(AsyncCapability.class);
+        Transaction txn = clientRepo.enterTransaction();
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int i=0; i<100; i++) {
+                StorableTestVersioned stb = storage.prepare();
+                stb.setId(i);
+                futures.add(cap.tryLoad(stb));
+            }
+            for (Future<Boolean> f : futures) {
+                assertTrue(f.get());
+            }
+            assertEquals(100, storage.query().fetch().toList().size());
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+
+        attached = metrics.getAttachWaitNanos().getCount() - attached;
+        assertTrue(attached >= 101);
+        assertTrue(metrics.getAttachSpinCount() + metrics.getAttachParkCount() <= attached);
+    }
+
+    @Test
+    public void preparedQueryCache() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setQueryCacheSize(2);
+        // Prepared queries bypass the cache.
+        builder.setMaxPreparedQueries(0);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        for (int i=0; i<10; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("hello");
+            stb.setIntProp(i % 2);
+            stb.insert();
+        }
+
+        StorageMetrics metrics = server.getStorageMetrics(StorableTestVersioned.class);
+
+        Query<StorableTestVersioned> query = storage.query("intProp = ?").orderBy("-id");
+        List<StorableTestVersioned> list = query.with(0).fetch().toList();
+        assertEquals(5, list.size());
+        assertEquals(8, list.get(0).getId());
+        assertEquals(1, metrics.getQueryCacheMissCount());
+        assertEquals(0, metrics.getQueryCacheHitCount());
+
+        // Only the values differ, and so the prepared query is reused.
+        list = query.with(1).fetch().toList();
+        assertEquals(5, list.size());
+        assertEquals(9, list.get(0).getId());
+        assertEquals(1, metrics.getQueryCacheMissCount());
+        assertEquals(1, metrics.getQueryCacheHitCount());
+
+        // Counts aren't ordered, and so they're a different query.
+        assertEquals(5, query.with(1).count());
+        assertEquals(2, metrics.getQueryCacheMissCount());
+
+        list = storage.query("intProp = ?").orderBy("id").with(1).fetch().toList();
+        assertEquals(1, list.get(0).getId());
+        assertEquals(3, metrics.getQueryCacheMissCount());
+        assertEquals(0.25, metrics.getQueryCacheHitRate(), 0.0);
+    }
+
+    @Test
+    public void preparedQueries() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        for (int i=0; i<10; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp("hello " + (i % 3));
+            stb.setIntProp(i % 2);
+            stb.insert();
+        }
+
+        StorageMetrics metrics = server.getStorageMetrics(StorableTestVersioned.class);
+
+        Query<StorableTestVersioned> query =
+            storage.query("intProp = ? & stringProp = ?").orderBy("id");
+        List<StorableTestVersioned> list = query.with(0).with("hello 0").fetch().toList();
+        assertEquals(2, list.size());
+        assertEquals(0, list.get(0).getId());
+        assertEquals(6, list.get(1).getId());
+        assertEquals(1, metrics.getPreparedQueryCount());
+
+        // Same handle is used with different values.
+        list = query.with(1).with("hello 1").fetch().toList();
+        assertEquals(2, list.size());
+        assertEquals(1, list.get(0).getId());
+        assertEquals(7, list.get(1).getId());
+        assertEquals(1, metrics.getPreparedQueryCount());
+
+        // Counts and loads aren't ordered, and so they're prepared separately.
+        assertEquals(2, query.with(1).with("hello 1").count());
+        assertEquals(2, metrics.getPreparedQueryCount());
+        assertEquals(0, query.with(1).with("hello 2").count());
+        assertEquals(2, metrics.getPreparedQueryCount());
+
+        StorableTestVersioned stb = storage.query("id = ?").with(4).loadOne();
+        assertEquals("hello 1", stb.getStringProp());
+        assertNull(storage.query("id = ?").with(40).tryLoadOne());
+        assertEquals(10, storage.query().count());
+        assertEquals(4, metrics.getPreparedQueryCount());
+
+        // Prepared queries don't need the query cache.
+        assertEquals(0, metrics.getQueryCacheHitCount());
+        assertEquals(0, metrics.getQueryCacheMissCount());
+    }
+
+    @Test
+    public void sequenceReserve() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepository server = RemoteRepositoryServer.from(repo);
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setRemoteRepository((RemoteRepository) pair[1].receive());
+        builder.setSequenceReserveSize(10);
+        Repository clientRepo = builder.build();
+
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server);
+        Repository clientRepo2 = ClientRepository.from((RemoteRepository) pair2[1].receive());
+
+        SequenceValueProducer producer = clientRepo
+            .getCapability(SequenceCapability.class).getSequenceValueProducer("reserved");
+        SequenceValueProducer producer2 = clientRepo2
+            .getCapability(SequenceCapability.class).getSequenceValueProducer("reserved");
+
+        // First block is reserved by one call.
+        for (int i=1; i<=10; i++) {
+            assertEquals(i, producer.nextLongValue());
+        }
+
+        // Other client gets a value which wasn't reserved.
+        long other = producer2.nextLongValue();
+        assertTrue(other > 10);
+
+        Set<Long> values = new HashSet<Long>();
+        long last = 10;
+        for (int i=0; i<25; i++) {
+            long value = producer.nextLongValue();
+            assertTrue(value > 10);
+            assertTrue(value != other);
+            assertTrue(values.add(value));
+            last = Math.max(last, value);
+        }
+
+        // Unused values are skipped.
+        producer.returnReservedValues();
+        long next = producer.nextLongValue();
+        assertTrue(next > last);
+        assertTrue(next > other);
+        assertFalse(values.contains(next));
+
+        // Values reserved by a storable sequence are handed out in order.
+        Storage<SeqRec> storage = clientRepo.storageFor(SeqRec.class);
+        for (int i=1; i<=5; i++) {
+            SeqRec rec = storage.prepare();
+            rec.setValue("value " + i);
+            rec.insert();
+            assertEquals(i, rec.getId());
+        }
+    }
+
+    @Test
+    public void concurrentReconstruction() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        final RemoteRepository server = RemoteRepositoryServer.from(repo);
+        final Class<? extends Storable> newType = generateNewType();
+
+        ReconstructedCacheStatistics before =
+            ((RemoteRepositoryServer) server).getReconstructedCacheStatistics();
+
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Environment env = new Environment();
+        List<Future<Storage>> results = new ArrayList<Future<Storage>>();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int i=0; i<threadCount; i++) {
+                results.add(executor.submit(new Callable<Storage>() {
+                    public Storage call() throws Exception {
+                        Session[] pair = env.newSessionPair();
+                        pair[0].send(server);
+                        Repository clientRepo =
+                            ClientRepository.from((RemoteRepository) pair[1].receive());
+                        start.await();
+                        return clientRepo.storageFor(newType);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Storage> result : results) {
+                assertNotNull(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        ReconstructedCacheStatistics after =
+            ((RemoteRepositoryServer) server).getReconstructedCacheStatistics();
+
+        // Client and server each convert to the other's layout, and all
+        // other requests wait for the same classes.
+        long misses = after.getMissCount() - before.getMissCount();
+        long hits = after.getHitCount() - before.getHitCount()
+            + after.getWriterHitCount() - before.getWriterHitCount();
+        assertTrue(misses >= 1 && misses <= 2);
+        assertTrue(misses + hits >= threadCount * 2);
+        assertEquals(0, after.getEvictionCount());
+    }
+
+    @Test
+    public void sharedStorageState() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepository server = RemoteRepositoryServer.from(repo);
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server);
+        Repository clientRepo2 = ClientRepository.from((RemoteRepository) pair2[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        Storage<StorableTestVersioned> storage2 =
+            clientRepo2.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        assertEquals(20, storage2.query().count());
+
+        // Sessions of a separately built server over the same repository
+        // share the state and metrics too.
+        RemoteRepositoryServer server3 = (RemoteRepositoryServer) RemoteRepositoryServer.from(repo);
+        Session[] pair3 = new Environment().newSessionPair();
+        pair3[0].send(server3);
+        Repository clientRepo3 = ClientRepository.from((RemoteRepository) pair3[1].receive());
+        assertEquals(20, clientRepo3.storageFor(StorableTestVersioned.class).query().count());
+
+        StorageMetrics metrics =
+            ((RemoteRepositoryServer) server).getStorageMetrics(StorableTestVersioned.class);
+        assertNotNull(metrics);
+        assertTrue(metrics == server3.getStorageMetrics(StorableTestVersioned.class));
+
+        assertEquals(3, metrics.getSessionCount());
+
+        // Closing one session only stops its own queries, although both
+        // sessions share state for the type.
+        pair[0].close();
+        pair[1].close();
+        assertTrue(metrics.awaitSessionCount(2, 10, TimeUnit.SECONDS));
+        assertEquals(2, metrics.getSessionCount());
+
+        assertEquals(20, storage2.query().fetch().toList().size());
+        StorableTestVersioned stb = storage2.prepare();
+        stb.setId(5);
+        assertTrue(stb.tryLoad());
+        assertEquals("5world", stb.getStringProp());
+    }
+
+    @Test
+    public void warmUp() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepository server = RemoteRepositoryServer.from(repo);
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepository clientRepo =
+            ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        // Existing storage is skipped.
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        clientRepo.warmUp(StorableTestVersioned.class, SeqRec.class, KeyedRec.class,
+                          IndexedStorable.class);
+
+        assertTrue(storage == clientRepo.storageFor(StorableTestVersioned.class));
+
+        Storage<SeqRec> seqStorage = clientRepo.storageFor(SeqRec.class);
+        SeqRec rec = seqStorage.prepare();
+        rec.setValue("value");
+        rec.insert();
+        assertEquals(1, rec.getId());
+
+        fill(storage);
+        assertEquals(20, storage.query().count());
+
+        // Storage requested in bulk is also used after reconnecting.
+        pair[0].close();
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server);
+        clientRepo.reconnect((RemoteRepository) pair2[1].receive());
+
+        assertEquals(20, storage.query().count());
+        assertEquals(1, seqStorage.query().count());
+    }
+
+    @Test
+    public void layoutFingerprints() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        RemoteRepository server = RemoteRepositoryServer.from(repo);
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        ClientRepository clientRepo =
+            ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        // Layouts are sent by fingerprint after the first request, in both
+        // directions, and each reconnect must still find them.
+        for (int i=0; i<3; i++) {
+            pair[0].close();
+            pair = new Environment().newSessionPair();
+            pair[0].send(server);
+            clientRepo.reconnect((RemoteRepository) pair[1].receive());
+
+            assertEquals(20, storage.query().count());
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(1);
+            assertTrue(stb.tryLoad());
+            assertEquals("1world", stb.getStringProp());
+        }
+
+        // Another client sends full layouts, since it hasn't seen the server.
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(server);
+        ClientRepository clientRepo2 =
+            ClientRepository.from((RemoteRepository) pair2[1].receive());
+        clientRepo2.warmUp(StorableTestVersioned.class, SeqRec.class);
+        assertEquals(20, clientRepo2.storageFor(StorableTestVersioned.class).query().count());
+
+        // Reconnecting to another server works too, whether or not it has
+        // seen the layouts.
+        Repository repo2 = MapRepositoryBuilder.newRepository();
+        pair[0].close();
+        pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo2));
+        clientRepo.reconnect((RemoteRepository) pair[1].receive());
+        assertEquals(0, storage.query().count());
+    }
+
+    @Test
+    public void copierReusesTargets() throws Exception {
+        // Rows converted between layouts reuse the same target, which must
+        // not leak values from one row into the next.
+
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Class<? extends Storable> newType = generateNewType();
+        Storage<? extends Storable> newStorage = clientRepo.storageFor(newType);
+
+        for (int i=0; i<20; i++) {
+            Storable stb = newStorage.prepare();
+            stb.setPropertyValue("id", i);
+            stb.setPropertyValue("stringProp", "hello " + i);
+            stb.setPropertyValue("intProp", i * 10);
+            stb.setPropertyValue("longProp", (long) i);
+            stb.insert();
+        }
+
+        Storage<StorableTestVersioned> originalStorage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        Cursor<StorableTestVersioned> c = originalStorage.query().orderBy("id").fetch();
+        int i = 0;
+        while (c.hasNext()) {
+            StorableTestVersioned stb = c.next();
+            assertEquals(i, stb.getId());
+            assertEquals("hello " + i, stb.getStringProp());
+            assertEquals(i * 10, stb.getIntProp());
+            assertEquals((long) i, stb.getLongProp());
+            i++;
+        }
+        assertEquals(20, i);
+
+        Cursor<? extends Storable> c2 = newStorage.query().orderBy("id").fetch();
+        i = 0;
+        while (c2.hasNext()) {
+            Storable stb = c2.next();
+            assertEquals(i, stb.getPropertyValue("id"));
+            assertEquals("hello " + i, stb.getPropertyValue("stringProp"));
+            assertEquals(i * 10, stb.getPropertyValue("intProp"));
+            i++;
+        }
+        assertEquals(20, i);
+    }
+
+    @Test
+    public void nearCacheSeparateServers() throws Exception {
+        // Each session has its own server over the same repository, and
+        // they must still invalidate each other.
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        ClientRepositoryBuilder builder = new ClientRepositoryBuilder();
+        builder.setRemoteRepository((RemoteRepository) pair[1].receive());
+        builder.setNearCacheSize(100);
+        Repository clientRepo = builder.build();
+
+        Session[] pair2 = new Environment().newSessionPair();
+        pair2[0].send(RemoteRepositoryServer.from(repo));
+        ClientRepositoryBuilder builder2 = new ClientRepositoryBuilder();
+        builder2.setRemoteRepository((RemoteRepository) pair2[1].receive());
+        builder2.setNearCacheSize(100);
+        Repository clientRepo2 = builder2.build();
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        Storage<StorableTestVersioned> storage2 =
+            clientRepo2.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        // Cache the row in both clients.
+        for (Storage<StorableTestVersioned> s : Arrays.asList(storage, storage2)) {
+            StorableTestVersioned stb = s.prepare();
+            stb.setId(5);
+            assertTrue(stb.tryLoad());
+            assertEquals("5world", stb.getStringProp());
+        }
+
+        StorableTestVersioned stb = storage2.prepare();
+        stb.setId(5);
+        stb.load();
+        stb.setStringProp("changed");
+        stb.update();
+        assertEquals("changed", awaitStringProp(clientRepo, storage, 5, "changed"));
+
+        stb = storage.prepare();
+        stb.setId(5);
+        stb.load();
+        stb.setStringProp("changed again");
+        stb.update();
+        assertEquals("changed again",
+                     awaitStringProp(clientRepo2, storage2, 5, "changed again"));
+    }
+
+    /**
+     * Loads through the near cache until the expected value is observed,
+     * waiting for each invalidation message in between.
+     */
+    private static String awaitStringProp(Repository repo, Storage<StorableTestVersioned> storage,
+                                          int id, String expected)
+        throws Exception
+    {
+        NearCacheCapability cap = repo.getCapability(NearCacheCapability.class);
+        while (true) {
+            // Read the count first, so that a message received during the
+            // load isn't missed.
+            long count = cap.getNearCacheStatistics(StorableTestVersioned.class)
+                .getInvalidationCount();
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(id);
+            assertTrue(stb.tryLoad());
+            String value = stb.getStringProp();
+            if (expected.equals(value) ||
+                !cap.awaitInvalidationCount(StorableTestVersioned.class, count + 1,
+                                            10, TimeUnit.SECONDS))
+            {
+                return value;
+            }
+        }
+    }
+
+    @Test
+    public void batchPersistFailure() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(RemoteRepositoryServer.from(repo));
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        BatchCapability cap = clientRepo.getCapability(BatchCapability.class);
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+        fill(storage);
+
+        // Duplicate key in the middle of the batch only fails that row.
+        List<StorableTestVersioned> list = new ArrayList<StorableTestVersioned>();
+        for (int id : new int[] {100, 101, 5, 102}) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(id);
+            stb.setStringProp(id + "batch");
+            stb.setIntProp(1);
+            stb.setLongProp(2);
+            list.add(stb);
+        }
+
+        boolean[] results = cap.tryInsertAll(StorableTestVersioned.class, list);
+        assertTrue(results[0]);
+        assertTrue(results[1]);
+        assertFalse(results[2]);
+        assertTrue(results[3]);
+        assertEquals(23, storage.query().count());
+
+        // Exception in the middle of the batch reports the failed row, and
+        // the rows before it remain inserted.
+        list.clear();
+        for (int id=200; id<205; id++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(id);
+            if (id != 203) {
+                // Row 203 is missing a required property.
+                stb.setStringProp(id + "batch");
+            }
+            stb.setIntProp(1);
+            stb.setLongProp(2);
+            list.add(stb);
+        }
+
+        try {
+            cap.tryInsertAll(StorableTestVersioned.class, list);
+            fail();
+        } catch (BatchPersistException e) {
+            assertEquals(3, e.getIndex());
+            results = e.getResults();
+            assertEquals(3, results.length);
+            for (boolean result : results) {
+                assertTrue(result);
+            }
+        }
+
+        for (int id=200; id<205; id++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(id);
+            assertEquals(id < 203, stb.tryLoad());
+        }
+    }
+
+    @Test
+    public void scanAdmissionNestedQuery() throws Exception {
+        Repository repo = MapRepositoryBuilder.newRepository();
+
+        RemoteRepositoryServerBuilder builder = new RemoteRepositoryServerBuilder();
+        builder.setRepository(repo);
+        builder.setMaxConcurrentScans(StorableTestVersioned.class, 1);
+        builder.setAdmissionTimeout(5, TimeUnit.SECONDS);
+        RemoteRepositoryServer server = builder.build();
+
+        Session[] pair = new Environment().newSessionPair();
+        pair[0].send(server);
+        Repository clientRepo = ClientRepository.from((RemoteRepository) pair[1].receive());
+
+        Storage<StorableTestVersioned> storage =
+            clientRepo.storageFor(StorableTestVersioned.class);
+
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+
+        for (int i=0; i<2000; i++) {
+            StorableTestVersioned stb = storage.prepare();
+            stb.setId(i);
+            stb.setStringProp(value);
+            stb.insert();
+        }
+
+        // Outer cursor is blocked on the pipe, and so it must not hold the
+        // only scan permit while the nested query runs.
+        Cursor<StorableTestVersioned> cursor = storage.query().fetch();
+        try {
+            int count = 0;
+            while (cursor.hasNext()) {
+                StorableTestVersioned stb = cursor.next();
+                if (count++ == 0) {
+                    assertEquals(10, storage.query("id < ?").with(10).count());
+                }
+            }
+            assertEquals(2000, count);
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(0, server.getStorageMetrics(StorableTestVersioned.class)
+                     .getAdmissionRejectedCount());
+    }
+
     private static Class<? extends Storable> generateNewType() throws SupportException {
         final String newName = StorableTestVersioned.class.getName();
 
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock for tests which only moves when advanced, installed in a {@link
+ * ClientRepositoryBuilder} to control the read your writes window.
+ *
+ * @author agent
+ */
+public class ManualClock extends ClientRepository.Clock {
+    private volatile long mNanos;
+
+    public ManualClock() {
+    }
+
+    public void installIn(ClientRepositoryBuilder builder) {
+        builder.setClock(this);
+    }
+
+    public void advance(long duration, TimeUnit unit) {
+        mNanos += unit.toNanos(duration);
+    }
+
+    @Override
+    long nanoTime() {
+        return mNanos;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.amazon.carbonado.filter.Filter;
+
+import com.amazon.carbonado.qe.OrderingList;
+
+import com.amazon.carbonado.stored.StorableTestVersioned;
+
+/**
+ * 
+ *
+ * @author agent
+ */
+public class QueryKeyTest {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(QueryKeyTest.class.getName());
+    }
+
+    @Test
+    public void emptyOrdering() {
+        Filter<StorableTestVersioned> filter =
+            Filter.filterFor(StorableTestVersioned.class, "id > ?");
+        OrderingList<StorableTestVersioned> empty = OrderingList.emptyList();
+
+        QueryKey unordered = new QueryKey(filter, null);
+        QueryKey emptyOrdered = new QueryKey(filter, empty);
+
+        // Both forms share one cache entry.
+        assertNull(emptyOrdered.getOrderBy());
+        assertEquals(unordered, emptyOrdered);
+        assertEquals(unordered.hashCode(), emptyOrdered.hashCode());
+
+        QueryKey ordered = new QueryKey
+            (filter, OrderingList.get(StorableTestVersioned.class, "+id"));
+        assertFalse(unordered.equals(ordered));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.SupportException;
+
+import com.amazon.carbonado.layout.Layout;
+
+import com.amazon.carbonado.stored.StorableTestVersioned;
+import com.amazon.carbonado.synthetic.SyntheticStorableBuilder;
+
+/**
+ * 
+ *
+ * @author agent
+ */
+public class ReconstructedCacheTest {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(ReconstructedCacheTest.class.getName());
+    }
+
+    @Test
+    public void persistentRestart() throws Exception {
+        // Persistent layouts require BDB-JE.
+        boolean hasJE;
+        try {
+            Class.forName("com.sleepycat.je.Environment");
+            hasJE = true;
+        } catch (ClassNotFoundException e) {
+            hasJE = false;
+        }
+        assumeTrue(hasJE);
+
+        File dir = new File(System.getProperty("java.io.tmpdir"),
+                            "ReconstructedCacheTest-" + UUID.randomUUID());
+        try {
+            ReconstructedCache cache = new ReconstructedCache(dir);
+            Layout remote;
+            try {
+                remote = cache.layoutFor(generateNewType());
+                assertNotNull(cache.reconstruct(StorableTestVersioned.class, remote));
+            } finally {
+                cache.close();
+            }
+
+            File registry = new File(dir, "reconstructed");
+            List<String> lines = readLines(registry);
+            assertEquals(1, lines.size());
+
+            // Registry is only appended to, and so entries repeat across restarts.
+            Writer out = new OutputStreamWriter(new FileOutputStream(registry, true), "UTF-8");
+            try {
+                for (int i=0; i<3; i++) {
+                    out.write(lines.get(0));
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+
+            cache = new ReconstructedCache(dir);
+            try {
+                // Registry is replayed in the background.
+                long end = System.currentTimeMillis() + 30000;
+                while (cache.getStatistics().getPreloadedCount() == 0) {
+                    assertTrue(System.currentTimeMillis() < end);
+                    Thread.sleep(10);
+                }
+
+                Layout reloaded = cache.layoutFor(StorableTestVersioned.class)
+                    .getGeneration(remote.getGeneration());
+                assertTrue(reloaded.equalLayouts(remote));
+
+                // Class and writer were generated by the replay.
+                StorableWriter<StorableTestVersioned> writer =
+                    cache.writerFor(StorableTestVersioned.class, reloaded);
+                assertSame(writer, cache.writerFor(StorableTestVersioned.class, reloaded));
+
+                ReconstructedCacheStatistics stats = cache.getStatistics();
+                assertEquals(1, stats.getPreloadedCount());
+                assertEquals(1, stats.getMissCount());
+                assertEquals(0, stats.getHitCount());
+                assertEquals(2, stats.getWriterHitCount());
+
+                // Registry was compacted by the replay.
+                assertEquals(lines, readLines(registry));
+            } finally {
+                cache.close();
+            }
+        } finally {
+            ReconstructedCache.deleteTempDir(dir);
+        }
+    }
+
+    /**
+     * Returns a type with the same name as StorableTestVersioned, but with
+     * a different layout.
+     */
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader
+            (new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    static Class<? extends Storable> generateNewType() throws SupportException {
+        final String newName = StorableTestVersioned.class.getName();
+
+        SyntheticStorableBuilder bob = new SyntheticStorableBuilder
+            (newName, new ClassLoader() {
+                @Override
+                protected Class<?> loadClass(String name, boolean resolve)
+                    throws ClassNotFoundException
+                {
+                    if (name.equals(newName)) {
+                        throw new ClassNotFoundException();
+                    }
+                    return super.loadClass(name, resolve);
+                }
+            });
+        bob.setClassNameProvider(new SyntheticStorableBuilder.ClassNameProvider() {
+            public String getName() {
+                return newName;
+            }
+            public boolean isExplicit() {
+                return true;
+            }
+        });
+        bob.addProperty("id", int.class);
+        bob.addPrimaryKey().addProperty("id");
+        bob.addProperty("stringProp", String.class);
+        bob.addProperty("version", int.class).setIsVersion(true);
+        bob.addProperty("intProp", int.class);
+        bob.addProperty("longProp", long.class);
+        return bob.build();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * 
+ *
+ * @author agent
+ */
+public class RemoteTransactionServerTest {
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(RemoteTransactionServerTest.class.getName());
+    }
+
+    @Test
+    public void foreignDetach() throws Exception {
+        final RemoteTransactionServer txn = new RemoteTransactionServer(null, null);
+
+        assertEquals(RemoteTransactionServer.ATTACH_FAST, txn.attach());
+        assertEquals(RemoteTransactionServer.ATTACH_REENTERED, txn.attach());
+
+        Thread t = new Thread() {
+            public void run() {
+                txn.detach();
+            }
+        };
+        t.start();
+        t.join();
+
+        // Owner has re-entered, and so another thread cannot release it.
+        assertEquals(2, txn.getState());
+
+        txn.detach();
+        assertEquals(1, txn.getState());
+
+        t = new Thread() {
+            public void run() {
+                txn.detach();
+            }
+        };
+        t.start();
+        t.join();
+
+        // A single hold can be released by another thread.
+        assertEquals(0, txn.getState());
+        assertEquals(RemoteTransactionServer.ATTACH_FAST, txn.attach());
+        txn.detach();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2026 Amazon Technologies, Inc. or its affiliates.
+ * Amazon, Amazon.com and Carbonado are trademarks or registered trademarks
+ * of Amazon Technologies, Inc. or its affiliates.  All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazon.carbonado.repo.dirmi;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.amazon.carbonado.Storable;
+
+import com.amazon.carbonado.layout.Layout;
+
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder;
+
+import com.amazon.carbonado.stored.StorableTestVersioned;
+
+/**
+ * 
+ *
+ * @author agent
+ */
+public class StorableWriterTest {
+    private static final int WARMUP_ROWS = 20000, ROWS = 10000;
+
+    public static void main(String[] args) {
+        org.junit.runner.JUnitCore.main(StorableWriterTest.class.getName());
+    }
+
+    @Test
+    public void copierAllocation() throws Exception {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        ReconstructedCache cache = new ReconstructedCache(null);
+        try {
+            Layout remote = cache.layoutFor(ReconstructedCacheTest.generateNewType());
+            StorableWriter<StorableTestVersioned> copier =
+                cache.writerFor(StorableTestVersioned.class, remote);
+            assertTrue(copier instanceof StorableWriter.Copier);
+
+            StorableTestVersioned row = MapRepositoryBuilder.newRepository()
+                .storageFor(StorableTestVersioned.class).prepare();
+            row.setId(1);
+            row.setStringProp("hello");
+            row.setIntProp(2);
+            row.setLongProp(3);
+            row.setDoubleProp(4.0);
+            row.setVersion(5);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1000);
+
+            long direct = bytesPerRow(bean, StorableWriter.DEFAULT, (Storable) row, out);
+            long copied = bytesPerRow(bean, copier, row, out);
+
+            // Targets are reused, and so converting a row allocates no more
+            // than writing it directly, aside from measurement noise.
+            assertTrue(copied + " > " + direct, copied <= direct + 16);
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static <S extends Storable> long bytesPerRow(com.sun.management.ThreadMXBean bean,
+                                                         StorableWriter<S> writer, S row,
+                                                         ByteArrayOutputStream out)
+        throws Exception
+    {
+        long id = Thread.currentThread().getId();
+
+        for (int i=0; i<WARMUP_ROWS; i++) {
+            out.reset();
+            writer.writeLoadResponse(row, out);
+        }
+
+        long start = bean.getThreadAllocatedBytes(id);
+        for (int i=0; i<ROWS; i++) {
+            out.reset();
+            writer.writeLoadResponse(row, out);
+        }
+        return (bean.getThreadAllocatedBytes(id) - start) / ROWS;
+    }
+}